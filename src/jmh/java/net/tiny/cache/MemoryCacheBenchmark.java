@@ -0,0 +1,63 @@
+package net.tiny.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The lookups of {@link MemoryCache} by 4 threads, a missed value is put,
+ * same keys and capacity as the LRU caches of net.tiny.ws.cache.CacheBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MemoryCacheBenchmark {
+
+    static final int CAPACITY = 256;
+    static final int KEYS = CAPACITY * 4;
+
+    private MemoryCache<String, String> cache;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        // The size of a value is 1, the limit is the number of values
+        cache = new MemoryCache<String, String>(CAPACITY + 1) {
+            @Override
+            protected int getSize(String value) {
+                return 1;
+            }
+        };
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key-" + i;
+        }
+    }
+
+    @Benchmark
+    public String get() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String key = keys[Math.min(random.nextInt(KEYS), random.nextInt(KEYS))];
+        String value = cache.get(key);
+        if (value == null) {
+            value = "value-" + key;
+            cache.put(key, value);
+        }
+        return value;
+    }
+}
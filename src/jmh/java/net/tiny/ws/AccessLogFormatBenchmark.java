@@ -0,0 +1,69 @@
+package net.tiny.ws;
+
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A COMBINED access log line by the previous MessageFormat path and by the compiled format.
+ * The bytes allocated per line are the gc.alloc.rate.norm of the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class AccessLogFormatBenchmark {
+
+    private AccessLogger logger;
+    private String pattern;
+    private AccessLogFormat compiled;
+    private AccessRecord record;
+
+    @Setup
+    public void setup() {
+        logger = new AccessLogger();
+        pattern = AccessLogger.getPattern(AccessLogger.COMBINED_FORMAT);
+        compiled = AccessLogFormat.compile(pattern);
+        record = new AccessRecord("127.0.0.1", "hogo", "localhost", "GET", "/index.html", "HTTP/1.1",
+                200, "420", "/index.html", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1)",
+                System.currentTimeMillis(), 12L);
+    }
+
+    @Benchmark
+    public String messageFormat() {
+        // The formatting of previous version
+        final String date = logger.formatDate(new Date(record.timestamp));
+        final String request = record.method + " " + record.uri + " " + record.protocol;
+        final String timeTaken = String.format("%.3f", ((float)record.elapsed/1000f));
+        return MessageFormat.format(pattern, record.remote, "-", record.username, date, timeTaken, request,
+                Integer.toString(record.status), record.size, record.referer, record.agent);
+    }
+
+    @Benchmark
+    public StringBuilder compiled() {
+        // Appended into the reused buffer as the async writer does
+        final StringBuilder out = AccessLogFormat.buffer();
+        compiled.format(record, out);
+        return out;
+    }
+
+    @Benchmark
+    public String compiledString() {
+        return compiled.format(record);
+    }
+}
@@ -0,0 +1,64 @@
+package net.tiny.ws;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The parsing of a multipart payload of a text field and a file of the size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormDataBenchmark {
+
+    static final String BOUNDARY = "WebKitFormBoundaryKBRUiUWrIpW9wq2j";
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] payload;
+    private byte[] boundary;
+
+    @Setup
+    public void setup() throws Exception {
+        final byte[] file = new byte[size];
+        Arrays.fill(file, (byte) 'x');
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(size + 512);
+        out.write(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"textline\"\r\n" +
+                "Content-type: text/plain;charset=UTF-8\r\n" +
+                "\r\n" +
+                "value of textfield here\r\n" +
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"datafile\"; filename=\"test.bin\"\r\n" +
+                "Content-type: application/octet-stream\r\n" +
+                "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(file);
+        out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        payload = out.toByteArray();
+        boundary = ("--" + BOUNDARY).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<FormDataHandler.MultiPart> parse() {
+        return FormDataHandler.parse(payload, boundary);
+    }
+}
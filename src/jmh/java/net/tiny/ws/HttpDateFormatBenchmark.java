@@ -0,0 +1,53 @@
+package net.tiny.ws;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The HTTP dates by 4 threads, on the shared synchronized format or the pooled formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class HttpDateFormatBenchmark {
+
+    @Param({"true", "false"})
+    public boolean synchronize;
+
+    private Date date;
+    private String text;
+
+    @Setup
+    public void setup() {
+        HttpDateFormat.synchronize = synchronize;
+        date = new Date();
+        text = HttpDateFormat.format(date);
+    }
+
+    @Benchmark
+    public String format() {
+        return HttpDateFormat.format(date);
+    }
+
+    @Benchmark
+    public Date parse() {
+        return HttpDateFormat.parse(text);
+    }
+}
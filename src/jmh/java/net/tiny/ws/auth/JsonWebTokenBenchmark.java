@@ -0,0 +1,66 @@
+package net.tiny.ws.auth;
+
+import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The encoding and the decoding of JSON web tokens by the algorithm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonWebTokenBenchmark {
+
+    @Param({"HS256", "RS256"})
+    public String algorithm;
+
+    private Map<String, Object> claims;
+    private String signKey;
+    private String verifyKey;
+    private String jwt;
+
+    @Setup
+    public void setup() {
+        if (algorithm.startsWith("HS")) {
+            signKey = JsonWebToken.generateHMACKey(algorithm);
+            verifyKey = signKey;
+        } else {
+            final KeyPair keyPair = JsonWebToken.generateKeyPair(algorithm);
+            signKey = Keys.encodeKey(keyPair.getPrivate());
+            verifyKey = Keys.encodeKey(keyPair.getPublic());
+        }
+        claims = new HashMap<>();
+        claims.put("iss", "net.tiny");
+        claims.put("sub", "bench");
+        claims.put("user", "hoge");
+        claims.put("scope", "member");
+        jwt = JsonWebToken.encode(claims, algorithm, signKey).token();
+    }
+
+    @Benchmark
+    public JsonWebToken encode() {
+        return JsonWebToken.encode(claims, algorithm, signKey);
+    }
+
+    @Benchmark
+    public JsonWebToken decode() {
+        return JsonWebToken.decode(jwt, verifyKey);
+    }
+}
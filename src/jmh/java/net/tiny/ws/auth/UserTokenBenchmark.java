@@ -0,0 +1,48 @@
+package net.tiny.ws.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The decoding of a user token and the base64 encoding of its bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserTokenBenchmark {
+
+    private String token;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        final UserToken userToken = UserToken.create("hoge", "password", "192.168.1.100");
+        userToken.setIssuer(999);
+        token = userToken.getToken();
+        bytes = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public UserToken valueOf() {
+        return UserToken.valueOf(token);
+    }
+
+    @Benchmark
+    public String encodeBase64() {
+        return Codec.encodeBase64(bytes);
+    }
+}
@@ -0,0 +1,83 @@
+package net.tiny.ws.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The lookups of the LRU caches by 4 threads, the keys are 4 times more than the capacity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class CacheBenchmark {
+
+    static final int CAPACITY = 256;
+    static final int KEYS = CAPACITY * 4;
+
+    @Param({"lru1", "lru2", "lru3", "lru4", "barakb"})
+    public String cache;
+
+    private Calculator<String, String> calculator;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        final Function<String, String> initializer = key -> "value-" + key;
+        switch (cache) {
+        case "lru1":
+            calculator = new Cache.LruCache1<>(CAPACITY, initializer);
+            break;
+        case "lru2":
+            calculator = new Cache.LruCache2<>(CAPACITY, initializer);
+            break;
+        case "lru3":
+            calculator = new Cache.LruCache3<>(CAPACITY, initializer);
+            break;
+        case "lru4":
+            calculator = new Cache.LruCache4<>(CAPACITY, initializer);
+            break;
+        case "barakb":
+            final BarakbCache<String, String> barakb = new BarakbCache<>(initializer::apply, CAPACITY);
+            calculator = key -> {
+                try {
+                    return barakb.get(key);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown cache " + cache);
+        }
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key-" + i;
+        }
+    }
+
+    @Benchmark
+    public String get() {
+        // Skewed to the low keys, most lookups are hits
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int index = Math.min(random.nextInt(KEYS), random.nextInt(KEYS));
+        return calculator.get(keys[index]);
+    }
+}
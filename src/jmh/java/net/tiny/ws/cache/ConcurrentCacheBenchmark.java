@@ -0,0 +1,93 @@
+package net.tiny.ws.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BarakbCache and ConcurrentCache on a hit heavy load (hot 256 keys of 1024 capacity)
+ * with 1, 8 and 32 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentCacheBenchmark {
+
+    static final int CAPACITY = 1024;
+    static final int KEYS = 2048;
+    static final int HOT_KEYS = 256;
+
+    @Param({"barakb", "concurrent"})
+    public String cache;
+
+    private Calculator<Integer, byte[]> calculator;
+
+    @Setup
+    public void setup() {
+        final byte[] contents = new byte[1024];
+        switch (cache) {
+        case "barakb":
+            final BarakbCache<Integer, byte[]> barakb = new BarakbCache<>(key -> contents, CAPACITY);
+            calculator = key -> {
+                try {
+                    return barakb.get(key);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            break;
+        case "concurrent":
+            final ConcurrentCache<Integer, byte[]> concurrent = new ConcurrentCache<>(key -> contents, CAPACITY);
+            calculator = key -> {
+                try {
+                    return concurrent.get(key);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown cache " + cache);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] threads1() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] threads8() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public byte[] threads32() {
+        return get();
+    }
+
+    private byte[] get() {
+        // 90% of gets are on the hot keys
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int key = random.nextInt(10) < 9 ? random.nextInt(HOT_KEYS) : random.nextInt(KEYS);
+        return calculator.get(key);
+    }
+}
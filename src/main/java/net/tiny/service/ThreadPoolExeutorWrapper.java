@@ -65,6 +65,28 @@ public class ThreadPoolExeutorWrapper implements ExecutorService {
     	};
     }
 
+    /**
+     * @return the number of tasks waiting in the queue
+     */
+    public int getQueueSize() {
+        return getDelgate().getQueue().size();
+    }
+
+    /**
+     * @return the approximate number of threads running tasks
+     */
+    public int getActiveCount() {
+        return getDelgate().getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return getDelgate().getPoolSize();
+    }
+
+    public long getCompletedTaskCount() {
+        return getDelgate().getCompletedTaskCount();
+    }
+
     @Override
     public String toString() {
         return String.format(String.format("%s#%d {size:%d, max:%d, timeout:%ds}",
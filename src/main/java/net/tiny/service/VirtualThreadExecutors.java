@@ -0,0 +1,99 @@
+package net.tiny.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates a virtual thread per task executor when the running JDK supports it (JDK21+),
+ * otherwise falls back to a bounded platform thread pool.
+ * The virtual thread executor is looked up by reflection, so this class still runs on JDK8.
+ */
+public final class VirtualThreadExecutors {
+
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreadExecutors.class.getName());
+
+    private static final String VIRTUAL_FACTORY_METHOD = "newVirtualThreadPerTaskExecutor";
+    private static final long FALLBACK_KEEP_ALIVE = 60L;
+    private static final Method IS_VIRTUAL = lookupIsVirtual();
+
+    private VirtualThreadExecutors() {}
+
+    public static boolean isSupported() {
+        return lookupFactory() != null;
+    }
+
+    /**
+     * @return true if the thread is a virtual thread, always false before JDK21
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a executor that runs every task on a new virtual thread.
+     *
+     * @param fallbackThreads the max threads of the platform pool, used when virtual threads are not supported.
+     * @return executor
+     */
+    public static ExecutorService newExecutor(int fallbackThreads) {
+        final Method factory = lookupFactory();
+        if (factory != null) {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (Exception ex) {
+                // JDK19,20 throws UnsupportedOperationException without '--enable-preview'
+                LOGGER.log(Level.FINE, String.format("Can not create virtual thread executor : %s", ex.getMessage()), ex);
+            }
+        }
+        LOGGER.info(String.format("Virtual thread not supported on JDK '%s', fallback to a bounded pool (max:%d).",
+                System.getProperty("java.version"), fallbackThreads));
+        return newBoundedExecutor(fallbackThreads);
+    }
+
+    static ExecutorService newBoundedExecutor(int threads) {
+        final ThreadGroup group = new ThreadGroup("virtual-fallback");
+        final ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable target) {
+                Thread thread = new Thread(group, target);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                FALLBACK_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static Method lookupIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException | SecurityException ex) {
+            return null;
+        }
+    }
+
+    private static Method lookupFactory() {
+        try {
+            return Executors.class.getMethod(VIRTUAL_FACTORY_METHOD);
+        } catch (NoSuchMethodException | SecurityException ex) {
+            return null;
+        }
+    }
+}
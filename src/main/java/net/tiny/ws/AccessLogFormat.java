@@ -0,0 +1,219 @@
+package net.tiny.ws;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A access log pattern compiled once into a sequence of field writers, or the JSON lines format.
+ * The pattern is the indexed form of {@link java.text.MessageFormat} made by {@link AccessLogger#getPattern(String)},
+ * ex. '{0} {1} {2} [{3}] "{5}" {6} {7}'.
+ * A log line is appended into a reusable per-thread buffer without parsing the pattern,
+ * and the date is formatted once per second.
+ */
+final class AccessLogFormat {
+
+    /** Appends a field of the record */
+    @FunctionalInterface
+    interface FieldWriter {
+        void write(AccessRecord record, StringBuilder out);
+    }
+
+    private static final int MAX_BUFFER = 8192;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private static final SimpleDateFormat DATE_FORMAT =
+            new SimpleDateFormat("d/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+
+    static final class Timestamp {
+        final long second;
+        final String text;
+
+        Timestamp(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    private static volatile Timestamp timestamp = new Timestamp(Long.MIN_VALUE, "");
+
+    // The field writers of index {0} - {9}
+    private static final FieldWriter[] FIELDS = new FieldWriter[] {
+        (r, out) -> out.append(r.remote),
+        (r, out) -> out.append('-'),
+        (r, out) -> out.append(r.username),
+        (r, out) -> out.append(formatDate(r.timestamp)),
+        (r, out) -> appendSeconds(r.elapsed, out),
+        (r, out) -> out.append(r.method).append(' ').append(r.uri).append(' ').append(r.protocol),
+        (r, out) -> out.append(r.status),
+        (r, out) -> out.append(r.size),
+        (r, out) -> out.append(r.referer),
+        (r, out) -> out.append(r.agent)
+    };
+
+    /** The JSON lines format with the nanosecond timings of exchange */
+    static final AccessLogFormat JSON = new AccessLogFormat("json", new FieldWriter[] { AccessLogFormat::json });
+
+    private final String pattern;
+    private final FieldWriter[] writers;
+
+    private AccessLogFormat(String pattern, FieldWriter[] writers) {
+        this.pattern = pattern;
+        this.writers = writers;
+    }
+
+    /**
+     * Compile the indexed pattern, the quoting of MessageFormat ('{' and '') is supported.
+     *
+     * @throws IllegalArgumentException if the pattern has an unknown index
+     */
+    static AccessLogFormat compile(String pattern) {
+        final List<FieldWriter> list = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        boolean quoted = false;
+        final int length = pattern.length();
+        for (int i = 0; i < length; i++) {
+            final char c = pattern.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < length && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == '{' && !quoted) {
+                final int end = pattern.indexOf('}', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unmatched braces in the pattern : " + pattern);
+                }
+                final int index;
+                try {
+                    index = Integer.parseInt(pattern.substring(i + 1, end).trim());
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Unknown field in the pattern : " + pattern);
+                }
+                if (index < 0 || index >= FIELDS.length) {
+                    throw new IllegalArgumentException("Unknown field {" + index + "} in the pattern : " + pattern);
+                }
+                addLiteral(list, literal);
+                list.add(FIELDS[index]);
+                i = end;
+            } else {
+                literal.append(c);
+            }
+        }
+        addLiteral(list, literal);
+        return new AccessLogFormat(pattern, list.toArray(new FieldWriter[list.size()]));
+    }
+
+    private static void addLiteral(List<FieldWriter> list, StringBuilder literal) {
+        if (literal.length() == 0) {
+            return;
+        }
+        final String text = literal.toString();
+        if (text.length() == 1) {
+            final char c = text.charAt(0);
+            list.add((r, out) -> out.append(c));
+        } else {
+            list.add((r, out) -> out.append(text));
+        }
+        literal.setLength(0);
+    }
+
+    private static void json(AccessRecord r, StringBuilder out) {
+        final JsonLineWriter json = new JsonLineWriter(out).begin()
+                .field("timestamp", r.timestamp)
+                .field("remote", r.remote)
+                .field("user", r.username)
+                .field("host", r.host)
+                .field("method", r.method)
+                .field("uri", r.uri)
+                .field("protocol", r.protocol)
+                .field("path", r.path)
+                .field("status", r.status)
+                .field("size", r.size)
+                .field("referer", r.referer)
+                .field("agent", r.agent);
+        final ExchangeTiming timing = r.timing;
+        if (timing != null) {
+            json.field("bytes", timing.getBytes())
+                .field("queue_ns", timing.getQueueNanos())
+                .field("filter_ns", timing.getFilterNanos())
+                .field("handler_ns", timing.getHandlerNanos())
+                .field("write_ns", timing.getWriteNanos())
+                .field("total_ns", timing.getTotalNanos());
+        } else {
+            json.field("total_ns", r.elapsed * 1000000L);
+        }
+        json.end();
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Append a log line of the record.
+     */
+    void format(AccessRecord record, StringBuilder out) {
+        for (FieldWriter writer : writers) {
+            writer.write(record, out);
+        }
+    }
+
+    String format(AccessRecord record) {
+        final StringBuilder out = buffer();
+        format(record, out);
+        return out.toString();
+    }
+
+    /**
+     * @return the cleared buffer of current thread
+     */
+    static StringBuilder buffer() {
+        StringBuilder out = BUFFER.get();
+        if (out.capacity() > MAX_BUFFER) {
+            // Not keep a huge buffer of a large batch
+            out = new StringBuilder(256);
+            BUFFER.set(out);
+        }
+        out.setLength(0);
+        return out;
+    }
+
+    static String formatDate(long millis) {
+        final long second = Math.floorDiv(millis, 1000L);
+        Timestamp current = timestamp;
+        if (current.second != second) {
+            final String text;
+            synchronized (DATE_FORMAT) {
+                text = DATE_FORMAT.format(new Date(second * 1000L));
+            }
+            current = new Timestamp(second, text);
+            timestamp = current;
+        }
+        return current.text;
+    }
+
+    /**
+     * Append the milliseconds as seconds with 3 decimals, ex. '0.012'
+     */
+    static void appendSeconds(long millis, StringBuilder out) {
+        if (millis < 0L) {
+            out.append('-');
+            millis = -millis;
+        }
+        out.append(millis / 1000L).append('.');
+        final long fraction = millis % 1000L;
+        if (fraction < 100L) {
+            out.append('0');
+        }
+        if (fraction < 10L) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+}
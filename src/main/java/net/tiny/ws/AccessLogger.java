@@ -1,29 +1,26 @@
 package net.tiny.ws;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.Locale;
+import java.util.List;
 import java.util.logging.Logger;
 
 import com.sun.net.httpserver.Filter;
-import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpPrincipal;
 
 /**
  * Access log format
  * @see https://qiita.com/ryounagaoka/items/e7782ab29ff9fbe8f891
  *
+ * With the async mode, the request threads only enqueue the records,
+ * a background writer formats and flushes them in batches.
  */
-public class AccessLogger extends Filter {
+public class AccessLogger extends Filter implements AutoCloseable {
 
     private static final Logger LOGGER = Logger.getLogger(AccessLogger.class.getName());
 
@@ -43,15 +40,15 @@ public class AccessLogger extends Filter {
 
     public static enum Format {
         COMMON,
-        COMBINED
+        COMBINED,
+        JSON
     }
 
     private static final String[] PATTERN_KEYS = new String[] {
         "%h", "%l", "%u", "%t", "%T", "%r", "%>s", "%b", "%{Referer}i", "%{User-agent}i" };
 
-    private static	final SimpleDateFormat DATE_FORMAT =
-            new SimpleDateFormat("d/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
 
+    private static final int CHUNK_SIZE = 4096;
 
     private static String COMMON_PATTERN = null;
     private static String COMBINED_PATTERN = null;
@@ -84,8 +81,22 @@ public class AccessLogger extends Filter {
 
     private Format format = Format.COMBINED;
     private String formatPattern = combined();
+    private volatile AccessLogFormat compiled = AccessLogFormat.compile(formatPattern);
+    // The chars of a batch, used only by the async writer
+    private char[] chars = new char[CHUNK_SIZE];
     private String out = null;
-    private PrintWriter writer;
+    private volatile PrintWriter writer;
+    private Writer fileWriter = null;
+    private long maxFileSize = -1L; //Roll over the log file larger than the bytes, -1 is no limit
+    private boolean daily = false; //Roll over the log file at midnight
+    private boolean compress = false; //Gzip the rolled log files
+    private int maxHistory = 7; //The number of rolled log files kept
+    private boolean async = false;
+    private int queueSize = AsyncLogWriter.DEFAULT_QUEUE_SIZE;
+    private int batchSize = AsyncLogWriter.DEFAULT_BATCH_SIZE;
+    private long flushInterval = AsyncLogWriter.DEFAULT_FLUSH_INTERVAL;
+    private AsyncLogWriter.Overflow overflow = AsyncLogWriter.Overflow.DROP;
+    private volatile AsyncLogWriter<AccessRecord> asyncWriter = null;
 
     public AccessLogger() {
         setOut("stderr");
@@ -94,11 +105,16 @@ public class AccessLogger extends Filter {
     @Override
     public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
         final long start = System.currentTimeMillis();
+        final ExchangeTiming timing = (format == Format.JSON) ? ExchangeTiming.start(exchange) : null;
         if(null != chain) {
             chain.doFilter(exchange);
         }
-        String log = format(exchange, formatPattern, (System.currentTimeMillis()-start));
-        writeAccessLog(log);
+        final AccessRecord record = AccessRecord.of(exchange, start, timing);
+        if (async) {
+            getAsyncWriter().offer(record);
+        } else {
+            writeAccessLog(compiled.format(record));
+        }
     }
 
     @Override
@@ -108,6 +124,7 @@ public class AccessLogger extends Filter {
 
     public void setOut(String file) {
         this.out = file;
+        closeFile();
         switch(out) {
         case "stdout":
             setLogger(new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))));
@@ -117,7 +134,8 @@ public class AccessLogger extends Filter {
             break;
         default:
             try {
-                setLogger(new PrintWriter(new BufferedWriter(new FileWriter(file))));
+                fileWriter = RollingFileWriter.open(new File(file), false, maxFileSize, daily, compress, maxHistory);
+                setLogger(new PrintWriter(new BufferedWriter(fileWriter)));
             } catch (IOException ex) {
                 setLogger(new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))));
                 LOGGER.severe(String.format("Cant not access log file '%s', output to console.", file));
@@ -126,6 +144,42 @@ public class AccessLogger extends Filter {
         }
     }
 
+    private void closeFile() {
+        if (null != fileWriter) {
+            writer.close();
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Reopen the log file with the changed rolling options.
+     */
+    private void reopen() {
+        if (null != fileWriter) {
+            setOut(out);
+        }
+    }
+
+    public void setMaxFileSize(long size) {
+        this.maxFileSize = size;
+        reopen();
+    }
+
+    public void setDaily(boolean daily) {
+        this.daily = daily;
+        reopen();
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+        reopen();
+    }
+
+    public void setMaxHistory(int history) {
+        this.maxHistory = history;
+        reopen();
+    }
+
     protected void setLogger(Writer logger) {
         if (logger instanceof PrintWriter) {
             writer = (PrintWriter)logger;
@@ -143,11 +197,93 @@ public class AccessLogger extends Filter {
         writer.flush();
     }
 
+    private AsyncLogWriter<AccessRecord> getAsyncWriter() {
+        AsyncLogWriter<AccessRecord> w = asyncWriter;
+        if (w == null) {
+            synchronized (this) {
+                if (asyncWriter == null) {
+                    asyncWriter = new AsyncLogWriter<>(this::writeAccessLogs,
+                            queueSize, batchSize, flushInterval, overflow);
+                }
+                w = asyncWriter;
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Format and write a batch of records on the background writer, flush once.
+     */
+    void writeAccessLogs(List<AccessRecord> records) {
+        final AccessLogFormat lineFormat = compiled;
+        final String separator = System.lineSeparator();
+        final StringBuilder buffer = AccessLogFormat.buffer();
+        for (AccessRecord record : records) {
+            lineFormat.format(record, buffer);
+            buffer.append(separator);
+            if (buffer.length() >= CHUNK_SIZE) {
+                writeChunk(buffer);
+            }
+        }
+        writeChunk(buffer);
+        writer.flush();
+    }
+
+    private void writeChunk(StringBuilder buffer) {
+        final int length = buffer.length();
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        buffer.getChars(0, length, chars, 0);
+        writer.write(chars, 0, length);
+        buffer.setLength(0);
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public void setQueueSize(int size) {
+        this.queueSize = size;
+    }
+
+    public void setBatchSize(int size) {
+        this.batchSize = size;
+    }
+
+    public void setFlushInterval(long interval) {
+        this.flushInterval = interval;
+    }
+
+    /**
+     * @param policy 'drop' the records over the queue size, or 'block' the request threads
+     */
+    public void setOverflow(String policy) {
+        this.overflow = AsyncLogWriter.Overflow.valueOf(policy.toUpperCase());
+    }
+
+    /**
+     * @return the number of records dropped by the async writer
+     */
+    public long getDropCount() {
+        final AsyncLogWriter<AccessRecord> w = asyncWriter;
+        return (w != null) ? w.getDropCount() : 0L;
+    }
+
     public String getFormatPattern() {
         return formatPattern;
     }
+    /**
+     * @param pattern the indexed pattern (ex. '{0} {1} {2}'), or the log format (ex. '%h %l %u')
+     */
     public void setFormatPattern(String pattern) {
-        this.formatPattern = pattern;
+        final String indexed = getPattern(pattern);
+        this.compiled = AccessLogFormat.compile(indexed);
+        this.formatPattern = indexed;
     }
 
     public String getFormat() {
@@ -155,7 +291,12 @@ public class AccessLogger extends Filter {
     }
 
     public void setFormat(String format) {
-        switch (Format.valueOf(format.toUpperCase())) {
+        this.format = Format.valueOf(format.toUpperCase());
+        switch (this.format) {
+        case JSON:
+            // JSON lines with the timings of exchange
+            this.compiled = AccessLogFormat.JSON;
+            break;
         case COMMON:
             setFormatPattern(common());
             break;
@@ -166,43 +307,26 @@ public class AccessLogger extends Filter {
         }
     }
 
+
     String formatDate(Date date) {
-        synchronized(DATE_FORMAT) {
-            return DATE_FORMAT.format(date);
-        }
+        return AccessLogFormat.formatDate(date.getTime());
     }
 
-    private String format(HttpExchange exchange, String formatPattern, long time) {
-        final String host = exchange.getRemoteAddress().getAddress().getHostAddress();
-        String identity = "-";
-        String username = "-";
-        final HttpPrincipal principal = exchange.getPrincipal();
-        if (principal!=null) {
-            username = principal.getUsername();
-        }
-        final String date = formatDate(Calendar.getInstance().getTime());
-        final String request = exchange.getRequestMethod() + " "
-                + exchange.getRequestURI() + " "
-                + exchange.getProtocol();
-        final String code = Integer.toString(exchange.getResponseCode());
-        String size = exchange.getResponseHeaders().getFirst("Content-length");
-        if(size == null) {
-            size = "0";
-        }
-
-        final Headers headers = exchange.getRequestHeaders();
-        final String agent = headers.getFirst("User-agent");
-        String referer = headers.getFirst("Referer");
-        if(null == referer) {
-            referer = "";
+    /**
+     * Write all queued records and stop the async writer.
+     */
+    @Override
+    public synchronized void close() {
+        if (null != asyncWriter) {
+            asyncWriter.close();
+            asyncWriter = null;
         }
-        String timeTaken = String.format("%.3f", ((float)time/1000f));
-        return MessageFormat.format(formatPattern,
-                host, identity, username, date, timeTaken, request, code, size, referer, agent);
+        writer.flush();
     }
 
     @Override
     protected void finalize() throws Throwable {
+        close();
         if(null != writer) {
             writer.close();
         }
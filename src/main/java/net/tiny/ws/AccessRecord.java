@@ -0,0 +1,86 @@
+package net.tiny.ws;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * The values of an access log captured on the request thread.
+ * The exchange can be reused after the response, so the values are copied
+ * and formatted later on the log writer thread.
+ */
+final class AccessRecord {
+    final String remote;
+    final String username;
+    final String host;
+    final String method;
+    final String uri;
+    final String protocol;
+    final int status;
+    final String size;
+    final String referer;
+    final String agent;
+    final long timestamp;
+    final long elapsed;
+    final String path;
+    final ExchangeTiming timing;
+
+    AccessRecord(String remote, String username, String host, String method, String uri, String protocol,
+            int status, String size, String referer, String agent, long timestamp, long elapsed) {
+        this(remote, username, host, method, uri, protocol, status, size, referer, agent, timestamp, elapsed, null, null);
+    }
+
+    AccessRecord(String remote, String username, String host, String method, String uri, String protocol,
+            int status, String size, String referer, String agent, long timestamp, long elapsed,
+            String path, ExchangeTiming timing) {
+        this.remote = remote;
+        this.username = username;
+        this.host = host;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.status = status;
+        this.size = size;
+        this.referer = referer;
+        this.agent = agent;
+        this.timestamp = timestamp;
+        this.elapsed = elapsed;
+        this.path = path;
+        this.timing = timing;
+    }
+
+    /**
+     * @param exchange the exchange responded
+     * @param start the start time of exchange in milliseconds
+     */
+    static AccessRecord of(HttpExchange exchange, long start) {
+        return of(exchange, start, null);
+    }
+
+    /**
+     * @param exchange the exchange responded
+     * @param start the start time of exchange in milliseconds
+     * @param timing the timing of exchange, or null
+     */
+    static AccessRecord of(HttpExchange exchange, long start, ExchangeTiming timing) {
+        final long now = System.currentTimeMillis();
+        final HttpPrincipal principal = exchange.getPrincipal();
+        final String length = exchange.getResponseHeaders().getFirst("Content-length");
+        final Headers headers = exchange.getRequestHeaders();
+        final String referer = headers.getFirst("Referer");
+        return new AccessRecord(
+                exchange.getRemoteAddress().getAddress().getHostAddress(),
+                (principal != null) ? principal.getUsername() : "-",
+                headers.getFirst("Host"),
+                exchange.getRequestMethod(),
+                exchange.getRequestURI().toString(),
+                exchange.getProtocol(),
+                exchange.getResponseCode(),
+                (length != null) ? length : "0",
+                (referer != null) ? referer : "",
+                headers.getFirst("User-agent"),
+                now, now - start,
+                exchange.getHttpContext().getPath(),
+                (timing != null) ? timing.stop(exchange) : null);
+    }
+}
@@ -0,0 +1,201 @@
+package net.tiny.ws;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Caps the number of exchanges handled at the same time.
+ * An exchange over the cap, waited in the executor queue over the max queue wait,
+ * or rejected by a saturated executor is answered immediately with '503 Service Unavailable'
+ * and the 'Retry-After' header.
+ * The exchanges of priority contexts (ex. health check, controller) are never shed.
+ */
+public class AdmissionFilter extends Filter implements Constants {
+
+    private static final Logger LOGGER = Logger.getLogger(AdmissionFilter.class.getName());
+
+    public static final int DEFAULT_RETRY_AFTER = 1;
+    // The threads and the queue of shedding executor
+    private static final int SHEDDING_THREADS = 2;
+    private static final int SHEDDING_QUEUE = 64;
+
+    // Set while an exchange rejected by the executor runs on the shedding executor
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+    private static final AtomicInteger SHEDDING_SEQUENCE = new AtomicInteger();
+
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final Set<String> priorities = ConcurrentHashMap.newKeySet();
+    private final AtomicLong rejected = new AtomicLong();
+    private long maxQueueWait = 0L;
+    private int retryAfter = DEFAULT_RETRY_AFTER;
+    private ThreadPoolExecutor shedding;
+
+    public AdmissionFilter(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Max concurrency must be positive : " + max);
+        }
+        maxConcurrency = max;
+        permits = new Semaphore(max);
+    }
+
+    /**
+     * @param millis the max wait of an exchange in the executor queue, 0 is unlimited
+     */
+    public AdmissionFilter maxQueueWait(long millis) {
+        maxQueueWait = TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0L));
+        return this;
+    }
+
+    /**
+     * @param seconds the 'Retry-After' of rejected exchanges, 0 is not sent
+     */
+    public AdmissionFilter retryAfter(int seconds) {
+        retryAfter = Math.max(seconds, 0);
+        return this;
+    }
+
+    /**
+     * The exchanges of the context path are never shed.
+     */
+    public AdmissionFilter priority(String path) {
+        priorities.add(path);
+        return this;
+    }
+
+    public boolean isPriority(String path) {
+        return priorities.contains(path);
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (isPriority(exchange.getHttpContext().getPath())) {
+            chain.doFilter(exchange);
+            return;
+        }
+        if (Boolean.TRUE.equals(SHEDDING.get())) {
+            reject(exchange, "executor saturated");
+            return;
+        }
+        if (maxQueueWait > 0L && ExchangeTiming.queued() > maxQueueWait) {
+            reject(exchange, "queue wait over " + TimeUnit.NANOSECONDS.toMillis(maxQueueWait) + "ms");
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            reject(exchange, "max concurrency " + maxConcurrency);
+            return;
+        }
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Concurrency admission filter";
+    }
+
+    /**
+     * Wrap the executor of server, an exchange rejected by the saturated executor
+     * runs on a small bounded shedding executor only to send the 503 (or a priority context),
+     * instead of closing the connection without response.
+     * The dispatcher thread of server never reads the request, a slow client can not stop the accepts.
+     * Over the shedding queue, the exchange is rejected and the server closes the connection.
+     * The filter must be set on all contexts of server.
+     */
+    public synchronized Executor guard(Executor executor) {
+        if (null == shedding) {
+            shedding = new ThreadPoolExecutor(SHEDDING_THREADS, SHEDDING_THREADS, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(SHEDDING_QUEUE), target -> {
+                        final Thread thread = new Thread(target, "admission-shedding-" + SHEDDING_SEQUENCE.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+            shedding.allowCoreThreadTimeOut(true);
+        }
+        final Executor shed = shedding;
+        return task -> {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                shed.execute(() -> {
+                    SHEDDING.set(Boolean.TRUE);
+                    try {
+                        task.run();
+                    } finally {
+                        SHEDDING.remove();
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Stop the shedding executor of the guard.
+     */
+    public synchronized void shutdown() {
+        if (null != shedding) {
+            shedding.shutdownNow();
+            shedding = null;
+        }
+    }
+
+    private void reject(HttpExchange exchange, String reason) throws IOException {
+        final long count = rejected.incrementAndGet();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format("[ADMISSION] Reject '%s' %s (rejected:%d)",
+                    exchange.getRequestURI().getPath(), reason, count));
+        }
+        try {
+            if (retryAfter > 0) {
+                exchange.getResponseHeaders().set(HEADER_RETRY_AFTER, String.valueOf(retryAfter));
+            }
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, NO_RESPONSE_LENGTH);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public long getMaxQueueWait() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueWait);
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s {max:%d, queueWait:%dms, active:%d, rejected:%d}",
+                getClass().getSimpleName(), maxConcurrency, getMaxQueueWait(), getActiveCount(), getRejectedCount());
+    }
+}
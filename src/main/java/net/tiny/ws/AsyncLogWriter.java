@@ -0,0 +1,217 @@
+package net.tiny.ws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the log records on a background thread.
+ * The request threads only enqueue the records into a bounded ring buffer,
+ * the writer thread drains them and writes a batch when the batch is full
+ * or the flush interval has passed.
+ * When the buffer is full, a record is dropped and counted, or the request thread
+ * waits for a free slot with the backpressure policy.
+ *
+ * @param <T> the type of log record
+ */
+public class AsyncLogWriter<T> implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncLogWriter.class.getName());
+
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_FLUSH_INTERVAL = 200L; //200ms
+
+    public static enum Overflow {
+        /** Drop the record and count it */
+        DROP,
+        /** Wait on the request thread for a free slot */
+        BLOCK
+    }
+
+    /**
+     * Formats and writes a batch of records, then flushes the output once.
+     */
+    @FunctionalInterface
+    public interface BatchWriter<T> {
+        void write(List<T> records) throws IOException;
+    }
+
+    private final BlockingQueue<T> queue;
+    private final BatchWriter<T> writer;
+    private final int batchSize;
+    private final long flushInterval;
+    private final Overflow overflow;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public AsyncLogWriter(BatchWriter<T> writer) {
+        this(writer, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, Overflow.DROP);
+    }
+
+    /**
+     * @param writer the writer of batches called on the background thread
+     * @param queueSize the max number of records waiting to be written
+     * @param batchSize the max number of records written at once
+     * @param flushInterval the max time in milliseconds a record waits for the batch
+     * @param overflow the policy when the queue is full
+     */
+    public AsyncLogWriter(BatchWriter<T> writer, int queueSize, int batchSize, long flushInterval, Overflow overflow) {
+        if (queueSize <= 0 || batchSize <= 0 || flushInterval <= 0L) {
+            throw new IllegalArgumentException(String.format("Invalid async log writer size:%d batch:%d interval:%d",
+                    queueSize, batchSize, flushInterval));
+        }
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.overflow = overflow;
+        this.thread = new Thread(this::run, "async-log-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Enqueue a record to write.
+     * @return false if the record was dropped
+     */
+    public boolean offer(T record) {
+        if (running) {
+            if (queue.offer(record)) {
+                return enqueued(record);
+            }
+            if (overflow == Overflow.BLOCK) {
+                try {
+                    while (running) {
+                        if (queue.offer(record, flushInterval, TimeUnit.MILLISECONDS)) {
+                            return enqueued(record);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private boolean enqueued(T record) {
+        if (running || !queue.remove(record)) {
+            return true;
+        }
+        // Closed while enqueueing, the writer may have stopped already
+        dropped.increment();
+        return false;
+    }
+
+    private void run() {
+        final List<T> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                final T first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Wait a little for a larger batch only when the queue is not busy
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    final long wait = deadline - System.nanoTime();
+                    if (wait <= 0L || !running) {
+                        break;
+                    }
+                    final T next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException ex) {
+                // Closing, write the rest
+                running = false;
+                drain(batch);
+            }
+        }
+    }
+
+    private void drain(List<T> batch) {
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+        }
+        write(batch);
+    }
+
+    private void write(List<T> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            writer.write(batch);
+            written.add(batch.size());
+        } catch (IOException | RuntimeException ex) {
+            dropped.add(batch.size());
+            LOGGER.log(Level.WARNING, String.format("[LOG] Write %d records error : %s", batch.size(), ex.getMessage()), ex);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    public long getDropCount() {
+        return dropped.sum();
+    }
+
+    public long getWriteCount() {
+        return written.sum();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stop accepting records and write all queued records.
+     * The records left after the writer thread stopped are counted as dropped.
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            thread.join(Math.max(flushInterval * 10L, 1000L));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            thread.interrupt();
+        }
+        // Enqueued by the request threads which saw running before the writer stopped
+        final List<T> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            dropped.add(rest.size());
+            LOGGER.warning(String.format("[LOG] Drop %d records on close", rest.size()));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s {queue:%d, written:%d, dropped:%d, overflow:%s}",
+                getClass().getSimpleName(), queue.size(), getWriteCount(), getDropCount(), overflow);
+    }
+}
@@ -1,6 +1,5 @@
 package net.tiny.ws;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -29,11 +28,38 @@ public abstract class BaseWebService extends AbstractWebService implements Const
     private static final String DEFAULT_ALLOWED_METHODS  = "GET, POST, PUT, DELETE, OPTIONS";
     private static final String GET_ONLY_ALLOWED_METHODS = "GET, OPTIONS";
 
+    private long maxBodySize = -1L;
+    private long bodyThreshold = RequestBody.DEFAULT_THRESHOLD;
+
     abstract protected void execute(HTTP_METHOD method, HttpExchange he) throws IOException;
 
+    /**
+     * The requests over the size are rejected by '413 Payload Too Large', not limited if less than 0.
+     */
+    public WebServiceHandler setMaxBodySize(long size) {
+        this.maxBodySize = size;
+        return this;
+    }
+
+    /**
+     * The request bodies over the size are spilled in temporary files.
+     */
+    public WebServiceHandler setBodyThreshold(long size) {
+        this.bodyThreshold = size;
+        return this;
+    }
+
+    /**
+     * The request body limited by this handler, shared with the filters.
+     */
+    protected RequestBody getRequestBody(HttpExchange he) throws IOException {
+        return RequestBody.of(he, bodyThreshold, maxBodySize);
+    }
+
 
     @Override
     public void handle(HttpExchange he) throws IOException {
+        ExchangeTiming.handlerStarted();
         try {
             final Headers headers = he.getResponseHeaders();
             final String allowedMethods = getAllowedMethods();
@@ -51,6 +77,7 @@ public abstract class BaseWebService extends AbstractWebService implements Const
             case PUT:
             case DELETE:
                 if (isAllowedMethod(method)) {
+                    RequestBody.checkLength(he, maxBodySize);
                     execute(method, he);
                 } else {
                     headers.set(HEADER_ALLOW, allowedMethods);
@@ -66,10 +93,17 @@ public abstract class BaseWebService extends AbstractWebService implements Const
                 he.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, NO_RESPONSE_LENGTH);
                 break;
             }
+        } catch (RequestBody.TooLargeException ex) {
+            LOGGER.warning(String.format("%s : '%s' %s",
+                    getClass().getSimpleName(), he.getRequestURI().getPath(), ex.getMessage()));
+            // The rest of body is not read
+            he.getResponseHeaders().set(HEADER_CONNECTION, "close");
+            he.sendResponseHeaders(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, NO_RESPONSE_LENGTH);
         } catch (RuntimeException | IOException ex) {
             he.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, NO_RESPONSE_LENGTH);
             LOGGER.log(Level.WARNING, ex.getMessage(), ex);
         } finally {
+            RequestBody.release(he);
             he.close();
         }
     }
@@ -95,15 +129,11 @@ public abstract class BaseWebService extends AbstractWebService implements Const
         if (is == null) {
             throw new IllegalArgumentException(String.format("Not found '%s'", resource));
         }
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buffer = new byte[4096];
-        int nread;
-        while ((nread = is.read(buffer)) > 0) {
-            baos.write(buffer, 0, nread);
+        try (InputStream in = is;
+             ByteArrayPool.Buffer buffer = ByteArrayPool.SHARED.buffer(Math.max(is.available(), 0))) {
+            buffer.readFrom(in);
+            return buffer.toByteArray();
         }
-        baos.close();
-        is.close();
-        return baos.toByteArray();
     }
 
     protected final String loadResource(String resource) throws IOException {
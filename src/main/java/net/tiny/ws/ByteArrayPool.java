@@ -0,0 +1,325 @@
+package net.tiny.ws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.tiny.service.VirtualThreadExecutors;
+
+/**
+ * The size-classed pool of byte arrays shared by the I/O of handlers, cache and client.
+ * <ul>
+ * <li>The sizes are rounded up to a power of 2 from 512B to 1MB, larger arrays are not pooled.</li>
+ * <li>A thread keeps a few arrays up to 64KB without contention, the rest are shared.
+ * A virtual thread runs one exchange only, it keeps no arrays.</li>
+ * <li>The arrays must be released once and not used after released.</li>
+ * <li>In debug mode (-Dnet.tiny.ws.pool.debug=true) the acquired arrays collected without release
+ * are logged with the stack of acquisition.</li>
+ * </ul>
+ * The pool is disabled by -Dnet.tiny.ws.pool=false, the arrays are allocated and dropped.
+ */
+public final class ByteArrayPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ByteArrayPool.class.getName());
+
+    public static final int MIN_SIZE = 512;
+    public static final int MAX_SIZE = 1024 * 1024; //1MB
+    static final int MIN_SHIFT = 9;
+    static final int CLASSES = 12; // 512B .. 1MB
+    static final int LOCAL_CLASSES = 8; // 512B .. 64KB
+    static final int LOCAL_DEPTH = 2;
+    static final long SHARED_BYTES = 4L * 1024L * 1024L; //4MB per class
+    // No local arrays of a virtual thread, they would be lost with the thread
+    private static final byte[][][] NO_LOCAL = new byte[0][][];
+
+    public static final ByteArrayPool SHARED = new ByteArrayPool(
+            !"false".equalsIgnoreCase(System.getProperty("net.tiny.ws.pool")),
+            Boolean.getBoolean("net.tiny.ws.pool.debug"));
+
+    private final Queue<byte[]>[] shared;
+    private final AtomicInteger[] sharedCounts;
+    private final ThreadLocal<byte[][][]> local = ThreadLocal.withInitial(() ->
+            VirtualThreadExecutors.isVirtual(Thread.currentThread()) ? NO_LOCAL : new byte[LOCAL_CLASSES][LOCAL_DEPTH][]);
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private volatile boolean enabled;
+    private final boolean debug;
+    // Debug mode, the acquired arrays not released yet
+    private final Map<Tracker, Throwable> tracked = new ConcurrentHashMap<>();
+    private final ReferenceQueue<byte[]> collected = new ReferenceQueue<>();
+    private final LongAdder leaks = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ByteArrayPool(boolean enabled, boolean debug) {
+        this.enabled = enabled;
+        this.debug = debug;
+        shared = new Queue[CLASSES];
+        sharedCounts = new AtomicInteger[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+            sharedCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @return an array of the size or larger
+     */
+    public byte[] acquire(int size) {
+        final int index = sizeClass(size);
+        if (index < 0 || !enabled) {
+            allocated.increment();
+            return new byte[size];
+        }
+        byte[] array = null;
+        final byte[][][] stacks = (index < LOCAL_CLASSES) ? local.get() : NO_LOCAL;
+        if (stacks != NO_LOCAL) {
+            final byte[][] stack = stacks[index];
+            for (int i = LOCAL_DEPTH - 1; i >= 0 && array == null; i--) {
+                array = stack[i];
+                stack[i] = null;
+            }
+        }
+        if (array == null) {
+            array = shared[index].poll();
+            if (array != null) {
+                sharedCounts[index].decrementAndGet();
+            }
+        }
+        if (array == null) {
+            allocated.increment();
+            array = new byte[MIN_SIZE << index];
+        } else {
+            reused.increment();
+        }
+        if (debug) {
+            track(array);
+        }
+        return array;
+    }
+
+    /**
+     * Return the array to the pool, the arrays not of a class size are dropped.
+     */
+    public void release(byte[] array) {
+        if (array == null || !enabled) {
+            return;
+        }
+        final int index = sizeClass(array.length);
+        if (index < 0 || (MIN_SIZE << index) != array.length) {
+            return;
+        }
+        if (debug && !untrack(array)) {
+            LOGGER.warning(String.format("[POOL] Release an array of %d bytes not acquired or released twice", array.length));
+            return;
+        }
+        final byte[][][] stacks = (index < LOCAL_CLASSES) ? local.get() : NO_LOCAL;
+        if (stacks != NO_LOCAL) {
+            final byte[][] stack = stacks[index];
+            for (int i = 0; i < LOCAL_DEPTH; i++) {
+                if (stack[i] == null) {
+                    stack[i] = array;
+                    return;
+                }
+            }
+        }
+        final long max = Math.max(2L, SHARED_BYTES / array.length);
+        if (sharedCounts[index].incrementAndGet() > max) {
+            sharedCounts[index].decrementAndGet();
+            return;
+        }
+        shared[index].offer(array);
+    }
+
+    /**
+     * @return the index of size class, -1 if over the max size
+     */
+    static int sizeClass(int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SHIFT;
+    }
+
+    private void track(byte[] array) {
+        Tracker leak;
+        while ((leak = (Tracker) collected.poll()) != null) {
+            final Throwable site = tracked.remove(leak);
+            if (site != null) {
+                leaks.increment();
+                LOGGER.log(Level.SEVERE, String.format("[POOL] Leak of an array of %d bytes, not released before collected", leak.size), site);
+            }
+        }
+        tracked.put(new Tracker(array, collected), new Throwable("Acquired at"));
+    }
+
+    private boolean untrack(byte[] array) {
+        for (Tracker tracker : tracked.keySet()) {
+            if (tracker.get() == array) {
+                return tracked.remove(tracker) != null;
+            }
+        }
+        return false;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /** The arrays allocated by acquire */
+    public long getAllocatedCount() {
+        return allocated.sum();
+    }
+
+    /** The arrays reused by acquire */
+    public long getReusedCount() {
+        return reused.sum();
+    }
+
+    /** The leaks found in debug mode */
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    /** The acquired arrays not released yet in debug mode */
+    public int getOutstandingCount() {
+        return tracked.size();
+    }
+
+    /**
+     * A new output buffer on the arrays of this pool.
+     */
+    public Buffer buffer() {
+        return new Buffer(this, MIN_SIZE);
+    }
+
+    public Buffer buffer(int size) {
+        return new Buffer(this, size);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ByteArrayPool(enabled:%s, debug:%s, allocated:%d, reused:%d)",
+                enabled, debug, getAllocatedCount(), getReusedCount());
+    }
+
+    static final class Tracker extends WeakReference<byte[]> {
+        final int size;
+
+        Tracker(byte[] array, ReferenceQueue<byte[]> queue) {
+            super(array, queue);
+            size = array.length;
+        }
+    }
+
+    /**
+     * An output stream like ByteArrayOutputStream, growing on the pooled arrays.
+     * The array is released by close, the contents are copied by {@link #toByteArray()}.
+     */
+    public static final class Buffer extends OutputStream {
+        private final ByteArrayPool pool;
+        private byte[] array;
+        private int count = 0;
+
+        Buffer(ByteArrayPool pool, int size) {
+            this.pool = pool;
+            this.array = pool.acquire(Math.max(size, 1));
+        }
+
+        private void ensure(int capacity) {
+            if (array == null) {
+                throw new IllegalStateException("Closed buffer");
+            }
+            if (capacity > array.length) {
+                final long grown = Math.max((long) array.length * 2L, capacity);
+                final byte[] larger = pool.acquire((int) Math.min(grown, Integer.MAX_VALUE - 8));
+                System.arraycopy(array, 0, larger, 0, count);
+                pool.release(array);
+                array = larger;
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(count + 1);
+            array[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(count + len);
+            System.arraycopy(b, off, array, count, len);
+            count += len;
+        }
+
+        /**
+         * Read the stream until the end into this buffer, the stream is not closed.
+         * @return the bytes read
+         */
+        public long readFrom(InputStream in) throws IOException {
+            long total = 0L;
+            while (true) {
+                ensure(count + 1);
+                final int n = in.read(array, count, array.length - count);
+                if (n < 0) {
+                    return total;
+                }
+                count += n;
+                total += n;
+            }
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(array, 0, count);
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * The pooled array, valid until close.
+         */
+        public byte[] array() {
+            return array;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(array, count);
+        }
+
+        public void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void close() {
+            if (array != null) {
+                pool.release(array);
+                array = null;
+                count = 0;
+            }
+        }
+    }
+}
@@ -15,8 +15,19 @@ public interface Constants {
     String HEADER_SET_COOKIE     = "Set-Cookie";
     String HEADER_CACHE_CONTROL  = "Cache-Control";
     String HEADER_CONNECTION     = "Connection";
+    String HEADER_RANGE          = "Range";
+    String HEADER_IF_RANGE       = "If-Range";
+    String HEADER_ACCEPT_RANGES  = "Accept-Ranges";
+    String HEADER_CONTENT_RANGE  = "Content-Range";
+    String HEADER_ACCEPT_ENCODING  = "Accept-Encoding";
+    String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    String HEADER_VARY             = "Vary";
+    String HEADER_ETAG             = "ETag";
+    String HEADER_IF_NONE_MATCH    = "If-None-Match";
+    String HEADER_RETRY_AFTER      = "Retry-After";
 
     int NO_RESPONSE_LENGTH = -1;
+    int HTTP_RANGE_NOT_SATISFIABLE = 416;
     int DEFAULT_BUFFER_SIZE = 8192;
 
     enum HTTP_METHOD {
@@ -10,10 +10,16 @@ import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -34,8 +40,13 @@ import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpsConfigurator;
 import com.sun.net.httpserver.HttpsParameters;
 import com.sun.net.httpserver.HttpsServer;
+import com.sun.net.httpserver.spi.HttpServerProvider;
 
 import net.tiny.config.Reflections;
+import net.tiny.service.ThreadPoolExeutorWrapper;
+import net.tiny.service.VirtualThreadExecutors;
+import net.tiny.ws.nio.NioHttpServer;
+import net.tiny.ws.nio.NioServerProvider;
 
 /**
  * @see https://github.com/calebrob6/json-server
@@ -51,17 +62,32 @@ public class EmbeddedServer implements Closeable {
     private static final String DEFAULT_HOST = "localhost";
     private static final int DEFAULT_PORT = 8080;
     private static final long DEFAULT_STOP_TIME = 100L; //Delay 100ms
-    private static final int DEFAULT_BACKLOG = 1;
+    //The backlog derived from the load is not under this
+    private static final int MIN_BACKLOG = 64;
+    private static final int DEFAULT_CONCURRENCY = 256;
+    public static final String ENGINE_JDK = "jdk";
+    public static final String ENGINE_NIO = "nio";
+    private static final long DEFAULT_IDLE_TIMEOUT = 30L; //30s of JDK server
+    private static final String IDLE_INTERVAL = "sun.net.httpserver.idleInterval";
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
     private static final int MIN_PORT = 8000;
     private static final int MAX_PORT = 9999;
     private static final int RANDOM_MIN_PORT = 8080;
     private static final int RANDOM_MAX_PORT = 8180;
+    //The socket options read once by the JDK server, when the first server of JVM was created
+    private static final Map<String, String> JDK_OPTIONS = new ConcurrentHashMap<>();
 
     private final Builder builder;
     private HttpServer httpServer;
+    //The acceptors on the port range, the first is httpServer
+    private List<HttpServer> servers = Collections.emptyList();
     private Throwable lastError;
     //Inner executor，External executor priority
     private ExecutorService executor;
+    //Concurrency cap of virtual thread mode or bounded executor
+    private AdmissionFilter admission;
+    //Max requests of a persistent connection
+    private KeepAliveFilter keepAlive;
     private String mark = "HTTP";
     private CountDownLatch serverLock = new CountDownLatch(1);
 
@@ -98,33 +124,62 @@ public class EmbeddedServer implements Closeable {
             return;
         }
 
-        InetSocketAddress address;
-        if("localhost".equalsIgnoreCase(builder.bind)) {
-            address = new InetSocketAddress(builder.port) ;
-        } else {
-            address = new InetSocketAddress(builder.bind, builder.port) ;
+        tune();
+        final int backlog = backlog();
+        final int acceptors = Math.max(1, builder.acceptors);
+        //One dispatcher thread accepts and parses the connections of a server,
+        //the servers on the port range share the handlers and the executor.
+        final List<HttpServer> list = new ArrayList<>(acceptors);
+        try {
+            for (int i = 0; i < acceptors; i++) {
+                list.add(createServer(builder.port + i, backlog));
+            }
+        } catch (IOException e) {
+            for (HttpServer server : list) {
+                server.stop(0);
+            }
+            throw e;
         }
-
         String url;
         if (builder.ssl != null) {
-            HttpsServer httpsServer = HttpsServer.create(address, builder.backlog);
-            httpsServer.setHttpsConfigurator(builder.ssl.httpsConfigurator());
-            httpServer = httpsServer;
             url = String.format("https://%s:%d", builder.bind, builder.port);
             mark = "HTTPS";
         } else {
-            httpServer = HttpServer.create(address, builder.backlog);
             url = String.format("http://%s:%d", builder.bind, builder.port);
             mark = "HTTP";
         }
 
+        final Executor pool;
         if(null != builder.executor) {
-            httpServer.setExecutor(builder.executor);
+            pool = builder.executor;
+        } else if (builder.virtual) {
+            //One virtual thread per exchange, rejected with 503 over the concurrency cap.
+            //The platform pool fallback keeps one spare thread per core to send the 503 quickly.
+            executor = VirtualThreadExecutors.newExecutor(builder.concurrency + Runtime.getRuntime().availableProcessors());
+            pool = executor;
+            LOGGER.info(String.format("[%s:%d] Virtual thread executor (max concurrency:%d)", mark, builder.port, builder.concurrency));
         } else {
             //创建访问进程池
             executor = Executors.newCachedThreadPool();
-            httpServer.setExecutor(executor);
+            pool = executor;
+        }
+        admission = createAdmission();
+        if (builder.maxRequests > 0) {
+            keepAlive = new KeepAliveFilter(idleTimeout(), builder.maxRequests);
         }
+        final Executor timed;
+        if (null != admission) {
+            //Shed the exchanges rejected by a saturated executor with 503
+            timed = admission.guard(ExchangeTiming.timed(pool));
+            LOGGER.info(String.format("[%s:%d] Admission control %s", mark, builder.port, admission.toString()));
+        } else {
+            timed = ExchangeTiming.timed(pool);
+        }
+        for (HttpServer server : list) {
+            server.setExecutor(timed);
+        }
+        servers = list;
+        httpServer = list.get(0);
 
         for (HttpHandler handler : builder.handlers) {
             try {
@@ -139,17 +194,81 @@ public class EmbeddedServer implements Closeable {
             }
         }
 
-        httpServer.start();
+        for (HttpServer server : servers) {
+            server.start();
+        }
 
-        LOGGER.info(String.format("[%s:%d] Embedded server listen on %s", mark, builder.port, url));
+        if (acceptors > 1) {
+            LOGGER.info(String.format("[%s:%d] Embedded server listen on %s - %d (backlog:%d, acceptors:%d)",
+                    mark, builder.port, url, builder.port + acceptors - 1, backlog, acceptors));
+        } else {
+            LOGGER.info(String.format("[%s:%d] Embedded server listen on %s (backlog:%d)", mark, builder.port, url, backlog));
+        }
+    }
+
+    private HttpServer createServer(int port, int backlog) throws IOException {
+        InetSocketAddress address;
+        if("localhost".equalsIgnoreCase(builder.bind)) {
+            address = new InetSocketAddress(port) ;
+        } else {
+            address = new InetSocketAddress(builder.bind, port) ;
+        }
+        if (isJdkServer()) {
+            readJdkOptions();
+        }
+        if (builder.ssl != null) {
+            if (!isDefaultEngine(builder.engine)) {
+                LOGGER.warning(String.format("[%s:%d] HTTPS runs on the JDK engine instead of '%s'", mark, port, builder.engine));
+            }
+            HttpsServer httpsServer = HttpsServer.create(address, backlog);
+            httpsServer.setHttpsConfigurator(builder.ssl.httpsConfigurator());
+            return httpsServer;
+        } else {
+            final HttpServer server = provider(builder.engine).createHttpServer(address, backlog);
+            if (server instanceof NioHttpServer) {
+                ((NioHttpServer) server).setMaxBodySize(builder.maxBodySize);
+            }
+            return server;
+        }
+    }
+
+    private static boolean isDefaultEngine(String engine) {
+        return null == engine || ENGINE_JDK.equalsIgnoreCase(engine);
+    }
+
+    private boolean isJdkServer() {
+        return builder.ssl != null || isDefaultEngine(builder.engine);
+    }
+
+    /**
+     * @param engine 'jdk', 'nio' or the class name of a {@link HttpServerProvider}
+     */
+    static HttpServerProvider provider(String engine) {
+        if (isDefaultEngine(engine)) {
+            return HttpServerProvider.provider();
+        }
+        if (ENGINE_NIO.equalsIgnoreCase(engine)) {
+            return new NioServerProvider();
+        }
+        try {
+            return (HttpServerProvider) Class.forName(engine).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown server engine : " + engine, e);
+        }
     }
 
-    @SuppressWarnings("unchecked")
     private void handle(HttpHandler handler) {
         final String contextPath = String.valueOf(Reflections.getFieldValue(handler, "path"));
-        final HttpContext serverContext = httpServer.createContext(contextPath);
-        serverContext.setHandler(handler);
+        for (HttpServer server : servers) {
+            bind(server.createContext(contextPath), handler);
+        }
         LOGGER.info(String.format("[%s:%d] bind a handler on '%s'", mark, builder.port, contextPath));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void bind(HttpContext serverContext, HttpHandler handler) {
+        serverContext.setHandler(handler);
+        admit(serverContext);
 
         try {
             //Set filter of handler
@@ -171,16 +290,33 @@ public class EmbeddedServer implements Closeable {
 
     protected void handle(WebServiceHandler handler) {
         final String contextPath = handler.path();
-        final HttpContext serverContext = httpServer.createContext(contextPath);
+        if (null != admission && (handler instanceof ControllableHandler || handler instanceof VoidHttpHandler)) {
+            //Never shed the controller and health check
+            admission.priority(contextPath);
+        }
+        for (HttpServer server : servers) {
+            bind(server.createContext(contextPath), handler);
+        }
+        if (handler.isEndpoint()) {
+            LOGGER.info(String.format("[%s:%d] publish a endpoint on '%s'", mark, builder.port, contextPath));
+        } else {
+            LOGGER.info(String.format("[%s:%d] bind a handler on '%s'", mark, builder.port, contextPath));
+        }
+    }
+
+    private void bind(HttpContext serverContext, WebServiceHandler handler) {
+        admit(serverContext);
+        //The executor for the endpoints and the metrics
+        final ExecutorService pool = getExecutor();
+        if (null != pool) {
+            serverContext.getAttributes().put(ExecutorService.class.getName(), pool);
+        }
         if (handler.isEndpoint()) {
-            serverContext.getAttributes().put(ExecutorService.class.getName(), executor);
             //publish a endpoint
             handler.publish(serverContext);
-            LOGGER.info(String.format("[%s:%d] publish a endpoint on '%s'", mark, builder.port, contextPath));
         } else {
             //serverContext.setHandler(handler.getBinding(HttpHandler.class));
             serverContext.setHandler(handler);
-            LOGGER.info(String.format("[%s:%d] bind a handler on '%s'", mark, builder.port, contextPath));
         }
 
         //Set filter of handler
@@ -195,13 +331,157 @@ public class EmbeddedServer implements Closeable {
         }
     }
 
+    /**
+     * The backlog is derived from the expected concurrency unless set,
+     * the bursts of connections wait in the accept queue instead of being refused.
+     */
+    int backlog() {
+        if (builder.backlog > 0) {
+            return builder.backlog;
+        }
+        int load;
+        if (builder.maxInFlight > 0) {
+            load = builder.maxInFlight;
+        } else if (builder.executor instanceof ThreadPoolExeutorWrapper) {
+            final ThreadPoolExecutor pool = ((ThreadPoolExeutorWrapper)builder.executor).getDelgate();
+            load = pool.getMaximumPoolSize() + pool.getQueue().remainingCapacity();
+        } else if (builder.executor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor)builder.executor;
+            load = pool.getMaximumPoolSize() + pool.getQueue().remainingCapacity();
+        } else {
+            load = builder.concurrency;
+        }
+        return Math.max(MIN_BACKLOG, Math.min(load, Short.MAX_VALUE));
+    }
+
+    /**
+     * The socket options of JDK server are the system properties,
+     * read only once when the first server of JVM is created.
+     * The NIO server reads them when each server is created.
+     */
+    private void tune() {
+        if (builder.idleTimeout > 0L) {
+            setOption(IDLE_INTERVAL, String.valueOf(builder.idleTimeout));
+        }
+        if (builder.noDelay) {
+            setOption(NO_DELAY, Boolean.TRUE.toString());
+        }
+    }
+
+    private void setOption(String name, String value) {
+        final String current = System.getProperty(name);
+        if (null != current && !current.equals(value)) {
+            LOGGER.warning(String.format("[%s:%d] JVM-wide option '%s' is changed from '%s' to '%s'",
+                    mark, builder.port, name, current, value));
+        }
+        final String read = JDK_OPTIONS.get(name);
+        if (isJdkServer() && null != read && !read.equals(value)) {
+            LOGGER.warning(String.format("[%s:%d] JDK server keeps '%s=%s' read by the first server of JVM",
+                    mark, builder.port, name, read));
+        }
+        System.setProperty(name, value);
+    }
+
+    private static void readJdkOptions() {
+        JDK_OPTIONS.putIfAbsent(IDLE_INTERVAL, String.valueOf(Long.getLong(IDLE_INTERVAL, DEFAULT_IDLE_TIMEOUT)));
+        JDK_OPTIONS.putIfAbsent(NO_DELAY, String.valueOf(Boolean.getBoolean(NO_DELAY)));
+    }
+
+    /**
+     * @return the idle timeout in effect, the JDK server keeps the one read by its first server
+     */
+    private long idleTimeout() {
+        final String read = JDK_OPTIONS.get(IDLE_INTERVAL);
+        if (isJdkServer() && null != read) {
+            return Long.parseLong(read);
+        }
+        return Long.getLong(IDLE_INTERVAL, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    private AdmissionFilter createAdmission() {
+        final boolean virtual = builder.virtual && null == builder.executor;
+        if (!virtual && builder.maxInFlight <= 0 && builder.maxQueueWait <= 0L) {
+            return null;
+        }
+        final int max;
+        if (builder.maxInFlight > 0) {
+            max = builder.maxInFlight;
+        } else {
+            max = builder.concurrency;
+        }
+        final AdmissionFilter filter = new AdmissionFilter(max)
+                .maxQueueWait(builder.maxQueueWait)
+                .retryAfter(builder.retryAfter);
+        for (String path : builder.priorities) {
+            filter.priority(path);
+        }
+        return filter;
+    }
+
+    private void admit(HttpContext serverContext) {
+        if (null != admission) {
+            //Admission control runs before all filters of handler
+            serverContext.getFilters().add(admission);
+        }
+        if (null != keepAlive) {
+            serverContext.getFilters().add(keepAlive);
+        }
+    }
+
     protected void dispose() {
     }
 
+    private void closeHandlers() {
+        // The filters (ex. async access logger) may be shared by handlers
+        final Set<Object> closeables = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (HttpHandler handler : builder.handlers) {
+            if (handler instanceof WebServiceHandler && ((WebServiceHandler)handler).hasFilters()) {
+                closeables.addAll(((WebServiceHandler)handler).getFilters());
+            }
+            closeables.add(handler);
+        }
+        for (Object closeable : closeables) {
+            if (closeable instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable)closeable).close();
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, String.format("[%s:%d] Close handler '%s' error : %s",
+                            mark, builder.port, closeable.toString(), ex.getMessage()), ex);
+                }
+            }
+        }
+    }
+
     public int port() {
         return builder.port;
     }
 
+    /**
+     * @return the ports of all acceptors
+     */
+    public int[] ports() {
+        final int[] ports = new int[Math.max(1, builder.acceptors)];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = builder.port + i;
+        }
+        return ports;
+    }
+
+    /**
+     * @return the executor of exchanges, the external one if set
+     */
+    public ExecutorService getExecutor() {
+        return (null != builder.executor) ? builder.executor : executor;
+    }
+
+    public AdmissionFilter getAdmission() {
+        return admission;
+    }
+
+    public KeepAliveFilter getKeepAlive() {
+        return keepAlive;
+    }
+
     @Override
     public void close() {
         if (!isStarted()) {
@@ -230,9 +510,16 @@ public class EmbeddedServer implements Closeable {
             dispose();
             Thread.sleep(delay);
             shutdownExecutor(executor, delay);
-            httpServer.stop(1);
+            for (HttpServer server : servers) {
+                server.stop(1);
+            }
+            if (null != admission) {
+                admission.shutdown();
+            }
+            closeHandlers();
         } finally {
             serverLock.countDown();
+            servers = Collections.emptyList();
             httpServer = null;
             LOGGER.info(String.format("[%s:%d] Embedded server shutdowned", mark, builder.port));
         }
@@ -429,7 +716,19 @@ public class EmbeddedServer implements Closeable {
         String bind = DEFAULT_HOST;
         int port = DEFAULT_PORT;
         long stopTimeout = DEFAULT_STOP_TIME; //Delay 100ms
-        int backlog = DEFAULT_BACKLOG;
+        int backlog = 0; //Derived from the load
+        long idleTimeout = 0L; //JDK default
+        int maxRequests = 0; //Unlimited
+        boolean noDelay = false;
+        int acceptors = 1;
+        String engine = ENGINE_JDK;
+        long maxBodySize = -1L; //Unlimited, NIO engine only
+        boolean virtual = false;
+        int concurrency = DEFAULT_CONCURRENCY;
+        int maxInFlight = 0;
+        long maxQueueWait = 0L;
+        int retryAfter = AdmissionFilter.DEFAULT_RETRY_AFTER;
+        List<String> priorities = new ArrayList<>();
         SSL ssl;
         ExecutorService executor;
         RandomPorts random;
@@ -453,17 +752,128 @@ public class EmbeddedServer implements Closeable {
                 random = new RandomPorts(RANDOM_MIN_PORT, RANDOM_MAX_PORT);
             }
             port = random.next();
-            while (!available(port)) {
+            while (!available(port, acceptors)) {
                 port = random.next();
             }
             return this;
         }
 
+        private static boolean available(int start, int count) {
+            for (int p = start; p < start + count; p++) {
+                if (p > MAX_PORT || !EmbeddedServer.available(p)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         public Builder backlog(int n) {
             backlog = n;
             return this;
         }
 
+        /**
+         * @param seconds the idle timeout of persistent connections, it is JVM-wide
+         * and the JDK engine keeps the one of its first server
+         */
+        public Builder idleTimeout(long seconds) {
+            idleTimeout = seconds;
+            return this;
+        }
+
+        /**
+         * @param max the max requests of a persistent connection, closed after the last response
+         */
+        public Builder maxRequests(int max) {
+            maxRequests = max;
+            return this;
+        }
+
+        /**
+         * @param enable TCP_NODELAY of accepted sockets, it is JVM-wide
+         * and the JDK engine keeps the one of its first server
+         */
+        public Builder noDelay(boolean enable) {
+            noDelay = enable;
+            return this;
+        }
+
+        /**
+         * Run every exchange on a virtual thread, fallback to a bounded platform pool on older JDKs.
+         * Ignored when an external executor is set.
+         */
+        public Builder virtual(boolean enable) {
+            virtual = enable;
+            return this;
+        }
+
+        public Builder concurrency(int max) {
+            concurrency = max;
+            return this;
+        }
+
+        /**
+         * Admission control of any executor, the exchanges over the max in-flight are rejected with 503.
+         */
+        public Builder maxInFlight(int max) {
+            maxInFlight = max;
+            return this;
+        }
+
+        /**
+         * Admission control of any executor, the exchanges waited in the executor queue
+         * over the milliseconds are rejected with 503.
+         */
+        public Builder maxQueueWait(long millis) {
+            maxQueueWait = millis;
+            return this;
+        }
+
+        public Builder retryAfter(int seconds) {
+            retryAfter = seconds;
+            return this;
+        }
+
+        /**
+         * The exchanges of the context path are never shed by the admission control.
+         */
+        public Builder priority(String path) {
+            if (!priorities.contains(path)) {
+                priorities.add(path);
+            }
+            return this;
+        }
+
+        /**
+         * Listen on the port range of 'port' to 'port + n - 1', a dispatcher thread per port.
+         * The accept and parse of connections scale over cores when the clients
+         * (ex. a load balancer) spread the connections over the ports.
+         * Set before {@link #random()} to find a free port range.
+         */
+        public Builder acceptors(int n) {
+            acceptors = n;
+            return this;
+        }
+
+        /**
+         * @param name 'jdk' (default), 'nio' of the built-in selector loop engine,
+         *  or the class name of a {@link HttpServerProvider}
+         */
+        public Builder engine(String name) {
+            engine = name;
+            return this;
+        }
+
+        /**
+         * The NIO engine receives the whole body before the exchange,
+         * a body over the max size is rejected with '413' while receiving.
+         * @param size the max bytes of request body, not limited (default) if less than 0
+         */
+        public Builder maxBodySize(long size) {
+            maxBodySize = size;
+            return this;
+        }
+
         public Builder executor(ExecutorService e) {
             executor = e;
             return this;
@@ -0,0 +1,165 @@
+package net.tiny.ws;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * The nanosecond timings of an exchange.
+ * <ul>
+ * <li>queue : waiting in the executor of server</li>
+ * <li>filter : from the start of the exchange task to the handler, reading the request and the filters</li>
+ * <li>handler : from the handler to the first byte of response body</li>
+ * <li>write : from the first byte to the end of response body</li>
+ * </ul>
+ * The queue wait is known only with the executor wrapped by {@link #timed(Executor)},
+ * the handler start is known only with the handlers of {@link BaseWebService}.
+ * The times are kept by the thread of exchange, the filters and the handler run on the same thread.
+ */
+final class ExchangeTiming {
+
+    // {submitted, started, handler started} of the exchange task running on the thread.
+    // Not an attribute of exchange, the attributes of JDK server are shared by the exchanges of a context.
+    private static final ThreadLocal<long[]> TASK = ThreadLocal.withInitial(() -> new long[3]);
+
+    final long submitted;
+    final long started;
+    final long filtered;
+    private final TimedOutputStream body;
+    private long handled;
+    private long end;
+
+    private ExchangeTiming(long submitted, long started, long filtered, TimedOutputStream body) {
+        this.submitted = submitted;
+        this.started = started;
+        this.filtered = filtered;
+        this.body = body;
+    }
+
+    /**
+     * Start the timing on the filter, the response body of exchange is wrapped to count bytes.
+     */
+    static ExchangeTiming start(HttpExchange exchange) {
+        final long now = System.nanoTime();
+        final long[] task = TASK.get();
+        final long started = (task[1] != 0L) ? task[1] : now;
+        final long submitted = (task[0] != 0L) ? task[0] : started;
+        task[2] = 0L;
+        final TimedOutputStream body = new TimedOutputStream(exchange.getResponseBody());
+        exchange.setStreams(null, body);
+        return new ExchangeTiming(submitted, started, now, body);
+    }
+
+    /**
+     * Stop the timing after the filter chain.
+     */
+    ExchangeTiming stop(HttpExchange exchange) {
+        end = (body.closed != 0L) ? body.closed : System.nanoTime();
+        final long[] task = TASK.get();
+        handled = (task[2] != 0L) ? task[2] : filtered;
+        task[2] = 0L;
+        return this;
+    }
+
+    /**
+     * Mark the start of the handler on the thread of exchange.
+     */
+    static void handlerStarted() {
+        TASK.get()[2] = System.nanoTime();
+    }
+
+    long getQueueNanos() {
+        return started - submitted;
+    }
+
+    long getFilterNanos() {
+        return handled - started;
+    }
+
+    long getHandlerNanos() {
+        return ((body.first != 0L) ? body.first : end) - handled;
+    }
+
+    long getWriteNanos() {
+        return (body.first != 0L) ? end - body.first : 0L;
+    }
+
+    long getTotalNanos() {
+        return end - submitted;
+    }
+
+    long getBytes() {
+        return body.bytes;
+    }
+
+    /**
+     * @return the queue wait of the exchange task running on the current thread, 0 if unknown
+     */
+    static long queued() {
+        final long[] task = TASK.get();
+        return (task[0] != 0L) ? task[1] - task[0] : 0L;
+    }
+
+    /**
+     * Wrap the executor of server to know the queue wait of exchanges.
+     */
+    static Executor timed(Executor executor) {
+        return task -> {
+            final long submitted = System.nanoTime();
+            executor.execute(() -> {
+                final long[] times = TASK.get();
+                times[0] = submitted;
+                times[1] = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    times[0] = 0L;
+                    times[1] = 0L;
+                    times[2] = 0L;
+                }
+            });
+        };
+    }
+
+    static final class TimedOutputStream extends FilterOutputStream {
+        long first = 0L;
+        long closed = 0L;
+        long bytes = 0L;
+
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (first == 0L) {
+                first = System.nanoTime();
+            }
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (first == 0L) {
+                first = System.nanoTime();
+            }
+            out.write(b, off, len);
+            bytes += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (closed == 0L) {
+                    closed = System.nanoTime();
+                }
+            }
+        }
+    }
+}
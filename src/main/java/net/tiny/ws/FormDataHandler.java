@@ -1,12 +1,15 @@
 package net.tiny.ws;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 
@@ -25,17 +28,71 @@ public abstract class FormDataHandler extends BaseWebService {
         public String filename;
         public String value;
         public byte[] bytes;
+        /** The contents of a large file part spilled on disk, bytes is null */
+        public Path file;
+        public long size;
 
-        @Override
-        public String toString() {
-            int len = 0;
+        public InputStream getInputStream() throws IOException {
+            if (file != null) {
+                return Files.newInputStream(file);
+            }
             if (bytes != null) {
-                len = bytes.length;
+                return new ByteArrayInputStream(bytes);
             }
-            return String.format("[%s] '%s' = '%s' (bytes:%d)", type.name(), name, value!=null ? value :"", len);
+            return new ByteArrayInputStream(value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+        }
+
+        /**
+         * Delete the spilled file.
+         */
+        public void delete() {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.warning(String.format("[MULTIPART] Can not delete '%s' : %s", file, e.getMessage()));
+                }
+                file = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s] '%s' = '%s' (bytes:%d)", type.name(), name, value!=null ? value :"", size);
         }
     }
 
+    private long spillThreshold = MultiPartParser.DEFAULT_SPILL_THRESHOLD;
+    private long maxPartSize = -1L;
+    private long maxTotalSize = -1L;
+    private String spillDirectory = null;
+
+    /**
+     * The file parts over the size are spilled in temporary files.
+     */
+    public WebServiceHandler setSpillThreshold(long size) {
+        this.spillThreshold = size;
+        return this;
+    }
+
+    public WebServiceHandler setMaxPartSize(long size) {
+        this.maxPartSize = size;
+        return this;
+    }
+
+    public WebServiceHandler setMaxTotalSize(long size) {
+        this.maxTotalSize = size;
+        return this;
+    }
+
+    public WebServiceHandler setSpillDirectory(String dir) {
+        this.spillDirectory = dir;
+        return this;
+    }
+
+    /**
+     * Handle the parts, the spilled files are deleted after this method.
+     */
     protected abstract void handle(HttpExchange httpExchange,List<MultiPart> parts) throws IOException;
 
     @Override
@@ -51,32 +108,36 @@ public abstract class FormDataHandler extends BaseWebService {
             final String boundary = request.boundary();
             // as of rfc7578 - prepend "--"
             final byte[] boundaryBytes = ("--" + boundary).getBytes(StandardCharsets.UTF_8);
-            final byte[] payload = readContents(httpExchange.getRequestBody());
-            final List<MultiPart> list = parse(payload, boundaryBytes);
-            handle(httpExchange, list);
+            final List<MultiPart> list;
+            try {
+                RequestBody.checkLength(httpExchange, maxTotalSize);
+                list = new MultiPartParser(httpExchange.getRequestBody(), boundaryBytes)
+                        .maxPartSize(maxPartSize)
+                        .maxTotalSize(maxTotalSize)
+                        .spillThreshold(spillThreshold)
+                        .directory(spillDirectory != null ? Paths.get(spillDirectory) : null)
+                        .parse();
+            } catch (RequestBody.TooLargeException ex) {
+                // 413 Payload Too Large
+                throw ex;
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, String.format("[MULTIPART] '%s' %s", request.getURI(), ex.getMessage()), ex);
+                httpExchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, NO_RESPONSE_LENGTH);
+                return;
+            }
+            try {
+                handle(httpExchange, list);
+            } finally {
+                for (MultiPart part : list) {
+                    part.delete();
+                }
+            }
         } else {
             //if no form data is present, still call handle method
             handle(httpExchange, null);
         }
     }
 
-
-    private byte[] readContents(InputStream requestStream) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try {
-            byte[] buf = new byte[100000];
-            int bytesRead=0;
-            while ((bytesRead = requestStream.read(buf)) != -1){
-                bos.write(buf, 0, bytesRead);
-            }
-            requestStream.close();
-            bos.close();
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error while decoding http input stream", e);
-        }
-        return bos.toByteArray();
-    }
-
     /**
      * Parse request form data, return form data parts
      * @param payload
@@ -84,66 +145,13 @@ public abstract class FormDataHandler extends BaseWebService {
      * @return multi part list
      */
     public static List<MultiPart> parse(final byte[] payload, final byte[] boundaryBytes) {
-        final ArrayList<MultiPart> list = new ArrayList<>();
-        List<Integer> offsets = FormDataHandler.searchBytes(payload, boundaryBytes, 0, payload.length-1);
-        for (int idx=0; idx<offsets.size(); idx++) {
-            int startPart = offsets.get(idx);
-            int endPart = payload.length;
-            if (idx<offsets.size()-1){
-                endPart = offsets.get(idx+1);
-            }
-            byte[] part = Arrays.copyOfRange(payload,startPart,endPart);
-            //look for header
-            int headerEnd = FormDataHandler.indexOf(part,"\r\n\r\n".getBytes(Charset.forName("UTF-8")),0,part.length-1);
-            if (headerEnd>0) {
-                MultiPart p = new MultiPart();
-                byte[] head = Arrays.copyOfRange(part, 0, headerEnd);
-                String header = new String(head);
-                // extract name from header
-                int nameIndex = header.indexOf("\r\nContent-Disposition: form-data; name=");
-                if (nameIndex >= 0) {
-                    int startMarker = nameIndex + 39;
-                    //check for extra filename field
-                    int fileNameStart = header.indexOf("; filename=");
-                    if (fileNameStart >= 0) {
-                        String filename = header.substring(fileNameStart + 11, header.indexOf("\r\n", fileNameStart));
-                        p.filename = filename.replace('"', ' ').replace('\'', ' ').trim();
-                        p.name = header.substring(startMarker, fileNameStart).replace('"', ' ').replace('\'', ' ').trim();
-                        p.type = PartType.FILE;
-                    } else {
-                        int endMarker = header.indexOf("\r\n", startMarker);
-                        if (endMarker == -1)
-                            endMarker = header.length();
-                        p.name = header.substring(startMarker, endMarker).replace('"', ' ').replace('\'', ' ').trim();
-                        p.type = PartType.TEXT;
-                    }
-                } else {
-                    // skip entry if no name is found
-                    continue;
-                }
-                // extract content type from header
-                int typeIndex = header.indexOf("\r\nContent-Type:");
-                if (typeIndex >= 0) {
-                    int startMarker = typeIndex + 15;
-                    int endMarker = header.indexOf("\r\n", startMarker);
-                    if (endMarker == -1)
-                        endMarker = header.length();
-                    p.contentType = header.substring(startMarker, endMarker).trim();
-                }
-
-                //handle content
-                if (p.type == PartType.TEXT) {
-                    //extract text value
-                    byte[] body = Arrays.copyOfRange(part, headerEnd + 4, part.length-2);
-                    p.value = new String(body);
-                } else {
-                    //must be a file upload
-                    p.bytes = Arrays.copyOfRange(part, headerEnd + 4, part.length-2);
-                }
-                list.add(p);
-            }
+        try {
+            return new MultiPartParser(new ByteArrayInputStream(payload), boundaryBytes)
+                    .spillThreshold(Long.MAX_VALUE)
+                    .parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return list;
     }
 
     /**
@@ -1,15 +1,27 @@
 package net.tiny.ws;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 
+import net.tiny.ws.cache.ContentsCache;
+
 public final class HttpHandlerHelper implements Constants {
 
+    /** The max bytes of a pooled array copying a file or a direct buffer into the response body */
+    static final int CHUNK_SIZE = 64 * 1024;
+
     ///////////////////////////////////////////
     // Static public methods
     public static MIME_TYPE getMimeType(String file) {
@@ -21,6 +33,31 @@ public final class HttpHandlerHelper implements Constants {
         return MIME_TYPE.valueOf(MIME_TYPE.class, suffix.toUpperCase());
     }
 
+    /**
+     * A weak entity tag from the size and the last modified time,
+     * used for the files which are not read into cache.
+     */
+    public static String weakETag(File file) {
+        return weakETag(file.length(), file.lastModified());
+    }
+
+    public static String weakETag(long length, long lastModified) {
+        return String.format("W/\"%x-%x\"", length, lastModified);
+    }
+
+    /**
+     * Text based contents (text, json, javascript, xml, svg) are worth compressing,
+     * images and fonts are already compressed.
+     */
+    public static boolean isCompressible(String file) {
+        final MIME_TYPE mimeType = getMimeType(file);
+        if (null == mimeType) {
+            return false;
+        }
+        final String type = mimeType.getType();
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml");
+    }
+
     public static ResponseHeaderHelper getHeaderHelper(HttpExchange he) {
         return new ResponseHeaderHelper(he.getResponseHeaders());
     }
@@ -29,27 +66,152 @@ public final class HttpHandlerHelper implements Constants {
         return new RequestHelper(he);
     }
 
+    /**
+     * The whole request body, the body read by a filter or the handler is shared.
+     * @see RequestBody
+     */
     public static byte[] getRequestBody(HttpExchange he) throws IOException {
-        InputStream is = he.getRequestBody();
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        sendChunk(is, os);
-        is.close();
-        os.close();
-        return os.toByteArray();
+        final RequestBody body = RequestBody.attached(he);
+        if (body != null) {
+            return body.getBytes();
+        }
+        try (InputStream is = he.getRequestBody();
+             RequestBody read = RequestBody.read(is, RequestBody.contentLength(he), Integer.MAX_VALUE, -1L, null)) {
+            return read.getBytes();
+        }
     }
 
     public static String getRequestMessage(HttpExchange he) throws IOException {
         return URLDecoder.decode(new String(getRequestBody(he)), "UTF-8");
     }
 
-    private static void sendChunk(InputStream is, OutputStream os)
+    /**
+     * Send the whole file as a fixed length response body.
+     * The contents are copied by chunks of a pooled array, never loaded whole into heap.
+     * The channel is closed after sent.
+     */
+    public static long sendFile(HttpExchange he, int statCode, FileChannel channel) throws IOException {
+        try {
+            final long length = channel.size();
+            he.sendResponseHeaders(statCode, length > 0L ? length : NO_RESPONSE_LENGTH);
+            if (length > 0L) {
+                transfer(channel, 0L, length, he.getResponseBody());
+            }
+            return length;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Send the buffer as a fixed length response body.
+     * A direct buffer is copied by chunks of a pooled array, not the whole contents into heap.
+     */
+    public static long sendBuffer(HttpExchange he, int statCode, ByteBuffer contents) throws IOException {
+        final int length = contents.remaining();
+        he.sendResponseHeaders(statCode, length > 0 ? length : NO_RESPONSE_LENGTH);
+        if (length > 0) {
+            final OutputStream os = he.getResponseBody();
+            if (contents.hasArray()) {
+                os.write(contents.array(), contents.arrayOffset() + contents.position(), length);
+            } else {
+                final byte[] chunk = ByteArrayPool.SHARED.acquire(Math.min(length, CHUNK_SIZE));
+                try {
+                    while (contents.hasRemaining()) {
+                        final int n = Math.min(contents.remaining(), chunk.length);
+                        contents.get(chunk, 0, n);
+                        os.write(chunk, 0, n);
+                    }
+                } finally {
+                    ByteArrayPool.SHARED.release(chunk);
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Send the leased contents as a fixed length response body, the lease is closed after sent.
+     */
+    public static long sendBuffer(HttpExchange he, int statCode, ContentsCache.Lease contents) throws IOException {
+        try {
+            return sendBuffer(he, statCode, contents.buffer());
+        } finally {
+            contents.close();
+        }
+    }
+
+    /**
+     * Send '206 Partial Content' of the ranges, only the requested bytes are read by positioned transfers.
+     * Multiple ranges are sent as 'multipart/byteranges'. The channel is closed after sent.
+     */
+    public static void sendRanges(HttpExchange he, FileChannel channel, List<HttpRange> ranges) throws IOException {
+        try {
+            final long size = channel.size();
+            final Headers headers = he.getResponseHeaders();
+            if (ranges.size() == 1) {
+                final HttpRange range = ranges.get(0);
+                headers.set(HEADER_CONTENT_RANGE, range.contentRange(size));
+                he.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, range.length());
+                transfer(channel, range.start(), range.length(), he.getResponseBody());
+                return;
+            }
+            final String contentType = headers.getFirst(HEADER_CONTENT_TYPE);
+            final String boundary = Unique.uniqueKey();
+            final List<byte[]> heads = new ArrayList<>(ranges.size());
+            long length = 0L;
+            for (HttpRange range : ranges) {
+                StringBuilder head = new StringBuilder("\r\n--").append(boundary).append("\r\n");
+                if (null != contentType) {
+                    head.append(HEADER_CONTENT_TYPE).append(": ").append(contentType).append("\r\n");
+                }
+                head.append(HEADER_CONTENT_RANGE).append(": ").append(range.contentRange(size)).append("\r\n\r\n");
+                byte[] bytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+                heads.add(bytes);
+                length += bytes.length + range.length();
+            }
+            final byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            length += tail.length;
+
+            headers.set(HEADER_CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+            he.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, length);
+            final OutputStream os = he.getResponseBody();
+            for (int i = 0; i < ranges.size(); i++) {
+                final HttpRange range = ranges.get(i);
+                os.write(heads.get(i));
+                transfer(channel, range.start(), range.length(), os);
+            }
+            os.write(tail);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Positioned reads into a pooled array. The response body is not a channel,
+     * a transferTo would copy through a temporary buffer and a new array of the stream channel.
+     */
+    static void transfer(FileChannel channel, long position, long count, OutputStream os)
             throws IOException {
-        int size = is.available();
-        int bufferSize = Math.min(size, DEFAULT_BUFFER_SIZE);
-        byte[] buffer = new byte[bufferSize];
-        int readBytes = -1;
-        while ((readBytes = is.read(buffer)) > 0) {
-            os.write(buffer, 0, readBytes);
+        final byte[] chunk = ByteArrayPool.SHARED.acquire((int) Math.min(count, CHUNK_SIZE));
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            long pos = position;
+            long remaining = count;
+            while (remaining > 0L) {
+                buffer.clear();
+                buffer.limit((int) Math.min(remaining, chunk.length));
+                final int read = channel.read(buffer, pos);
+                if (read <= 0) {
+                    // Reached the end of file, maybe truncated
+                    break;
+                }
+                os.write(chunk, 0, read);
+                pos += read;
+                remaining -= read;
+            }
+        } finally {
+            ByteArrayPool.SHARED.release(chunk);
         }
     }
 }
@@ -0,0 +1,103 @@
+package net.tiny.ws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HTTP byte range of request header 'Range: bytes=0-499,-500'
+ * @see https://tools.ietf.org/html/rfc7233
+ */
+public final class HttpRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+    /** Ignore a 'Range' header with too many ranges */
+    static final int MAX_RANGES = 16;
+
+    private final long start;
+    private final long end;
+
+    HttpRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /** First byte position */
+    public long start() {
+        return start;
+    }
+
+    /** Last byte position, inclusive */
+    public long end() {
+        return end;
+    }
+
+    public long length() {
+        return end - start + 1L;
+    }
+
+    /** The value of response header 'Content-Range' */
+    public String contentRange(long size) {
+        return String.format("bytes %d-%d/%d", start, end, size);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d-%d", start, end);
+    }
+
+    /**
+     * Parse the 'Range' header for a resource of the size.
+     *
+     * @param header the value of 'Range' header
+     * @param size the size of resource
+     * @return null if the header is absent or malformed (send whole resource),
+     *         empty list if no range is satisfiable (416).
+     */
+    public static List<HttpRange> parse(String header, long size) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+        final String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        final List<HttpRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            final String value = spec.trim();
+            final int pos = value.indexOf('-');
+            if (pos < 0) {
+                return null;
+            }
+            try {
+                long first;
+                long last;
+                if (pos == 0) {
+                    // Suffix range '-500' : the last 500 bytes
+                    long suffix = Long.parseLong(value.substring(1));
+                    if (suffix <= 0L) {
+                        continue;
+                    }
+                    first = Math.max(0L, size - suffix);
+                    last = size - 1L;
+                } else {
+                    first = Long.parseLong(value.substring(0, pos));
+                    last = Long.MAX_VALUE;
+                    if (pos < value.length() - 1) {
+                        last = Long.parseLong(value.substring(pos + 1));
+                    }
+                    if (first < 0L || last < first) {
+                        return null;
+                    }
+                    last = Math.min(last, size - 1L);
+                }
+                if (first < size) {
+                    ranges.add(new HttpRange(first, last));
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return ranges.isEmpty() ? Collections.<HttpRange>emptyList() : ranges;
+    }
+}
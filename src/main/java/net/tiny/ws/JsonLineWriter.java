@@ -0,0 +1,85 @@
+package net.tiny.ws;
+
+/**
+ * Appends a JSON object of a line into the buffer, field by field without intermediate strings.
+ * The strings are escaped, a null value is written as 'null'.
+ */
+final class JsonLineWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder out;
+    private boolean first = true;
+
+    JsonLineWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    JsonLineWriter begin() {
+        out.append('{');
+        first = true;
+        return this;
+    }
+
+    JsonLineWriter end() {
+        out.append('}');
+        return this;
+    }
+
+    private void name(String name) {
+        if (!first) {
+            out.append(',');
+        }
+        first = false;
+        out.append('"').append(name).append("\":");
+    }
+
+    JsonLineWriter field(String name, String value) {
+        name(name);
+        if (value == null) {
+            out.append("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    JsonLineWriter field(String name, long value) {
+        name(name);
+        out.append(value);
+        return this;
+    }
+
+    private void string(String value) {
+        out.append('"');
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                } else {
+                    out.append(c);
+                }
+                break;
+            }
+        }
+        out.append('"');
+    }
+}
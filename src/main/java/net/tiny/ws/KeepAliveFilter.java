@@ -0,0 +1,117 @@
+package net.tiny.ws;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Enforces the max requests of a persistent connection.
+ * The last exchange of a connection is answered with 'Connection: close' to close it after the response,
+ * the others with the actual 'Keep-Alive: timeout=n, max=m' of the server.
+ * A connection is known by the remote address of exchange. The count idle over the timeout is restarted
+ * as a new connection on the same address, and the idle counts are purged once per timeout.
+ */
+public class KeepAliveFilter extends Filter implements Constants {
+
+    static final String HEADER_KEEP_ALIVE = "Keep-Alive";
+
+    private final long idleTimeout;
+    private final long idleNanos;
+    private final int maxRequests;
+    private final Map<InetSocketAddress, long[]> connections = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurge;
+
+    /**
+     * @param idleTimeout the idle seconds of a connection
+     * @param maxRequests the max requests of a connection
+     */
+    public KeepAliveFilter(long idleTimeout, int maxRequests) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException("Max requests must be positive : " + maxRequests);
+        }
+        this.idleTimeout = idleTimeout;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleTimeout);
+        this.maxRequests = maxRequests;
+        this.nextPurge = new AtomicLong(System.nanoTime() + idleNanos);
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        final Headers headers = exchange.getResponseHeaders();
+        if ("close".equalsIgnoreCase(exchange.getRequestHeaders().getFirst(HEADER_CONNECTION))
+                || "close".equalsIgnoreCase(headers.getFirst(HEADER_CONNECTION))) {
+            // Closed by the client or HTTP/1.0
+            connections.remove(exchange.getRemoteAddress());
+            chain.doFilter(exchange);
+            return;
+        }
+        final long now = System.nanoTime();
+        final InetSocketAddress remote = exchange.getRemoteAddress();
+        // {requests, last used}
+        final long[] connection = connections.computeIfAbsent(remote, k -> new long[2]);
+        final long requests;
+        synchronized (connection) {
+            if (connection[0] > 0L && now - connection[1] > idleNanos) {
+                // The previous connection of the address was closed by the idle timeout
+                connection[0] = 0L;
+            }
+            requests = ++connection[0];
+            connection[1] = now;
+        }
+        if (requests >= maxRequests) {
+            connections.remove(remote);
+            headers.set(HEADER_CONNECTION, "close");
+        } else {
+            headers.set(HEADER_CONNECTION, "Keep-Alive");
+            headers.set(HEADER_KEEP_ALIVE, String.format("timeout=%d, max=%d", idleTimeout, maxRequests - requests));
+        }
+        final long next = nextPurge.get();
+        if (now - next >= 0L && nextPurge.compareAndSet(next, now + idleNanos)) {
+            purge(now);
+        }
+        chain.doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return "Keep-alive connection filter";
+    }
+
+    /**
+     * Remove the counts of connections idle over the timeout.
+     */
+    void purge(long now) {
+        final long expired = now - idleNanos;
+        final Iterator<long[]> it = connections.values().iterator();
+        while (it.hasNext()) {
+            if (it.next()[1] - expired < 0L) {
+                it.remove();
+            }
+        }
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s {timeout:%ds, max:%d}", getClass().getSimpleName(), idleTimeout, maxRequests);
+    }
+}
@@ -0,0 +1,164 @@
+package net.tiny.ws;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A HDR style histogram of latencies in nanoseconds.
+ * A value is counted in a log-linear bucket, 16 sub buckets per power of 2 (about 6% precision),
+ * values over {@link #MAX_VALUE} are counted in the last bucket.
+ * The recording is lock-free, the threads are spread over the striped counters to avoid
+ * the contention of a same cache line, and the stripes are merged on {@link #snapshot()}.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** About 68 seconds */
+    public static final long MAX_VALUE = (1L << 36) - 1L;
+    static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    // Slots of a stripe after the buckets
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+    private static final int SLOTS = BUCKETS + 3;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public LatencyHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency the expected number of recording threads
+     */
+    public LatencyHistogram(int concurrency) {
+        int size = 1;
+        while (size < concurrency && size < 64) {
+            size <<= 1;
+        }
+        stripes = new AtomicLongArray[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new AtomicLongArray(SLOTS);
+        }
+        mask = size - 1;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0L);
+        }
+        final long v = Math.min(value, MAX_VALUE);
+        final int magnitude = 63 - Long.numberOfLeadingZeros(v);
+        final int shift = magnitude - SUB_BITS;
+        final int sub = (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the lowest value counted in the bucket
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub)) << shift;
+    }
+
+    /**
+     * @return the highest value counted in the bucket
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        return lowerBound(index) + (1L << shift) - 1L;
+    }
+
+    public void record(long nanos) {
+        final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.incrementAndGet(index(nanos));
+        stripe.incrementAndGet(COUNT);
+        stripe.addAndGet(SUM, nanos);
+        long max = stripe.get(MAX);
+        while (nanos > max && !stripe.compareAndSet(MAX, max, nanos)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * @return the merged counts of all stripes
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0L;
+        long sum = 0L;
+        long max = 0L;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+            count += stripe.get(COUNT);
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new Snapshot(counts, count, sum, max);
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return (count > 0L) ? (double) sum / count : 0d;
+        }
+
+        /**
+         * @param quantile 0.0 - 1.0
+         * @return the highest value of the bucket at the quantile, not over the max value
+         */
+        public long getValueAt(double quantile) {
+            long total = 0L;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0L) {
+                return 0L;
+            }
+            final long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+            long cumulative = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
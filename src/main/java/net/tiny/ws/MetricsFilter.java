@@ -0,0 +1,159 @@
+package net.tiny.ws;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Records the requests, the status classes, the bytes in/out and the latency histogram
+ * per path of {@link com.sun.net.httpserver.HttpContext}.
+ * The metrics are exposed by {@link MetricsHandler}.
+ */
+public class MetricsFilter extends Filter {
+
+    /** The metrics of a context path */
+    public static final class ContextMetrics {
+        final String path;
+        final LongAdder inFlight = new LongAdder();
+        // 1xx - 5xx, others
+        final LongAdder[] statuses = new LongAdder[6];
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        ContextMetrics(String path) {
+            this.path = path;
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new LongAdder();
+            }
+        }
+
+        void record(int status, long bytesRead, long bytesWritten, long nanos) {
+            final int type = status / 100;
+            statuses[(type >= 1 && type <= 5) ? type - 1 : 5].increment();
+            bytesIn.add(bytesRead);
+            bytesOut.add(bytesWritten);
+            latency.record(nanos);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getRequests() {
+            long count = 0L;
+            for (LongAdder status : statuses) {
+                count += status.sum();
+            }
+            return count;
+        }
+
+        public long getInFlight() {
+            return inFlight.sum();
+        }
+
+        /**
+         * @param type 1 - 5 of status class (ex. 2 is 2xx)
+         */
+        public long getStatusCount(int type) {
+            return statuses[type - 1].sum();
+        }
+
+        /**
+         * @return the requests without a response status (ex. the connection closed before the response)
+         */
+        public long getOtherStatusCount() {
+            return statuses[5].sum();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency.snapshot();
+        }
+    }
+
+    private final Map<String, ContextMetrics> contexts = new ConcurrentHashMap<>();
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        final ContextMetrics metrics = getMetrics(exchange.getHttpContext().getPath());
+        final CountingInputStream in = new CountingInputStream(exchange.getRequestBody());
+        final ExchangeTiming.TimedOutputStream out = new ExchangeTiming.TimedOutputStream(exchange.getResponseBody());
+        exchange.setStreams(in, out);
+        metrics.inFlight.increment();
+        final long start = System.nanoTime();
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            metrics.inFlight.decrement();
+            metrics.record(exchange.getResponseCode(), in.bytes, out.bytes, elapsed);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Request metrics filter";
+    }
+
+    ContextMetrics getMetrics(String path) {
+        ContextMetrics metrics = contexts.get(path);
+        if (metrics == null) {
+            metrics = contexts.computeIfAbsent(path, ContextMetrics::new);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of context paths
+     */
+    public Map<String, ContextMetrics> getContexts() {
+        return contexts;
+    }
+
+    static final class CountingInputStream extends FilterInputStream {
+        long bytes = 0L;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b != -1) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, len);
+            if (n > 0) {
+                bytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = in.skip(n);
+            bytes += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package net.tiny.ws;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.tiny.service.ThreadPoolExeutorWrapper;
+
+/**
+ * Exposes the metrics of {@link MetricsFilter} and the executor in Prometheus text format.
+ * The latencies are the summaries of quantiles in seconds.
+ * The executor is the one set, or the executor of the server set in the context attributes by {@link EmbeddedServer}.
+ */
+public class MetricsHandler extends BaseWebService {
+
+    static final String MIME_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = new double[] {0.5d, 0.9d, 0.99d, 0.999d};
+    private static final String[] STATUS_CLASSES = new String[] {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private MetricsFilter metrics;
+    private ExecutorService executor;
+
+    public WebServiceHandler setMetrics(MetricsFilter metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public WebServiceHandler setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    @Override
+    protected boolean doGetOnly() {
+        return true;
+    }
+
+    @Override
+    protected void execute(HTTP_METHOD method, HttpExchange he) throws IOException {
+        final StringBuilder out = new StringBuilder(4096);
+        if (metrics != null) {
+            writeMetrics(out);
+        }
+        ExecutorService pool = executor;
+        if (pool == null) {
+            pool = (ExecutorService) he.getHttpContext().getAttributes().get(ExecutorService.class.getName());
+        }
+        writeExecutor(pool, out);
+        final byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        HttpHandlerHelper.getHeaderHelper(he).set(HEADER_CONTENT_TYPE, MIME_TYPE_PROMETHEUS);
+        he.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        he.getResponseBody().write(body);
+    }
+
+    void writeMetrics(StringBuilder out) {
+        final List<String> paths = new ArrayList<>(metrics.getContexts().keySet());
+        Collections.sort(paths);
+
+        help(out, "http_requests_total", "counter", "The number of requests by the status class.");
+        for (String path : paths) {
+            final MetricsFilter.ContextMetrics context = metrics.getContexts().get(path);
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                out.append("http_requests_total{path=\"").append(escape(path))
+                   .append("\",status=\"").append(STATUS_CLASSES[i]).append("\"} ")
+                   .append(context.getStatusCount(i + 1)).append('\n');
+            }
+            out.append("http_requests_total{path=\"").append(escape(path))
+               .append("\",status=\"other\"} ")
+               .append(context.getOtherStatusCount()).append('\n');
+        }
+        help(out, "http_requests_in_flight", "gauge", "The number of requests in process.");
+        for (String path : paths) {
+            sample(out, "http_requests_in_flight", path, metrics.getContexts().get(path).getInFlight());
+        }
+        help(out, "http_request_bytes_total", "counter", "The bytes of request bodies.");
+        for (String path : paths) {
+            sample(out, "http_request_bytes_total", path, metrics.getContexts().get(path).getBytesIn());
+        }
+        help(out, "http_response_bytes_total", "counter", "The bytes of response bodies.");
+        for (String path : paths) {
+            sample(out, "http_response_bytes_total", path, metrics.getContexts().get(path).getBytesOut());
+        }
+        help(out, "http_request_duration_seconds", "summary", "The latency of requests.");
+        final List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            final LatencyHistogram.Snapshot snapshot = metrics.getContexts().get(path).getLatency();
+            snapshots.add(snapshot);
+            for (double quantile : QUANTILES) {
+                out.append("http_request_duration_seconds{path=\"").append(escape(path))
+                   .append("\",quantile=\"").append(quantile).append("\"} ")
+                   .append(seconds(snapshot.getValueAt(quantile))).append('\n');
+            }
+            out.append("http_request_duration_seconds_sum{path=\"").append(escape(path)).append("\"} ")
+               .append(seconds(snapshot.getSum())).append('\n');
+            out.append("http_request_duration_seconds_count{path=\"").append(escape(path)).append("\"} ")
+               .append(snapshot.getCount()).append('\n');
+        }
+        help(out, "http_request_duration_seconds_max", "gauge", "The max latency of requests.");
+        for (int i = 0; i < paths.size(); i++) {
+            out.append("http_request_duration_seconds_max{path=\"").append(escape(paths.get(i))).append("\"} ")
+               .append(seconds(snapshots.get(i).getMax())).append('\n');
+        }
+    }
+
+    static void writeExecutor(ExecutorService pool, StringBuilder out) {
+        final int queue;
+        final int active;
+        final int size;
+        final long completed;
+        if (pool instanceof ThreadPoolExeutorWrapper) {
+            final ThreadPoolExeutorWrapper wrapper = (ThreadPoolExeutorWrapper) pool;
+            queue = wrapper.getQueueSize();
+            active = wrapper.getActiveCount();
+            size = wrapper.getPoolSize();
+            completed = wrapper.getCompletedTaskCount();
+        } else if (pool instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor executor = (ThreadPoolExecutor) pool;
+            queue = executor.getQueue().size();
+            active = executor.getActiveCount();
+            size = executor.getPoolSize();
+            completed = executor.getCompletedTaskCount();
+        } else {
+            return;
+        }
+        help(out, "executor_queue_size", "gauge", "The number of tasks waiting in the executor queue.");
+        out.append("executor_queue_size ").append(queue).append('\n');
+        help(out, "executor_active_threads", "gauge", "The number of threads running tasks.");
+        out.append("executor_active_threads ").append(active).append('\n');
+        help(out, "executor_pool_size", "gauge", "The number of threads in the pool.");
+        out.append("executor_pool_size ").append(size).append('\n');
+        help(out, "executor_completed_tasks_total", "counter", "The number of completed tasks.");
+        out.append("executor_completed_tasks_total ").append(completed).append('\n');
+    }
+
+    private static void help(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String path, long value) {
+        out.append(name).append("{path=\"").append(escape(path)).append("\"} ").append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9d);
+    }
+
+    static String escape(String label) {
+        if (label.indexOf('"') < 0 && label.indexOf('\\') < 0 && label.indexOf('\n') < 0) {
+            return label;
+        }
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
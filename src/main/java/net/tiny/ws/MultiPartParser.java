@@ -0,0 +1,484 @@
+package net.tiny.ws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import net.tiny.ws.FormDataHandler.MultiPart;
+import net.tiny.ws.FormDataHandler.PartType;
+
+/**
+ * A streaming parser of multipart/form-data (RFC 7578) on an input stream.
+ * <ul>
+ * <li>The delimiters are searched by Boyer-Moore-Horspool in a fixed pooled buffer, the bytes before
+ * a possible delimiter are passed to the part stream, the tail is kept for the next read.</li>
+ * <li>The parts are passed to a {@link PartHandler} as streams, or collected by {@link #parse()}
+ * where the file parts over the spill threshold are written in temporary files.</li>
+ * <li>The size of a part and the total size of the stream are limited,
+ * a {@link SizeLimitException} is thrown over the limits.</li>
+ * </ul>
+ */
+public class MultiPartParser {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_SPILL_THRESHOLD = 1024L * 1024L; //1MB
+    static final int MAX_HEADER_SIZE = 8192;
+
+    private static final byte[] CRLF = new byte[] {'\r', '\n'};
+
+    /**
+     * Receives a part and the stream of its body, the rest of body not read is skipped.
+     */
+    @FunctionalInterface
+    public interface PartHandler {
+        void part(MultiPart part, InputStream body) throws IOException;
+    }
+
+    public static class SizeLimitException extends RequestBody.TooLargeException {
+        private static final long serialVersionUID = 1L;
+
+        public SizeLimitException(String message) {
+            super(message);
+        }
+    }
+
+    private final InputStream in;
+    // CRLF + "--" + boundary
+    private final byte[] delimiter;
+    private final int[] shifts = new int[256];
+    private final int bufferSize;
+    private byte[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+    // The bytes before safeEnd are not a start of delimiter, the delimiter is at found if not -1
+    private int safeEnd = 0;
+    private int found = -1;
+    private boolean eof = false;
+    private long total = 0L;
+    private long partSize = 0L;
+    private long maxPartSize = -1L;
+    private long maxTotalSize = -1L;
+    private long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+    private Path directory = null;
+
+    /**
+     * @param in the stream of body
+     * @param boundary the boundary with the leading "--"
+     */
+    public MultiPartParser(InputStream in, byte[] boundary) {
+        this(in, boundary, DEFAULT_BUFFER_SIZE);
+    }
+
+    public MultiPartParser(InputStream in, byte[] boundary, int bufferSize) {
+        if (boundary.length == 0) {
+            throw new IllegalArgumentException("Empty boundary");
+        }
+        this.in = in;
+        delimiter = new byte[boundary.length + CRLF.length];
+        System.arraycopy(CRLF, 0, delimiter, 0, CRLF.length);
+        System.arraycopy(boundary, 0, delimiter, CRLF.length, boundary.length);
+        if (bufferSize < Math.max(MAX_HEADER_SIZE, delimiter.length * 2)) {
+            throw new IllegalArgumentException("Too small buffer size " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        // Boyer-Moore-Horspool bad character shifts
+        final int last = delimiter.length - 1;
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = delimiter.length;
+        }
+        for (int i = 0; i < last; i++) {
+            shifts[delimiter[i] & 0xFF] = last - i;
+        }
+    }
+
+    /**
+     * @param size the max bytes of a part body, not limited if less than 0
+     */
+    public MultiPartParser maxPartSize(long size) {
+        maxPartSize = size;
+        return this;
+    }
+
+    /**
+     * @param size the max bytes of the stream, not limited if less than 0
+     */
+    public MultiPartParser maxTotalSize(long size) {
+        maxTotalSize = size;
+        return this;
+    }
+
+    /**
+     * @param size the max bytes of a file part in memory, the text parts are never spilled and limited by it
+     */
+    public MultiPartParser spillThreshold(long size) {
+        spillThreshold = size;
+        return this;
+    }
+
+    /**
+     * @param dir the directory of spilled files, the default temporary directory if null
+     */
+    public MultiPartParser directory(Path dir) {
+        directory = dir;
+        return this;
+    }
+
+    /**
+     * Collect the parts, the text values in memory and the large files spilled.
+     * The spilled files are deleted by {@link MultiPart#delete()}.
+     */
+    public List<MultiPart> parse() throws IOException {
+        final List<MultiPart> parts = new ArrayList<>();
+        try {
+            parse((part, body) -> {
+                try {
+                    collect(part, body);
+                } catch (IOException | RuntimeException e) {
+                    part.delete();
+                    throw e;
+                }
+                parts.add(part);
+            });
+        } catch (IOException | RuntimeException e) {
+            for (MultiPart part : parts) {
+                part.delete();
+            }
+            throw e;
+        }
+        return parts;
+    }
+
+    /**
+     * Pass the parts to the handler in order, the parts without name are skipped.
+     */
+    public void parse(PartHandler handler) throws IOException {
+        if (buffer != null) {
+            throw new IllegalStateException("Already parsing");
+        }
+        buffer = ByteArrayPool.SHARED.acquire(bufferSize);
+        try {
+            // The first boundary is not preceded by CRLF
+            System.arraycopy(CRLF, 0, buffer, 0, CRLF.length);
+            limit = CRLF.length;
+            parseParts(handler);
+        } finally {
+            ByteArrayPool.SHARED.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void parseParts(PartHandler handler) throws IOException {
+        // The preamble
+        if (!skipBody()) {
+            // Not multipart
+            return;
+        }
+        while (true) {
+            if (!ensure(2)) {
+                throw new IOException("Unexpected end of multipart stream");
+            }
+            if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+                // The close delimiter, ignore the epilogue
+                return;
+            }
+            // The transport padding of the delimiter line
+            readLine();
+            final MultiPart part = createPart(readHeaders());
+            startBody();
+            if (part != null) {
+                handler.part(part, new PartInputStream());
+            }
+            if (!skipBody()) {
+                throw new IOException("Unexpected end of multipart stream");
+            }
+        }
+    }
+
+    private void collect(MultiPart part, InputStream body) throws IOException {
+        final byte[] chunk = ByteArrayPool.SHARED.acquire(Constants.DEFAULT_BUFFER_SIZE);
+        final ByteArrayPool.Buffer memory = ByteArrayPool.SHARED.buffer();
+        OutputStream out = memory;
+        long size = 0L;
+        try {
+            int n;
+            while ((n = body.read(chunk)) != -1) {
+                size += n;
+                if (size > spillThreshold && part.file == null) {
+                    if (part.type == PartType.TEXT) {
+                        throw new SizeLimitException(String.format("Text part '%s' over %d bytes", part.name, spillThreshold));
+                    }
+                    part.file = (directory != null)
+                            ? Files.createTempFile(directory, "upload", ".part")
+                            : Files.createTempFile("upload", ".part");
+                    out = Files.newOutputStream(part.file);
+                    memory.writeTo(out);
+                }
+                out.write(chunk, 0, n);
+            }
+            part.size = size;
+            if (part.type == PartType.TEXT) {
+                part.value = new String(memory.array(), 0, memory.size(), StandardCharsets.UTF_8);
+            } else if (part.file == null) {
+                part.bytes = memory.toByteArray();
+            }
+        } finally {
+            if (out != memory) {
+                out.close();
+            }
+            memory.close();
+            ByteArrayPool.SHARED.release(chunk);
+        }
+    }
+
+    private MultiPart createPart(Map<String, String> headers) {
+        final String disposition = headers.get("content-disposition");
+        if (disposition == null) {
+            return null;
+        }
+        final Map<String, String> params = parameters(disposition);
+        final String name = params.get("name");
+        if (name == null) {
+            // skip entry if no name is found
+            return null;
+        }
+        final MultiPart part = new MultiPart();
+        part.name = name;
+        part.filename = params.get("filename");
+        part.type = (part.filename != null) ? PartType.FILE : PartType.TEXT;
+        part.contentType = headers.get("content-type");
+        return part;
+    }
+
+    /**
+     * The parameters of 'form-data; name="field"; filename="a.txt"'.
+     */
+    static Map<String, String> parameters(String value) {
+        final Map<String, String> params = new HashMap<>();
+        int i = value.indexOf(';');
+        while (i >= 0 && i < value.length()) {
+            final int eq = value.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            final String key = value.substring(i + 1, eq).trim().toLowerCase(Locale.ENGLISH);
+            String param;
+            int next;
+            if (eq + 1 < value.length() && value.charAt(eq + 1) == '"') {
+                final int close = value.indexOf('"', eq + 2);
+                final int end = (close < 0) ? value.length() : close;
+                param = value.substring(eq + 2, end);
+                next = value.indexOf(';', end);
+            } else {
+                next = value.indexOf(';', eq);
+                param = value.substring(eq + 1, (next < 0) ? value.length() : next).trim();
+            }
+            params.put(key, param);
+            i = next;
+        }
+        return params;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        final Map<String, String> headers = new HashMap<>();
+        int size = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            size += line.length();
+            if (size > MAX_HEADER_SIZE) {
+                throw new SizeLimitException("Part headers over " + MAX_HEADER_SIZE + " bytes");
+            }
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private String readLine() throws IOException {
+        int from = pos;
+        while (true) {
+            for (int i = from; i < limit - 1; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    final String line = new String(buffer, pos, i - pos, StandardCharsets.UTF_8);
+                    pos = i + CRLF.length;
+                    return line;
+                }
+            }
+            if (limit - pos >= MAX_HEADER_SIZE) {
+                throw new SizeLimitException("Part header line over " + MAX_HEADER_SIZE + " bytes");
+            }
+            final int scanned = Math.max(limit - 1 - pos, 0);
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream");
+            }
+            from = pos + scanned;
+        }
+    }
+
+    private boolean ensure(int n) throws IOException {
+        while (limit - pos < n) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compact the buffer and read more bytes.
+     * @return false at the end of stream
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            safeEnd = Math.max(safeEnd - pos, 0);
+            found = (found >= 0) ? found - pos : -1;
+            pos = 0;
+        }
+        final int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        total += n;
+        if (maxTotalSize >= 0L && total > maxTotalSize) {
+            throw new SizeLimitException("Multipart stream over " + maxTotalSize + " bytes");
+        }
+        limit += n;
+        return true;
+    }
+
+    private void startBody() {
+        partSize = 0L;
+        safeEnd = pos;
+        found = -1;
+    }
+
+    /**
+     * Search the delimiter after the safe end of buffer.
+     */
+    private void scan() {
+        if (found >= 0) {
+            return;
+        }
+        final int length = delimiter.length;
+        final int last = length - 1;
+        int i = Math.max(pos, safeEnd);
+        while (i <= limit - length) {
+            int j = last;
+            while (buffer[i + j] == delimiter[j]) {
+                if (j == 0) {
+                    found = i;
+                    safeEnd = i;
+                    return;
+                }
+                j--;
+            }
+            i += shifts[buffer[i + last] & 0xFF];
+        }
+        // A delimiter may start in the tail
+        safeEnd = Math.max(pos, limit - last);
+    }
+
+    /**
+     * Read the body until the delimiter.
+     * @return -1 at the delimiter, the delimiter is consumed
+     */
+    private int readBody(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            if (pos < safeEnd) {
+                final int n = Math.min(len, safeEnd - pos);
+                partSize += n;
+                if (maxPartSize >= 0L && partSize > maxPartSize) {
+                    throw new SizeLimitException("Part over " + maxPartSize + " bytes");
+                }
+                if (b != null) {
+                    System.arraycopy(buffer, pos, b, off, n);
+                }
+                pos += n;
+                return n;
+            }
+            if (found >= 0) {
+                // At the delimiter
+                pos += delimiter.length;
+                found = -1;
+                safeEnd = pos;
+                return -1;
+            }
+            scan();
+            if (pos < safeEnd || found >= 0) {
+                continue;
+            }
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream");
+            }
+        }
+    }
+
+    /**
+     * Skip the rest of body.
+     * @return false if the delimiter is not found until the end of stream
+     */
+    private boolean skipBody() throws IOException {
+        try {
+            while (readBody(null, 0, Integer.MAX_VALUE) != -1) {
+                // Skip
+            }
+            return true;
+        } catch (SizeLimitException e) {
+            throw e;
+        } catch (IOException e) {
+            if (eof) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The body of a part until the delimiter.
+     */
+    final class PartInputStream extends InputStream {
+        private boolean done = false;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            final int n = read(one, 0, 1);
+            return (n < 0) ? -1 : (one[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            final int n = readBody(b, off, len);
+            if (n < 0) {
+                done = true;
+                // The delimiter is consumed by this stream, parse(handler) must not skip it again
+                pos -= delimiter.length;
+                found = pos;
+                safeEnd = pos;
+            }
+            return n;
+        }
+    }
+}
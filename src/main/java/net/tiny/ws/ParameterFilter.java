@@ -4,7 +4,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -22,9 +24,29 @@ import com.sun.net.httpserver.HttpExchange;
  *  }
  * </code>
  *
+ * The POST body is read by {@link RequestBody}, the handlers read it again from the exchange.
  */
 public class ParameterFilter extends Filter implements Constants {
 
+    private long maxBodySize = -1L;
+    private long bodyThreshold = RequestBody.DEFAULT_THRESHOLD;
+
+    /**
+     * The requests over the size are rejected by '413 Payload Too Large', not limited if less than 0.
+     */
+    public ParameterFilter maxBodySize(long size) {
+        this.maxBodySize = size;
+        return this;
+    }
+
+    /**
+     * The request bodies over the size are spilled in temporary files.
+     */
+    public ParameterFilter bodyThreshold(long size) {
+        this.bodyThreshold = size;
+        return this;
+    }
+
     @Override
     public String description() {
         return "Parses the requested URI for parameters";
@@ -37,12 +59,23 @@ public class ParameterFilter extends Filter implements Constants {
             parseGetParameters(he);
             break;
         case POST:
-            parsePostParameters(he);
+            try {
+                parsePostParameters(he);
+            } catch (RequestBody.TooLargeException ex) {
+                he.getResponseHeaders().set(HEADER_CONNECTION, "close");
+                he.sendResponseHeaders(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, NO_RESPONSE_LENGTH);
+                he.close();
+                return;
+            }
             break;
         default:
             break;
         }
-        chain.doFilter(he);
+        try {
+            chain.doFilter(he);
+        } finally {
+            RequestBody.release(he);
+        }
     }
 
     private void parseGetParameters(HttpExchange exchange) throws UnsupportedEncodingException {
@@ -56,8 +89,15 @@ public class ParameterFilter extends Filter implements Constants {
     @SuppressWarnings("unchecked")
     private void parsePostParameters(HttpExchange exchange) throws IOException {
         Map<String, Object> parameters = (Map<String, Object>) exchange.getAttribute(HTTP_PARAMETER_ATTRIBUTE);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
-        String query = reader.readLine();
+        if (parameters == null) {
+            parameters = new HashMap<String, Object>();
+            exchange.setAttribute(HTTP_PARAMETER_ATTRIBUTE, parameters);
+        }
+        final RequestBody body = RequestBody.of(exchange, bodyThreshold, maxBodySize);
+        final String query;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body.getInputStream(), StandardCharsets.UTF_8))) {
+            query = reader.readLine();
+        }
         PostParameterPaser.parseQuery(query, parameters);
     }
 }
\ No newline at end of file
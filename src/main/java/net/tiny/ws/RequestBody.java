@@ -0,0 +1,293 @@
+package net.tiny.ws;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * The request body read once and shared by the filters and the handler.
+ * <ul>
+ * <li>A small body is kept in a pooled array sized from the Content-Length, released by close.</li>
+ * <li>A body over the threshold is spilled in a temporary file, read as a stream or a mapped buffer.</li>
+ * <li>A body over the max size is rejected by {@link TooLargeException},
+ * before reading if the Content-Length is known, the handlers answer '413 Payload Too Large'.</li>
+ * </ul>
+ * The body read by {@link #of(HttpExchange, long, long)} is attached to the exchange,
+ * the exchange body is replaced by the stream of it, and closed by {@link #release(HttpExchange)}.
+ * Only {@link BaseWebService} and {@link ParameterFilter} attach the bodies, both release them
+ * when the exchange is done, the handlers get the body by {@link BaseWebService#getRequestBody(HttpExchange)}.
+ */
+public final class RequestBody implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(RequestBody.class.getName());
+
+    // The bodies read by the filters or the handlers. Not an attribute of exchange,
+    // the attributes of JDK server are shared by the exchanges of a context.
+    private static final Map<HttpExchange, RequestBody> ATTACHED = new ConcurrentHashMap<>();
+
+    public static final long DEFAULT_THRESHOLD = 64L * 1024L; //64KB
+    private static final int MIN_BUFFER_SIZE = 512;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final byte[] EMPTY = new byte[0];
+
+    public static class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    private byte[] bytes;
+    private int count;
+    private Path file;
+    private long length;
+
+    private RequestBody(byte[] bytes, int count) {
+        this.bytes = bytes;
+        this.count = count;
+        this.length = count;
+    }
+
+    private RequestBody(Path file, long length) {
+        this.bytes = EMPTY;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * The body attached to the exchange, read with the default threshold and no limit at first.
+     */
+    static RequestBody of(HttpExchange he) throws IOException {
+        return of(he, DEFAULT_THRESHOLD, -1L);
+    }
+
+    /**
+     * The body attached to the exchange, read at first with the threshold and the max size,
+     * the max size is checked again if already read.
+     * @param threshold the max bytes in memory
+     * @param maxSize the max bytes of body, not limited if less than 0
+     */
+    static RequestBody of(HttpExchange he, long threshold, long maxSize) throws IOException {
+        RequestBody body = attached(he);
+        if (body == null) {
+            body = read(he.getRequestBody(), contentLength(he), threshold, maxSize, null);
+            ATTACHED.put(he, body);
+            he.setStreams(body.getInputStream(), null);
+        } else {
+            // Read by a filter with other limits
+            checkSize(body.length(), maxSize);
+        }
+        return body;
+    }
+
+    /**
+     * @return the body attached to the exchange, null if not read
+     */
+    static RequestBody attached(HttpExchange he) {
+        return ATTACHED.get(he);
+    }
+
+    /**
+     * Close the body attached to the exchange.
+     */
+    static void release(HttpExchange he) {
+        final RequestBody body = ATTACHED.remove(he);
+        if (body != null) {
+            body.close();
+        }
+    }
+
+    /**
+     * Reject the request by the Content-Length before reading the body.
+     * @param maxSize the max bytes of body, not limited if less than 0
+     */
+    public static void checkLength(HttpExchange he, long maxSize) throws TooLargeException {
+        final long length = contentLength(he);
+        if (maxSize >= 0L && length > maxSize) {
+            throw new TooLargeException(String.format("Content-Length %d over %d bytes", length, maxSize));
+        }
+    }
+
+    static long contentLength(HttpExchange he) {
+        final String value = he.getRequestHeaders().getFirst(Constants.HEADER_CONTENT_LENGTH);
+        if (value == null) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Read the whole stream, the stream is not closed.
+     * @param in the body stream
+     * @param length the Content-Length, unknown if less than 0
+     * @param threshold the max bytes in memory
+     * @param maxSize the max bytes of body, not limited if less than 0
+     * @param dir the directory of spilled file, the default temporary directory if null
+     */
+    public static RequestBody read(InputStream in, long length, long threshold, long maxSize, Path dir) throws IOException {
+        if (maxSize >= 0L && length > maxSize) {
+            throw new TooLargeException(String.format("Content-Length %d over %d bytes", length, maxSize));
+        }
+        if (length == 0L) {
+            return new RequestBody(EMPTY, 0);
+        }
+        final ByteArrayPool pool = ByteArrayPool.SHARED;
+        final long memory = Math.max(Math.min(threshold, MAX_ARRAY_SIZE), 0L);
+        int capacity = (int) Math.min(length >= 0L ? length : Constants.DEFAULT_BUFFER_SIZE, memory);
+        byte[] buffer = pool.acquire(Math.max(capacity, MIN_BUFFER_SIZE));
+        try {
+            int count = 0;
+            int n;
+            while ((n = in.read(buffer, count, buffer.length - count)) != -1) {
+                count += n;
+                checkSize(count, maxSize);
+                if (count == length) {
+                    break;
+                }
+                if (count == buffer.length) {
+                    if (count >= memory) {
+                        return spill(in, buffer, count, maxSize, dir);
+                    }
+                    final byte[] larger = pool.acquire((int) Math.min((long) count * 2L, memory));
+                    System.arraycopy(buffer, 0, larger, 0, count);
+                    pool.release(buffer);
+                    buffer = larger;
+                }
+            }
+            if (count > memory) {
+                // The minimum buffer is over the threshold
+                return spill(in, buffer, count, maxSize, dir);
+            }
+            final RequestBody body = new RequestBody(buffer, count);
+            buffer = null;
+            return body;
+        } finally {
+            // Not kept by the body
+            pool.release(buffer);
+        }
+    }
+
+    private static RequestBody spill(InputStream in, byte[] buffer, int count, long maxSize, Path dir) throws IOException {
+        final Path file = (dir != null)
+                ? Files.createTempFile(dir, "body", ".tmp")
+                : Files.createTempFile("body", ".tmp");
+        long total = count;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(buffer, 0, count);
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+                checkSize(total, maxSize);
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new RequestBody(file, total);
+    }
+
+    private static void checkSize(long size, long maxSize) throws TooLargeException {
+        if (maxSize >= 0L && size > maxSize) {
+            throw new TooLargeException(String.format("Request body over %d bytes", maxSize));
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return the spilled file, null if in memory
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        return new ByteArrayInputStream(bytes, 0, count);
+    }
+
+    /**
+     * @return a copy of body, the pooled array is not exposed
+     */
+    public byte[] getBytes() throws IOException {
+        if (file != null) {
+            if (length > MAX_ARRAY_SIZE) {
+                throw new IOException(String.format("Request body %d bytes is too large for an array", length));
+            }
+            return Files.readAllBytes(file);
+        }
+        return Arrays.copyOf(bytes, count);
+    }
+
+    public String getString(Charset charset) throws IOException {
+        if (file != null) {
+            return new String(getBytes(), charset);
+        }
+        return new String(bytes, 0, count, charset);
+    }
+
+    /**
+     * @return a read only buffer valid until close, the spilled file is mapped
+     */
+    public ByteBuffer asByteBuffer() throws IOException {
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            }
+        }
+        return ByteBuffer.wrap(bytes, 0, count).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Delete the spilled file.
+     */
+    @Override
+    public void close() {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warning(String.format("[BODY] Can not delete '%s' : %s", file, e.getMessage()));
+            }
+            file = null;
+        } else if (bytes != EMPTY) {
+            ByteArrayPool.SHARED.release(bytes);
+        }
+        bytes = EMPTY;
+        count = 0;
+        length = 0L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RequestBody(%d bytes%s)", length, file != null ? ", spilled" : "");
+    }
+}
@@ -1,10 +1,7 @@
 package net.tiny.ws;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
@@ -146,7 +143,8 @@ public final class RequestHelper {
     public boolean isNotModified(long lastModified) {
         Date date = parseDate("If-Modified-Since");
 
-        if(null != date) {
+        // 'If-None-Match' takes precedence over 'If-Modified-Since'
+        if(null != date && null == getHeader(Constants.HEADER_IF_NONE_MATCH)) {
             return (lastModified/1000L) <= (date.getTime()/1000L);
         }
 
@@ -157,6 +155,103 @@ public final class RequestHelper {
         return false;
     }
 
+    /**
+     * Check the entity tag matches one of 'If-None-Match' header by weak comparison.
+     */
+    public boolean isNotModified(String etag) {
+        final String value = getHeader(Constants.HEADER_IF_NONE_MATCH);
+        if (null == value || null == etag) {
+            return false;
+        }
+        if ("*".equals(value.trim())) {
+            return true;
+        }
+        final String opaque = opaqueTag(etag);
+        for (String tag : value.split(",")) {
+            if (opaque.equals(opaqueTag(tag.trim()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Get the satisfiable ranges of 'Range' header.
+     *
+     * @param length the size of resource
+     * @return null if no range requested, empty list if not satisfiable.
+     */
+    public List<HttpRange> getRanges(long length) {
+        return HttpRange.parse(getHeader(Constants.HEADER_RANGE), length);
+    }
+
+    /**
+     * The 'Range' header only applies when the validator of 'If-Range' is still current.
+     * An entity tag never matches a resource without tag.
+     */
+    public boolean isRangeMatched(long lastModified) {
+        return isRangeMatched(lastModified, null);
+    }
+
+    /**
+     * The 'If-Range' entity tag is matched by strong comparison, a weak tag never matches.
+     */
+    public boolean isRangeMatched(long lastModified, String etag) {
+        final String value = getHeader(Constants.HEADER_IF_RANGE);
+        if (null == value) {
+            return true;
+        }
+        if (value.startsWith("\"")) {
+            return etag != null && !etag.startsWith("W/") && value.equals(etag);
+        }
+        if (value.startsWith("W/")) {
+            return false;
+        }
+        try {
+            return (lastModified/1000L) == (HttpDateFormat.parse(value).getTime()/1000L);
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Check the content coding is acceptable by 'Accept-Encoding' header.
+     * A coding with 'q=0' is not acceptable, '*' matches any coding not listed.
+     */
+    public boolean isAcceptEncoding(String encoding) {
+        final String value = getHeader(Constants.HEADER_ACCEPT_ENCODING);
+        if (null == value) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String item : value.split(",")) {
+            final String[] params = item.trim().split(";");
+            final String coding = params[0].trim();
+            boolean accept = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accept = Float.parseFloat(param.substring(2)) > 0f;
+                    } catch (NumberFormatException ex) {
+                        accept = false;
+                    }
+                }
+            }
+            if (coding.equalsIgnoreCase(encoding)) {
+                return accept;
+            }
+            if ("*".equals(coding)) {
+                wildcard = accept;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
     public boolean hasParameters() {
         return uriParameters != null && uriParameters.isEmpty();
     }
@@ -275,15 +370,7 @@ public final class RequestHelper {
     }
 
     public byte[] getRequestContent() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        InputStream in = new BufferedInputStream(httpExchange.getRequestBody());
-        byte[] buffer = new byte[4096];
-        int nread;
-        while ((nread = in.read(buffer)) > 0) {
-            baos.write(buffer, 0, nread);
-        }
-        baos.close();
-        return baos.toByteArray();
+        return HttpHandlerHelper.getRequestBody(httpExchange);
     }
 
     private Map<String, List<String>> getURIParameters(final URI requestUri) {
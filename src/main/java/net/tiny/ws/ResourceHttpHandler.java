@@ -3,33 +3,56 @@ package net.tiny.ws;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.JarURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.jar.JarEntry;
 
 import com.sun.net.httpserver.HttpExchange;
 
 import net.tiny.ws.cache.CacheFunction;
+import net.tiny.ws.cache.ContentsCache;
+import net.tiny.ws.cache.FileWatcher;
+import net.tiny.ws.cache.LookupCache;
 
 /**
  * HTTP (HyperText Transfer Protocol) Handler
  * @see http://www.tohoho-web.com/ex/http.htm
  */
-public class ResourceHttpHandler extends BaseWebService {
+public class ResourceHttpHandler extends BaseWebService implements AutoCloseable {
+
+    /** Precompressed sibling files, in order of preference */
+    private static final String[][] PRECOMPRESSED = { {"br", ".br"}, {ContentsCache.GZIP, ".gz"} };
 
     private final Date lastModified = new Date(System.currentTimeMillis());
     private Map<String, String> resources = null;
-    private CacheFunction cache = null;
+    private volatile CacheFunction cache = null;
+    private FileWatcher watcher = null;
+    private volatile LookupCache<File> localLookup = null;
+    private volatile LookupCache<URL> resourceLookup = null;
     private List<String> paths = new ArrayList<>();
     private int cacheSize = -1;
+    private long cacheBytes = -1L; //Max total bytes of cache, larger than 0 takes precedence over cacheSize
+    private boolean offHeap = false; //Store the contents of cacheBytes in direct buffers
+    private boolean watch = true; //Invalidate the cached contents of changed files
+    private long watchInterval = -1L; //Poll the file changes every interval(ms), -1 is native file system events
+    private int lookupSize = 4096; //Max entries of resolved URI, 0 is no lookup cache
+    private long lookupTtl = 60L; //1 minute, time to live of found URI
+    private long negativeTtl = 5L; //5 seconds, time to live of not found URI
     private long maxAge = 86400L; //1 day
+    private long streamThreshold = 1048576L; //1MB, larger files are streamed without cache
+    private long compressMinSize = 1024L; //1KB, smaller contents are not compressed
+    private boolean compression = true;
     private String serverName = DEFALUT_SERVER_NAME;
     private ClassLoader loader = ResourceHttpHandler.class.getClassLoader();
     private boolean internal = false;
@@ -61,12 +84,15 @@ public class ResourceHttpHandler extends BaseWebService {
             final File doc = findLocalFile(uri);
             final RequestHelper request = HttpHandlerHelper.getRequestHelper(he);
             final boolean unmodify = request.isNotModified(doc);
-            sendLocalFile(he, doc, unmodify);
+            sendLocalFile(he, request, doc, unmodify);
         }
      }
 
-    private void sendLocalFile(HttpExchange he, File doc, boolean unmodify) throws IOException {
-        byte[] buffer;
+    private void sendLocalFile(HttpExchange he, RequestHelper request, File doc, boolean unmodify) throws IOException {
+        byte[] buffer = null;
+        ContentsCache.Lease contents = null;
+        FileChannel channel = null;
+        List<HttpRange> ranges = null;
         final ResponseHeaderHelper header = HttpHandlerHelper.getHeaderHelper(he);
         int statCode = HttpURLConnection.HTTP_OK;
         if (doc == null || !doc.exists() || !doc.isFile()) {
@@ -75,20 +101,57 @@ public class ResourceHttpHandler extends BaseWebService {
             statCode = HttpURLConnection.HTTP_NOT_FOUND;
         } else {
             try {
-                if (unmodify) {
+                // Negotiate the encoding, partial contents are always identity encoding.
+                // Compressed on the fly only if kept in cache, otherwise a precompressed file or identity.
+                final boolean compressible = isCompressible(doc.getName(), doc.length());
+                File target = doc;
+                String encoding = null;
+                if (compressible && null == request.getHeader(HEADER_RANGE)) {
+                    target = findPrecompressed(request, doc);
+                    if (target != doc) {
+                        encoding = target.getName().endsWith(".br") ? "br" : ContentsCache.GZIP;
+                    } else if (doc.length() <= streamThreshold && getCache().isCached()) {
+                        encoding = selectEncoding(request);
+                    }
+                }
+                final String etag = getETag(target, target == doc ? encoding : null);
+                header.set(HEADER_ETAG, etag);
+                if (compressible) {
+                    header.set(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+                }
+                if (unmodify || request.isNotModified(etag)) {
                     buffer = new byte[0];
                     header.set("Server", serverName);
-                    header.set("Connection", "Keep-Alive");
+                    header.keepAlive(true);
                     statCode = HttpURLConnection.HTTP_NOT_MODIFIED;
                 } else {
                     header.setContentType(doc.getAbsolutePath());
                     header.setLastModified(doc);
                     header.set("Server", serverName);
-                    header.set("Connection", "Keep-Alive");
-                    header.set("Keep-Alive", "timeout=10, max=1000");
+                    header.keepAlive(true);
                     header.set("Cache-Control", "max-age=" + maxAge); //"max-age=0" 86400:1 day
-                    buffer = getCacheableContents(doc.toURI().toURL());
+                    header.set(HEADER_ACCEPT_RANGES, "bytes");
+                    if (target == doc && encoding == null && request.isRangeMatched(doc.lastModified(), etag)) {
+                        ranges = request.getRanges(doc.length());
+                    }
+                    if (encoding != null) {
+                        header.set(HEADER_CONTENT_ENCODING, encoding);
+                    }
                     statCode = HttpURLConnection.HTTP_OK;
+                    if (ranges != null && ranges.isEmpty()) {
+                        // Not satisfiable range
+                        buffer = new byte[0];
+                        header.set(HEADER_CONTENT_RANGE, "bytes */" + doc.length());
+                        statCode = HTTP_RANGE_NOT_SATISFIABLE;
+                    } else if (ranges != null || target.length() > streamThreshold) {
+                        // Partial or large contents are read from file directly
+                        channel = FileChannel.open(target.toPath(), StandardOpenOption.READ);
+                    } else if (target == doc && encoding != null) {
+                        // Compress once and keep in cache
+                        contents = getCacheableContents(doc.toURI().toURL(), encoding);
+                    } else {
+                        contents = getCacheableContents(target.toURI().toURL());
+                    }
                 }
             } catch (IOException e) {
                 header.setContentType(MIME_TYPE.HTML);
@@ -96,7 +159,13 @@ public class ResourceHttpHandler extends BaseWebService {
                 statCode = HttpURLConnection.HTTP_INTERNAL_ERROR;
             }
         }
-        if (buffer.length > 0) {
+        if (channel != null && ranges != null) {
+            HttpHandlerHelper.sendRanges(he, channel, ranges);
+        } else if (channel != null) {
+            HttpHandlerHelper.sendFile(he, statCode, channel);
+        } else if (contents != null) {
+            HttpHandlerHelper.sendBuffer(he, statCode, contents);
+        } else if (buffer.length > 0) {
             header.setContentLength(buffer.length);
             he.sendResponseHeaders(statCode, buffer.length);
             he.getResponseBody().write(buffer);
@@ -106,7 +175,8 @@ public class ResourceHttpHandler extends BaseWebService {
     }
 
     private void sendResource(HttpExchange he, URL url) throws IOException {
-        byte[] buffer;
+        byte[] buffer = null;
+        ContentsCache.Lease body = null;
         final RequestHelper request = HttpHandlerHelper.getRequestHelper(he);
         final ResponseHeaderHelper header = HttpHandlerHelper.getHeaderHelper(he);
         int statCode = HttpURLConnection.HTTP_OK;
@@ -115,30 +185,63 @@ public class ResourceHttpHandler extends BaseWebService {
             buffer = NOT_FOUND;
             statCode = HttpURLConnection.HTTP_NOT_FOUND;
         } else {
+            ContentsCache.Lease contents = null;
             try {
-                if (request.isNotModified(lastModified.getTime())) {
+                final boolean cached = getCache().isCached();
+                // Without cache the contents are not read before the response, nor compressed
+                contents = cached ? getCacheableContents(url) : null;
+                long length = cached ? contents.length() : resourceLength(url);
+                if (length < 0L) {
+                    contents = getCacheableContents(url);
+                    length = contents.length();
+                }
+                String encoding = null;
+                if (cached && isCompressible(url.getPath(), length)) {
+                    header.set(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+                    encoding = selectEncoding(request);
+                }
+                // The validators are stable over the restarts of server,
+                // the time of resource file or jar entry, not of this handler.
+                final long modified = resourceLastModified(url);
+                final String etag = cached
+                        ? getCache().getETag(url, encoding)
+                        : HttpHandlerHelper.weakETag(length, modified);
+                header.set(HEADER_ETAG, etag);
+                if (request.isNotModified(modified) || request.isNotModified(etag)) {
                     buffer = new byte[0];
                     header.set("Server", serverName);
-                    header.set("Connection", "Keep-Alive");
+                    header.keepAlive(true);
                     statCode = HttpURLConnection.HTTP_NOT_MODIFIED;
                 } else {
                     header.setContentType(url.toURI().toString());
-                    header.set(HEADER_LAST_MODIFIED, HttpDateFormat.format(lastModified));
+                    header.set(HEADER_LAST_MODIFIED, HttpDateFormat.format(new Date(modified)));
                     header.set("Server", serverName);
-                    header.set("Connection", "Keep-Alive");
-                    header.set("Keep-Alive", "timeout=10, max=1000");
+                    header.keepAlive(true);
                     header.set("Cache-Control", "max-age=" + maxAge); //"max-age=0" 86400:1 day
 
-                    buffer = getCacheableContents(url);
+                    if (encoding != null) {
+                        header.set(HEADER_CONTENT_ENCODING, encoding);
+                        body = getCacheableContents(url, encoding);
+                    } else {
+                        body = (contents != null) ? contents : getCacheableContents(url);
+                        contents = null;
+                    }
                     statCode = HttpURLConnection.HTTP_OK;
                 }
             } catch (IOException | URISyntaxException e) {
                 header.setContentType(MIME_TYPE.HTML);
                 buffer = SERVER_ERROR;
                 statCode = HttpURLConnection.HTTP_INTERNAL_ERROR;
+            } finally {
+                // Not sent as the body
+                if (contents != null) {
+                    contents.close();
+                }
             }
         }
-        if (buffer.length > 0) {
+        if (body != null) {
+            HttpHandlerHelper.sendBuffer(he, statCode, body);
+        } else if (buffer.length > 0) {
             header.setContentLength(buffer.length);
             he.sendResponseHeaders(statCode, buffer.length);
             he.getResponseBody().write(buffer);
@@ -147,20 +250,257 @@ public class ResourceHttpHandler extends BaseWebService {
         }
     }
 
-    private byte[] getCacheableContents(URL url) throws IOException {
+    public WebServiceHandler setCacheBytes(long size) {
+        this.cacheBytes = size;
+        return this;
+    }
+
+    public WebServiceHandler setWatch(boolean enable) {
+        this.watch = enable;
+        return this;
+    }
+
+    public WebServiceHandler setWatchInterval(long interval) {
+        this.watchInterval = interval;
+        return this;
+    }
+
+    public WebServiceHandler setLookupSize(int size) {
+        this.lookupSize = size;
+        return this;
+    }
+
+    public WebServiceHandler setLookupTtl(long seconds) {
+        this.lookupTtl = seconds;
+        return this;
+    }
+
+    public WebServiceHandler setNegativeTtl(long seconds) {
+        this.negativeTtl = seconds;
+        return this;
+    }
+
+    public WebServiceHandler setOffHeap(boolean enable) {
+        this.offHeap = enable;
+        return this;
+    }
+
+    /**
+     * @return the contents cache for metrics, null if not cached
+     */
+    public ContentsCache getContentsCache() {
+        return cache != null ? cache.getContentsCache() : null;
+    }
+
+    public WebServiceHandler setStreamThreshold(long size) {
+        this.streamThreshold = size;
+        return this;
+    }
+
+    public WebServiceHandler setCompression(boolean enable) {
+        this.compression = enable;
+        return this;
+    }
+
+    public WebServiceHandler setCompressMinSize(long size) {
+        this.compressMinSize = size;
+        return this;
+    }
+
+    private boolean isCompressible(String file, long size) {
+        return compression && size >= compressMinSize && HttpHandlerHelper.isCompressible(file);
+    }
+
+    /**
+     * The size of resource without reading the contents, -1 if unknown.
+     */
+    private static long resourceLength(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI()).length();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return -1L;
+            }
+        }
+        if ("jar".equals(url.getProtocol())) {
+            // The entry of cached jar file, no stream is opened
+            return url.openConnection().getContentLengthLong();
+        }
+        return -1L;
+    }
+
+    /**
+     * The last modified time of resource in seconds precision of HTTP date,
+     * the start time of handler if unknown.
+     */
+    private long resourceLastModified(URL url) throws IOException {
+        long time = 0L;
+        if ("file".equals(url.getProtocol())) {
+            try {
+                time = new File(url.toURI()).lastModified();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                time = 0L;
+            }
+        } else if ("jar".equals(url.getProtocol())) {
+            // The time of jar entry, set at build
+            final JarEntry entry = ((JarURLConnection) url.openConnection()).getJarEntry();
+            time = (entry != null) ? entry.getTime() : 0L;
+        } else {
+            time = url.openConnection().getLastModified();
+        }
+        if (time <= 0L) {
+            time = lastModified.getTime();
+        }
+        return (time / 1000L) * 1000L;
+    }
+
+    /**
+     * Find a precompressed sibling file (ex. 'app.js.br', 'app.js.gz') acceptable by the client.
+     * @return the sibling file, or the document itself if not found
+     */
+    private File findPrecompressed(RequestHelper request, File doc) {
+        for (String[] variant : PRECOMPRESSED) {
+            if (request.isAcceptEncoding(variant[0])) {
+                File sibling = new File(doc.getPath() + variant[1]);
+                if (sibling.isFile() && sibling.lastModified() >= doc.lastModified()) {
+                    return sibling;
+                }
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Select the encoding compressed on the fly into the cache. Brotli is only served from precompressed files.
+     */
+    private String selectEncoding(RequestHelper request) {
+        if (request.isAcceptEncoding(ContentsCache.GZIP)) {
+            return ContentsCache.GZIP;
+        } else if (request.isAcceptEncoding(ContentsCache.DEFLATE)) {
+            return ContentsCache.DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Cached files have the strong entity tag of contents,
+     * large files or files without cache have a weak one, the contents are not read.
+     */
+    private String getETag(File file, String encoding) throws IOException {
+        if (file.length() > streamThreshold || !getCache().isCached()) {
+            // Not compressed on the fly
+            return HttpHandlerHelper.weakETag(file);
+        }
+        return getCache().getETag(file.toURI().toURL(), encoding);
+    }
+
+    private ContentsCache.Lease getCacheableContents(URL url, String encoding) throws IOException {
+        return getCache().lease(url, encoding);
+    }
+
+    private ContentsCache.Lease getCacheableContents(URL url) throws IOException {
+        return getCache().lease(url, null);
+    }
+
+    private CacheFunction getCache() {
+        CacheFunction function = cache;
+        if (function == null) {
+            function = createCache();
+        }
+        return function;
+    }
+
+    private synchronized CacheFunction createCache() {
         if (cache == null) {
-            if (cacheSize > 0) {
+            CacheFunction function;
+            if (cacheBytes > 0L) {
+                // Cache max bytes, the files over stream threshold are not cached
+                function = new CacheFunction(new ContentsCache(cacheBytes, (int)Math.min(streamThreshold, Integer.MAX_VALUE), offHeap));
+            } else if (cacheSize > 0) {
                 // Cache max files
-                cache = new CacheFunction(cacheSize);
+                function = new CacheFunction(cacheSize);
             } else {
-                cache = new CacheFunction();
+                function = new CacheFunction();
             }
+            final FileWatcher files = getWatcher();
+            if (files != null && function.getContentsCache() != null) {
+                files.listen(path -> function.invalidate(path));
+            }
+            cache = function;
+        }
+        return cache;
+    }
+
+    /**
+     * Watch the file changes under the mapped directories to invalidate the cached contents and lookups.
+     * @return null if not watched
+     */
+    private synchronized FileWatcher getWatcher() {
+        if (!watch || internal) {
+            return null;
+        }
+        if (watcher == null) {
+            watcher = new FileWatcher(watchInterval > 0L, watchInterval > 0L ? watchInterval : FileWatcher.DEFAULT_INTERVAL);
+            for (String root : getResources().values()) {
+                try {
+                    watcher.watch(Paths.get(root));
+                } catch (IOException e) {
+                    LOGGER.warning(String.format("[WEB] Can not watch the changes of '%s' : %s", root, e.getMessage()));
+                }
+            }
+        }
+        return watcher;
+    }
+
+    private synchronized LookupCache<File> createLocalLookup() {
+        if (localLookup == null) {
+            final LookupCache<File> lookup = new LookupCache<>(uri -> resolveLocalFile(uri),
+                    lookupSize, lookupTtl * 1000L, negativeTtl * 1000L);
+            final FileWatcher files = getWatcher();
+            if (files != null) {
+                files.listen(path -> lookup.invalidate(file -> file.toPath().toAbsolutePath().normalize().startsWith(path)));
+            }
+            localLookup = lookup;
+        }
+        return localLookup;
+    }
+
+    private synchronized LookupCache<URL> createResourceLookup() {
+        if (resourceLookup == null) {
+            resourceLookup = new LookupCache<>(uri -> resolveResource(uri),
+                    lookupSize, lookupTtl * 1000L, negativeTtl * 1000L);
+        }
+        return resourceLookup;
+    }
+
+    /**
+     * @return the lookup cache of resolved URI for metrics, null if not used
+     */
+    public LookupCache<?> getLookupCache() {
+        return internal ? resourceLookup : localLookup;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
         }
-        return cache.apply(url);
     }
 
 
     File findLocalFile(String uri) {
+        if (lookupSize <= 0) {
+            return resolveLocalFile(uri);
+        }
+        LookupCache<File> lookup = localLookup;
+        if (lookup == null) {
+            lookup = createLocalLookup();
+        }
+        return lookup.get(uri);
+    }
+
+    private File resolveLocalFile(String uri) {
         int pos = uri.indexOf("/", 1);
         final Map<String, String> mapping = getResources();
         String path = mapping.get("/");
@@ -208,6 +548,17 @@ public class ResourceHttpHandler extends BaseWebService {
     }
 
     URL findResouce(String uri) {
+        if (lookupSize <= 0) {
+            return resolveResource(uri);
+        }
+        LookupCache<URL> lookup = resourceLookup;
+        if (lookup == null) {
+            lookup = createResourceLookup();
+        }
+        return lookup.get(uri);
+    }
+
+    private URL resolveResource(String uri) {
         int pos = uri.indexOf("/", 1);
         final Map<String, String> mapping = getResources();
         String path = mapping.get("/");
@@ -45,9 +45,12 @@ public final class ResponseHeaderHelper implements Constants {
         return this;
     }
 
+    /**
+     * The 'Connection' header already set (ex. by {@link KeepAliveFilter}) is kept.
+     */
     public ResponseHeaderHelper keepAlive(boolean keep) {
-        if (keep) {
-            headers.add(HEADER_CONNECTION, "keep-alive");
+        if (keep && !headers.containsKey(HEADER_CONNECTION)) {
+            headers.add(HEADER_CONNECTION, "Keep-Alive");
         }
         return this;
     }
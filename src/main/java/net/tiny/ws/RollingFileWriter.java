@@ -0,0 +1,294 @@
+package net.tiny.ws;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A log file writer rolled over by size and/or day.
+ * The rollover is checked on flush, so a line is never split into two files.
+ * The current file is renamed atomically to 'name.yyyy-MM-dd[.n]' while open and a new file is opened,
+ * the close and the gzip of the rolled file and the deletion of old files over the history run on a background thread.
+ * Where an open file can not be renamed (Windows), the file is closed before renamed by the writing thread.
+ */
+public class RollingFileWriter extends Writer {
+
+    private static final Logger LOGGER = Logger.getLogger(RollingFileWriter.class.getName());
+
+    static final String GZ = ".gz";
+
+    private static final ExecutorService ARCHIVER = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "log-archiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path file;
+    private final long maxSize;
+    private final boolean daily;
+    private final boolean compress;
+    private final int maxHistory;
+    private final Charset charset;
+    private Writer writer;
+    private long size;
+    private long opened;
+    private long nextRollover;
+
+    /**
+     * @param file the log file
+     * @param maxSize roll over when the file is larger than the bytes, 0 or less is no limit
+     * @param daily roll over at midnight
+     * @param compress gzip the rolled files
+     * @param maxHistory the number of rolled files kept, 0 or less keeps all
+     */
+    public RollingFileWriter(Path file, long maxSize, boolean daily, boolean compress, int maxHistory) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.maxSize = maxSize;
+        this.daily = daily;
+        this.compress = compress;
+        this.maxHistory = maxHistory;
+        this.charset = Charset.defaultCharset();
+        open();
+    }
+
+    /**
+     * Open a log file, rolled over if the max size or daily is set.
+     * @param append append to the existing file, a rolling file is always appended
+     */
+    public static Writer open(File file, boolean append, long maxSize, boolean daily, boolean compress, int maxHistory)
+            throws IOException {
+        if (maxSize > 0L || daily) {
+            return new RollingFileWriter(file.toPath(), maxSize, daily, compress, maxHistory);
+        }
+        return new FileWriter(file, append);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    private void open() throws IOException {
+        final Path dir = file.getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        final OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(file);
+        writer = new OutputStreamWriter(new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                size++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                size += len;
+            }
+        }, charset);
+        opened = System.currentTimeMillis();
+        nextRollover = daily ? nextMidnight(opened) : Long.MAX_VALUE;
+    }
+
+    static long nextMidnight(long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            writer.write(cbuf, off, len);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            writer.write(str, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            writer.flush();
+            if (isRollover()) {
+                rollover();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (writer == null) {
+            throw new IOException("Log file closed : " + file);
+        }
+    }
+
+    private boolean isRollover() {
+        return (maxSize > 0L && size >= maxSize)
+                || (daily && System.currentTimeMillis() >= nextRollover);
+    }
+
+    /**
+     * Rename the current file and open a new file, the rolled file is closed by the archiver.
+     */
+    void rollover() throws IOException {
+        synchronized (lock) {
+            final Writer old = writer;
+            old.flush();
+            final Path rolled = rolledFile();
+            Writer rolledWriter = old;
+            try {
+                try {
+                    move(file, rolled);
+                } catch (FileSystemException ex) {
+                    // The open file is locked, closed before renamed
+                    rolledWriter = null;
+                    old.close();
+                    move(file, rolled);
+                }
+            } catch (IOException ex) {
+                if (rolledWriter == null) {
+                    open();
+                }
+                throw ex;
+            }
+            open();
+            LOGGER.fine(String.format("[LOG] Rolled over '%s' to '%s'", file, rolled.getFileName()));
+            final Writer closing = rolledWriter;
+            ARCHIVER.execute(() -> {
+                if (closing != null) {
+                    try {
+                        closing.close();
+                    } catch (IOException ex) {
+                        LOGGER.warning(String.format("[LOG] Close '%s' error : %s", rolled, ex.getMessage()));
+                    }
+                }
+                archive(rolled);
+            });
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target);
+        }
+    }
+
+    private Path rolledFile() {
+        final String name = file.getFileName().toString() + "." + new SimpleDateFormat("yyyy-MM-dd").format(new Date(opened));
+        Path rolled = file.resolveSibling(name);
+        int index = 1;
+        while (Files.exists(rolled) || Files.exists(rolled.resolveSibling(rolled.getFileName() + GZ))) {
+            rolled = file.resolveSibling(name + "." + index++);
+        }
+        return rolled;
+    }
+
+    private void archive(Path rolled) {
+        try {
+            if (compress) {
+                gzip(rolled);
+            }
+            if (maxHistory > 0) {
+                purge();
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, String.format("[LOG] Archive '%s' error : %s", rolled, ex.getMessage()), ex);
+        }
+    }
+
+    private static void gzip(Path rolled) throws IOException {
+        final Path gz = rolled.resolveSibling(rolled.getFileName() + GZ);
+        final Path tmp = rolled.resolveSibling(rolled.getFileName() + GZ + ".tmp");
+        try (InputStream in = Files.newInputStream(rolled);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+            final byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        }
+        move(tmp, gz);
+        Files.delete(rolled);
+    }
+
+    /**
+     * Delete the oldest rolled files over the max history.
+     */
+    private void purge() throws IOException {
+        final List<Path> rolled = listRolledFiles();
+        if (rolled.size() <= maxHistory) {
+            return;
+        }
+        rolled.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+        for (int i = 0; i < rolled.size() - maxHistory; i++) {
+            Files.deleteIfExists(rolled.get(i));
+        }
+    }
+
+    List<Path> listRolledFiles() throws IOException {
+        final String prefix = file.getFileName().toString() + ".";
+        final List<Path> list = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), prefix + "*")) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().endsWith(".tmp")) {
+                    list.add(path);
+                }
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s {file:'%s', size:%d, maxSize:%d, daily:%s}",
+                getClass().getSimpleName(), file, size, maxSize, daily);
+    }
+}
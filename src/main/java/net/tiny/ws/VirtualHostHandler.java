@@ -4,9 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -16,18 +18,26 @@ import java.util.regex.Pattern;
 import com.sun.net.httpserver.HttpExchange;
 
 import net.tiny.ws.cache.CacheFunction;
+import net.tiny.ws.cache.ContentsCache;
+import net.tiny.ws.cache.FileWatcher;
 
 /**
  * HTTP (HyperText Transfer Protocol) VirtualHost Handler
  */
-public class VirtualHostHandler extends BaseWebService {
+public class VirtualHostHandler extends BaseWebService implements AutoCloseable {
 
     final static String RELATIVE_PATH_REGEX = "[/]*[.][.]/.*";
     private List<VirtualHost> hosts = new ArrayList<>();
     private Map<String, String> mapping = null;
-    private CacheFunction cache = null;
+    private volatile CacheFunction cache = null;
+    private FileWatcher watcher = null;
     private int cacheSize = -1;
+    private long cacheBytes = -1L; //Max total bytes of cache, larger than 0 takes precedence over cacheSize
+    private boolean offHeap = false; //Store the contents of cacheBytes in direct buffers
+    private boolean watch = true; //Invalidate the cached contents of changed files
+    private long watchInterval = -1L; //Poll the file changes every interval(ms), -1 is native file system events
     private long maxAge = 86400L; //1 day
+    private long streamThreshold = 1048576L; //1MB, larger files are streamed without cache
     private String serverName = DEFALUT_SERVER_NAME;
     private boolean verbose = true;
 
@@ -44,11 +54,14 @@ public class VirtualHostHandler extends BaseWebService {
         final String host = request.getHeader("Host");
         final File doc = findLocalFile(host, uri);
         final boolean unmodify = doc != null ? request.isNotModified(doc) : false;
-        sendLocalFile(he, doc, unmodify);
+        sendLocalFile(he, request, doc, unmodify);
      }
 
-    private void sendLocalFile(HttpExchange he, File doc, boolean unmodify) throws IOException {
-        byte[] buffer;
+    private void sendLocalFile(HttpExchange he, RequestHelper request, File doc, boolean unmodify) throws IOException {
+        byte[] buffer = null;
+        ContentsCache.Lease contents = null;
+        FileChannel channel = null;
+        List<HttpRange> ranges = null;
         final ResponseHeaderHelper header = HttpHandlerHelper.getHeaderHelper(he);
         int statCode = HttpURLConnection.HTTP_OK;
         if (doc == null || !doc.exists() || !doc.isFile()) {
@@ -57,20 +70,35 @@ public class VirtualHostHandler extends BaseWebService {
             statCode = HttpURLConnection.HTTP_NOT_FOUND;
         } else {
             try {
-                if (unmodify) {
+                final String etag = getETag(doc);
+                header.set(HEADER_ETAG, etag);
+                if (unmodify || request.isNotModified(etag)) {
                     buffer = new byte[0];
                     header.set("Server", serverName);
-                    header.set("Connection", "Keep-Alive");
+                    header.keepAlive(true);
                     statCode = HttpURLConnection.HTTP_NOT_MODIFIED;
                 } else {
                     header.setContentType(doc.getAbsolutePath());
                     header.setLastModified(doc);
                     header.set("Server", serverName);
-                    header.set("Connection", "Keep-Alive");
-                    header.set("Keep-Alive", "timeout=10, max=1000");
+                    header.keepAlive(true);
                     header.set("Cache-Control", "max-age=" + maxAge); //"max-age=0" 86400:1 day
-                    buffer = getCacheableContents(doc.toURI().toURL());
+                    header.set(HEADER_ACCEPT_RANGES, "bytes");
+                    if (request.isRangeMatched(doc.lastModified(), etag)) {
+                        ranges = request.getRanges(doc.length());
+                    }
                     statCode = HttpURLConnection.HTTP_OK;
+                    if (ranges != null && ranges.isEmpty()) {
+                        // Not satisfiable range
+                        buffer = new byte[0];
+                        header.set(HEADER_CONTENT_RANGE, "bytes */" + doc.length());
+                        statCode = HTTP_RANGE_NOT_SATISFIABLE;
+                    } else if (ranges != null || doc.length() > streamThreshold) {
+                        // Partial or large contents are read from file directly
+                        channel = FileChannel.open(doc.toPath(), StandardOpenOption.READ);
+                    } else {
+                        contents = getCacheableContents(doc.toURI().toURL());
+                    }
                 }
             } catch (IOException e) {
                 header.setContentType(MIME_TYPE.HTML);
@@ -78,7 +106,13 @@ public class VirtualHostHandler extends BaseWebService {
                 statCode = HttpURLConnection.HTTP_INTERNAL_ERROR;
             }
         }
-        if (buffer.length > 0) {
+        if (channel != null && ranges != null) {
+            HttpHandlerHelper.sendRanges(he, channel, ranges);
+        } else if (channel != null) {
+            HttpHandlerHelper.sendFile(he, statCode, channel);
+        } else if (contents != null) {
+            HttpHandlerHelper.sendBuffer(he, statCode, contents);
+        } else if (buffer.length > 0) {
             header.setContentLength(buffer.length);
             he.sendResponseHeaders(statCode, buffer.length);
             he.getResponseBody().write(buffer);
@@ -87,16 +121,103 @@ public class VirtualHostHandler extends BaseWebService {
         }
     }
 
-    private byte[] getCacheableContents(URL url) throws IOException {
+    public WebServiceHandler setCacheBytes(long size) {
+        this.cacheBytes = size;
+        return this;
+    }
+
+    public WebServiceHandler setWatch(boolean enable) {
+        this.watch = enable;
+        return this;
+    }
+
+    public WebServiceHandler setWatchInterval(long interval) {
+        this.watchInterval = interval;
+        return this;
+    }
+
+    public WebServiceHandler setOffHeap(boolean enable) {
+        this.offHeap = enable;
+        return this;
+    }
+
+    /**
+     * @return the contents cache for metrics, null if not cached
+     */
+    public ContentsCache getContentsCache() {
+        return cache != null ? cache.getContentsCache() : null;
+    }
+
+    public WebServiceHandler setStreamThreshold(long size) {
+        this.streamThreshold = size;
+        return this;
+    }
+
+    /**
+     * Cached files have the strong entity tag of contents,
+     * large files or files without cache have a weak one, the contents are not read.
+     */
+    private String getETag(File file) throws IOException {
+        if (file.length() > streamThreshold || !getCache().isCached()) {
+            return HttpHandlerHelper.weakETag(file);
+        }
+        return getCache().getETag(file.toURI().toURL(), null);
+    }
+
+    private ContentsCache.Lease getCacheableContents(URL url) throws IOException {
+        return getCache().lease(url, null);
+    }
+
+    private CacheFunction getCache() {
+        CacheFunction function = cache;
+        if (function == null) {
+            function = createCache();
+        }
+        return function;
+    }
+
+    private synchronized CacheFunction createCache() {
         if (cache == null) {
-            if (cacheSize > 0) {
+            CacheFunction function;
+            if (cacheBytes > 0L) {
+                // Cache max bytes, the files over stream threshold are not cached
+                function = new CacheFunction(new ContentsCache(cacheBytes, (int)Math.min(streamThreshold, Integer.MAX_VALUE), offHeap));
+            } else if (cacheSize > 0) {
                 // Cache max files
-                cache = new CacheFunction(cacheSize);
+                function = new CacheFunction(cacheSize);
             } else {
-                cache = new CacheFunction();
+                function = new CacheFunction();
             }
+            watchFiles(function);
+            cache = function;
+        }
+        return cache;
+    }
+
+    /**
+     * Watch the file changes under the mapped directories to invalidate the cached contents.
+     */
+    private void watchFiles(CacheFunction function) {
+        if (!watch || mapping == null || function.getContentsCache() == null) {
+            return;
+        }
+        watcher = new FileWatcher(watchInterval > 0L, watchInterval > 0L ? watchInterval : FileWatcher.DEFAULT_INTERVAL);
+        watcher.listen(path -> function.invalidate(path));
+        for (String root : mapping.values()) {
+            try {
+                watcher.watch(Paths.get(root));
+            } catch (IOException e) {
+                LOGGER.warning(String.format("[WEB] Can not watch the changes of '%s' : %s", root, e.getMessage()));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
         }
-        return cache.apply(url);
     }
 
     String findVirtualHost(String virtual) {
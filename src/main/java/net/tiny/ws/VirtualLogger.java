@@ -2,32 +2,32 @@ package net.tiny.ws;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.sun.net.httpserver.Filter;
-import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpPrincipal;
 
 /**
  * Access log format
  * @see https://qiita.com/ryounagaoka/items/e7782ab29ff9fbe8f891
  *
+ * With the async mode, the records of all virtual hosts go through one background dispatcher,
+ * it writes a batch per log file and keeps only the recently used files open.
  */
-public class VirtualLogger extends Filter {
+public class VirtualLogger extends Filter implements AutoCloseable {
 
     private static final Logger LOGGER = Logger.getLogger(VirtualLogger.class.getName());
 
@@ -53,9 +53,6 @@ public class VirtualLogger extends Filter {
     private static final String[] PATTERN_KEYS = new String[] {
         "%h", "%l", "%u", "%t", "%T", "%r", "%>s", "%b", "%{Referer}i", "%{User-agent}i" };
 
-    private static	final SimpleDateFormat DATE_FORMAT =
-            new SimpleDateFormat("d/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
-
 
     private static String COMMON_PATTERN = null;
     private static String COMBINED_PATTERN = null;
@@ -88,8 +85,35 @@ public class VirtualLogger extends Filter {
 
     private Format format = Format.COMBINED;
     private String formatPattern = combined();
+    private volatile AccessLogFormat compiled = AccessLogFormat.compile(formatPattern);
     private List<VirtualHost> hosts = new ArrayList<>();
     private Map<String, PrintWriter> writers = null;
+    private long maxFileSize = -1L; //Roll over the log files larger than the bytes, -1 is no limit
+    private boolean daily = false; //Roll over the log files at midnight
+    private boolean compress = false; //Gzip the rolled log files
+    private int maxHistory = 7; //The number of rolled log files kept
+    private boolean async = false;
+    private int maxOpenFiles = 64; //The max number of log files kept open by the async dispatcher
+    private int queueSize = AsyncLogWriter.DEFAULT_QUEUE_SIZE;
+    private int batchSize = AsyncLogWriter.DEFAULT_BATCH_SIZE;
+    private long flushInterval = AsyncLogWriter.DEFAULT_FLUSH_INTERVAL;
+    private AsyncLogWriter.Overflow overflow = AsyncLogWriter.Overflow.DROP;
+    private volatile AsyncLogWriter<AccessRecord> dispatcher = null;
+    // The log files of virtual hosts, not includes console
+    private Map<String, File> files = new HashMap<>();
+    // The LRU of open log files, used only by the dispatcher
+    private final Map<File, Writer> openFiles = new LinkedHashMap<File, Writer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Writer> eldest) {
+            if (size() > maxOpenFiles) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
     //private String out = null;
     //private PrintWriter writer;
 
@@ -99,9 +123,12 @@ public class VirtualLogger extends Filter {
         if(null != chain) {
             chain.doFilter(exchange);
         }
-        String log = format(exchange, formatPattern, (System.currentTimeMillis()-start));
-        final String host = exchange.getRequestHeaders().getFirst("Host");
-        writeAccessLog(host, log);
+        final AccessRecord record = AccessRecord.of(exchange, start);
+        if (async) {
+            getDispatcher().offer(record);
+        } else {
+            writeAccessLog(record.host, compiled.format(record));
+        }
     }
 
     @Override
@@ -124,11 +151,147 @@ public class VirtualLogger extends Filter {
         writer.flush();
     }
 
+    private AsyncLogWriter<AccessRecord> getDispatcher() {
+        AsyncLogWriter<AccessRecord> d = dispatcher;
+        if (d == null) {
+            synchronized (this) {
+                if (dispatcher == null) {
+                    dispatcher = new AsyncLogWriter<>(this::dispatch,
+                            queueSize, batchSize, flushInterval, overflow);
+                }
+                d = dispatcher;
+            }
+        }
+        return d;
+    }
+
+    private File findAccessFile(String virtual) {
+        File file = files.get(virtual);
+        if (file == null) {
+            // Find host name without port
+            file = files.get(virtual.split(":")[0]);
+        }
+        return file;
+    }
+
+    /**
+     * Group a batch of records by the log files on the dispatcher, write and flush a group at once.
+     */
+    void dispatch(List<AccessRecord> records) throws IOException {
+        final AccessLogFormat lineFormat = compiled;
+        final String separator = System.lineSeparator();
+        final Map<File, StringBuilder> groups = new LinkedHashMap<>();
+        final Set<PrintWriter> consoles = new HashSet<>();
+        for (AccessRecord record : records) {
+            if (record.host == null) {
+                continue;
+            }
+            final File file = findAccessFile(record.host);
+            if (file != null) {
+                final StringBuilder group = groups.computeIfAbsent(file, f -> new StringBuilder(256));
+                lineFormat.format(record, group);
+                group.append(separator);
+            } else {
+                final PrintWriter writer = findAccessWriter(record.host);
+                if (writer != null) {
+                    writer.println(lineFormat.format(record));
+                    consoles.add(writer);
+                }
+            }
+        }
+        for (Map.Entry<File, StringBuilder> group : groups.entrySet()) {
+            final Writer writer = openFile(group.getKey());
+            try {
+                writer.append(group.getValue());
+                writer.flush();
+            } catch (IOException ex) {
+                // Reopen at next batch
+                closeQuietly(openFiles.remove(group.getKey()));
+                throw ex;
+            }
+        }
+        for (PrintWriter writer : consoles) {
+            writer.flush();
+        }
+    }
+
+    private Writer openFile(File file) throws IOException {
+        Writer writer = openFiles.get(file);
+        if (writer == null) {
+            writer = RollingFileWriter.open(file, true, maxFileSize, daily, compress, maxHistory);
+            openFiles.put(file, writer);
+        }
+        return writer;
+    }
+
+    private static void closeQuietly(Writer writer) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, ex.getMessage(), ex);
+        }
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+        reopen();
+    }
+
+    public void setMaxOpenFiles(int max) {
+        this.maxOpenFiles = max;
+    }
+
+    public void setQueueSize(int size) {
+        this.queueSize = size;
+    }
+
+    public void setBatchSize(int size) {
+        this.batchSize = size;
+    }
+
+    public void setFlushInterval(long interval) {
+        this.flushInterval = interval;
+    }
+
+    /**
+     * @param policy 'drop' the records over the queue size, or 'block' the request threads
+     */
+    public void setOverflow(String policy) {
+        this.overflow = AsyncLogWriter.Overflow.valueOf(policy.toUpperCase());
+    }
+
+    /**
+     * @return the number of records dropped by the async dispatcher
+     */
+    public long getDropCount() {
+        final AsyncLogWriter<AccessRecord> d = dispatcher;
+        return (d != null) ? d.getDropCount() : 0L;
+    }
+
+    /**
+     * @return the number of log files opened by the async dispatcher
+     */
+    int getOpenFiles() {
+        return openFiles.size();
+    }
+
     public String getFormatPattern() {
         return formatPattern;
     }
+    /**
+     * @param pattern the indexed pattern (ex. '{0} {1} {2}'), or the log format (ex. '%h %l %u')
+     */
     public void setFormatPattern(String pattern) {
-        this.formatPattern = pattern;
+        final String indexed = getPattern(pattern);
+        this.compiled = AccessLogFormat.compile(indexed);
+        this.formatPattern = indexed;
     }
 
     public String getFormat() {
@@ -148,45 +311,37 @@ public class VirtualLogger extends Filter {
     }
 
     String formatDate(Date date) {
-        synchronized(DATE_FORMAT) {
-            return DATE_FORMAT.format(date);
-        }
-    }
-
-    private String format(HttpExchange exchange, String formatPattern, long time) {
-        final String remote = exchange.getRemoteAddress().getAddress().getHostAddress();
-        String identity = "-";
-        String username = "-";
-        final HttpPrincipal principal = exchange.getPrincipal();
-        if (principal!=null) {
-            username = principal.getUsername();
-        }
-        final String date = formatDate(Calendar.getInstance().getTime());
-        final String request = exchange.getRequestMethod() + " "
-                + exchange.getRequestURI() + " "
-                + exchange.getProtocol();
-        final String code = Integer.toString(exchange.getResponseCode());
-        String size = exchange.getResponseHeaders().getFirst("Content-length");
-        if(size == null) {
-            size = "0";
-        }
-
-        final Headers headers = exchange.getRequestHeaders();
-        final String agent = headers.getFirst("User-agent");
-        String referer = headers.getFirst("Referer");
-        if(null == referer) {
-            referer = "";
-        }
-        String timeTaken = String.format("%.3f", ((float)time/1000f));
-        return MessageFormat.format(formatPattern,
-                remote, identity, username, date, timeTaken, request, code, size, referer, agent);
+        return AccessLogFormat.formatDate(date.getTime());
     }
 
     public void setHosts(List<VirtualHost> virtuals) {
         this.hosts = virtuals;
         this.writers = new HashMap<>();
+        this.files = new HashMap<>();
         for (VirtualHost virtual : hosts) {
-            this.writers.put(virtual.domain(), createWriter(virtual));
+            final File file = logFile(virtual);
+            if (file != null) {
+                this.files.put(virtual.domain(), file);
+            }
+            // The async dispatcher opens the log files on demand
+            if (!async || file == null) {
+                this.writers.put(virtual.domain(), createWriter(virtual));
+            }
+        }
+    }
+
+    /**
+     * @return null if the log is output to console
+     */
+    private static File logFile(VirtualHost virtual) {
+        final String out = virtual.log();
+        if (isConsole(out)) {
+            return null;
+        }
+        if (out.indexOf("/") == -1) {
+            return new File(virtual.home(), out);
+        } else {
+            return new File(out);
         }
     }
 
@@ -203,14 +358,10 @@ public class VirtualLogger extends Filter {
             LOGGER.info(String.format("[WEB] Virtual '%s' access log output console '%s'.", virtual.domain(), out));
             break;
         default:
-            File file = null;
-            if (out.indexOf("/") == -1) {
-                file = new File(virtual.home(), out);
-            } else {
-                file = new File(out);
-            }
+            final File file = logFile(virtual);
             try {
-                writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+                writer = new PrintWriter(new BufferedWriter(
+                        RollingFileWriter.open(file, false, maxFileSize, daily, compress, maxHistory)));
                 LOGGER.info(String.format("[WEB] Virtual '%s' access log file '%s'.", virtual.domain(), file.getAbsolutePath()));
             } catch (IOException ex) {
                 writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
@@ -221,6 +372,46 @@ public class VirtualLogger extends Filter {
         return writer;
     }
 
+    private static boolean isConsole(String out) {
+        return "stdout".equals(out) || "stderr".equals(out);
+    }
+
+    /**
+     * Reopen the log files with the changed options.
+     */
+    private void reopen() {
+        if (writers == null) {
+            return;
+        }
+        for (String domain : files.keySet()) {
+            final PrintWriter writer = writers.remove(domain);
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        setHosts(hosts);
+    }
+
+    public void setMaxFileSize(long size) {
+        this.maxFileSize = size;
+        reopen();
+    }
+
+    public void setDaily(boolean daily) {
+        this.daily = daily;
+        reopen();
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+        reopen();
+    }
+
+    public void setMaxHistory(int history) {
+        this.maxHistory = history;
+        reopen();
+    }
+
     void closeAll() {
         for (PrintWriter writer : writers.values()) {
             writer.close();
@@ -228,8 +419,29 @@ public class VirtualLogger extends Filter {
         writers.clear();
     }
 
+    /**
+     * Write all queued records and close the log files opened by the async dispatcher.
+     */
+    @Override
+    public synchronized void close() {
+        if (null != dispatcher) {
+            dispatcher.close();
+            dispatcher = null;
+        }
+        for (Writer writer : openFiles.values()) {
+            closeQuietly(writer);
+        }
+        openFiles.clear();
+        if (null != writers) {
+            for (PrintWriter writer : writers.values()) {
+                writer.flush();
+            }
+        }
+    }
+
     @Override
     protected void finalize() throws Throwable {
+        close();
         closeAll();
     }
 }
@@ -154,4 +154,20 @@ public class Cache<K, V> {
         }
     }
 
+    static class LruCache5<K, V> implements Calculator<K, V> {
+        private ConcurrentCache<K, V> cache;
+
+        LruCache5(int capacity, Function<K, V> initializer) {
+            this.cache = new ConcurrentCache<>(key -> initializer.apply(key), capacity);
+        }
+
+        @Override
+        public V get(K key) {
+            try{
+                return cache.get(key);
+            } catch(Throwable throwable) {
+                throw new RuntimeException(throwable);
+            }
+        }
+    }
 }
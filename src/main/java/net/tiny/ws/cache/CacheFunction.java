@@ -1,7 +1,10 @@
 package net.tiny.ws.cache;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -25,6 +28,32 @@ public class CacheFunction implements Function<URL,byte[]> {
         cache = cc;
     }
 
+    public ContentsCache getContentsCache() {
+        return cache;
+    }
+
+    public boolean isCached() {
+        return cache != null;
+    }
+
+    /**
+     * Remove the cached contents of the changed file or directory.
+     */
+    public void invalidate(Path path) {
+        if (cache == null) {
+            return;
+        }
+        try {
+            int count = cache.invalidate(path.toFile().toURI().toURL());
+            if (count > 0 && LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(String.format("%s : Invalidate %d contents of '%s'.",
+                    getClass().getSimpleName(), count, path.toString()));
+            }
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
     public void setSize(int n) {
         size = n;
         if(size > 0) {
@@ -34,6 +63,57 @@ public class CacheFunction implements Function<URL,byte[]> {
         }
     }
 
+    /**
+     * Get the contents compressed by the encoding.
+     * Without cache, the contents are compressed each time, the handlers do not compress on the fly then.
+     */
+    public byte[] apply(URL url, String encoding) {
+        if (null == encoding) {
+            return apply(url);
+        }
+        try {
+            if (cache != null) {
+                return cache.get(url, encoding);
+            } else {
+                return ContentsCache.compress(ContentsCache.readAllBytes(url), encoding);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Read %s contents from '%s' error.", encoding, url.toString()));
+        }
+    }
+
+    /**
+     * Lease the contents as a buffer, the off-heap cached contents are not copied into heap.
+     * The lease must be closed after the buffer was sent.
+     */
+    public ContentsCache.Lease lease(URL url, String encoding) {
+        if (cache == null) {
+            return ContentsCache.Lease.of(ByteBuffer.wrap(apply(url, encoding)));
+        }
+        try {
+            return cache.lease(url, encoding);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Read contents from '%s' error.", url.toString()));
+        }
+    }
+
+    /**
+     * Get the strong entity tag of the contents.
+     * Without cache, the contents are read and digested each time,
+     * the handlers use a weak entity tag instead.
+     */
+    public String getETag(URL url, String encoding) {
+        try {
+            if (cache != null) {
+                return cache.getETag(url, encoding);
+            } else {
+                return ContentsCache.etag(ContentsCache.etag(ContentsCache.readAllBytes(url)), encoding);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Read contents from '%s' error.", url.toString()));
+        }
+    }
+
     @Override
     public byte[] apply(URL url) {
         try {
@@ -0,0 +1,389 @@
+package net.tiny.ws.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+import net.tiny.ws.cache.BarakbCache.ExceptionStrategies;
+import net.tiny.ws.cache.BarakbCache.ExceptionStrategy;
+
+/**
+ * A concurrent replacement of {@link BarakbCache}.
+ * The value of a key is computed once, the threads getting the same key wait for the same future.
+ * A hit takes no lock, it only stamps the logical access time of the entry.
+ * Over the capacity, the least recently used entry of a few sampled entries is evicted (approximate LRU).
+ * With a {@link Weigher}, the capacity is the total weight of values (ex. bytes),
+ * and a value heavier than the max entry weight is returned but not retained.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ConcurrentCache<K, V> {
+
+    /** The number of entries sampled to find a victim */
+    static final int SAMPLES = 8;
+
+    static final class Node<K, V> extends SoftReference<Future<V>> {
+        static final int UNWEIGHED = -1;
+        static final int RETIRED = -2;
+
+        final K key;
+        // Racy stamp, a lost update only makes the eviction less accurate
+        long accessed;
+        // Guarded by this node
+        private int weight = UNWEIGHED;
+
+        Node(K key, Future<V> future, ReferenceQueue<Future<V>> queue, long tick) {
+            super(future, queue);
+            this.key = key;
+            this.accessed = tick;
+        }
+
+        /** @return false if the node was removed before weighed */
+        synchronized boolean weighed(int w) {
+            if (weight == RETIRED) {
+                return false;
+            }
+            weight = w;
+            return true;
+        }
+
+        /** @return the weight counted in the cache */
+        synchronized int retire() {
+            final int w = weight;
+            weight = RETIRED;
+            return Math.max(w, 0);
+        }
+    }
+
+    final class WeighedTask extends FutureTask<V> {
+        Node<K, V> node;
+
+        WeighedTask(K key) {
+            super(() -> compute.get(key));
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                final int w = weigher.weigh(node.key, get());
+                if (w > maxEntryWeight) {
+                    // Too heavy to retain, the waiting threads still get the value
+                    if (map.remove(node.key, node)) {
+                        node.retire();
+                    }
+                } else if (node.weighed(w)) {
+                    weight.addAndGet(w);
+                    evict();
+                }
+            } catch (InterruptedException | ExecutionException ex) {
+                // The exception is handled by ExceptionStrategy
+            }
+        }
+    }
+
+    private final int capacity;
+    private final Weigher<K, V> weigher;
+    private final long maxWeight;
+    private final int maxEntryWeight;
+    private final AtomicLong weight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Calculator<K, V> compute;
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final Executor executor;
+    private final ReferenceQueue<Future<V>> referenceQueue = new ReferenceQueue<Future<V>>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Logical clock advanced by every miss, hits between misses share the same tick
+    private final AtomicLong clock = new AtomicLong();
+    // The clock hand of sampling, guarded by evictionLock
+    private Iterator<Node<K, V>> hand;
+    private volatile ExceptionStrategy<K> exceptionStrategy;
+    private volatile BiConsumer<K, V> removalListener;
+
+    public ConcurrentCache(Calculator<K, V> compute, int capacity) {
+        this(compute, Runnable::run, capacity);
+    }
+
+    /**
+     * @param compute  procedure to compute the value
+     * @param executor the executor to compute the value, the direct executor runs on the calling thread
+     * @param capacity the size of the cache.
+     */
+    public ConcurrentCache(Calculator<K, V> compute, Executor executor, int capacity) {
+        this(compute, executor, capacity, null, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a cache bounded by the total weight of values.
+     *
+     * @param compute  procedure to compute the value
+     * @param weigher  the weigher of values
+     * @param maxWeight the max total weight of the cache
+     * @param maxEntryWeight the max weight of a value retained in the cache
+     */
+    public ConcurrentCache(Calculator<K, V> compute, Weigher<K, V> weigher, long maxWeight, int maxEntryWeight) {
+        this(compute, Runnable::run, Integer.MAX_VALUE, weigher, maxWeight, maxEntryWeight);
+    }
+
+    ConcurrentCache(Calculator<K, V> compute, Executor executor, int capacity,
+            Weigher<K, V> weigher, long maxWeight, int maxEntryWeight) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive : " + capacity);
+        }
+        if (maxWeight <= 0L || maxEntryWeight <= 0) {
+            throw new IllegalArgumentException("Cache max weight must be positive : " + maxWeight + "," + maxEntryWeight);
+        }
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+        this.maxEntryWeight = maxEntryWeight;
+        this.exceptionStrategy = ExceptionStrategies.alwaysRetain();
+        this.compute = compute;
+        this.map = new ConcurrentHashMap<>(Math.min(capacity, 1024));
+        this.executor = executor;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long weight() {
+        return weight.get();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public void remove(K key) {
+        final Node<K, V> node = map.remove(key);
+        if (node != null) {
+            weight.addAndGet(-node.retire());
+        }
+    }
+
+    /**
+     * Remove all entries of the keys matched by the filter.
+     * @return the number of removed entries
+     */
+    public int removeIf(Predicate<K> filter) {
+        return removeIf((key, value) -> filter.test(key));
+    }
+
+    /**
+     * Remove all entries matched by the filter.
+     * The value of an entry not computed yet or failed is null.
+     * @return the number of removed entries
+     */
+    public int removeIf(BiPredicate<K, V> filter) {
+        int count = 0;
+        for (Node<K, V> node : map.values()) {
+            if (filter.test(node.key, valueOf(node)) && discard(node)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private V valueOf(Node<K, V> node) {
+        final Future<V> future = node.get();
+        if (future == null || !future.isDone()) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException | CancellationException ex) {
+            return null;
+        }
+    }
+
+    public void clear() {
+        processQueue();
+        for (Node<K, V> node : map.values()) {
+            discard(node);
+        }
+    }
+
+    private boolean discard(Node<K, V> node) {
+        if (map.remove(node.key, node)) {
+            weight.addAndGet(-node.retire());
+            final BiConsumer<K, V> listener = removalListener;
+            if (listener != null) {
+                final V value = valueOf(node);
+                if (value != null) {
+                    listener.accept(node.key, value);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public V get(final K key) throws Throwable {
+        try {
+            return getTask(key).get();
+        } catch (ExecutionException e) {
+            if (exceptionStrategy.removeEntry(key, e.getCause())) {
+                // Removing entry from cache for the key, because of some exception.
+                remove(key);
+            }
+            throw e.getCause();
+        }
+    }
+
+    private Future<V> getTask(final K key) {
+        Future<V> ret = lookup(map.get(key));
+        if (ret != null) {
+            hits.increment();
+            return ret;
+        }
+        processQueue();
+        final WeighedTask weighed = weigher != null ? new WeighedTask(key) : null;
+        final FutureTask<V> task = weighed != null ? weighed : new FutureTask<>(() -> compute.get(key));
+        final Node<K, V> created = new Node<>(key, task, referenceQueue, clock.incrementAndGet());
+        if (weighed != null) {
+            weighed.node = created;
+        }
+        while (true) {
+            final Node<K, V> current = map.putIfAbsent(key, created);
+            if (current == null) {
+                break;
+            }
+            ret = lookup(current);
+            if (ret != null) {
+                // Computed by other thread
+                hits.increment();
+                return ret;
+            }
+            // The soft value was cleared by GC
+            if (map.replace(key, current, created)) {
+                weight.addAndGet(-current.retire());
+                break;
+            }
+        }
+        misses.increment();
+        evict();
+        executor.execute(task);
+        return task;
+    }
+
+    private Future<V> lookup(Node<K, V> node) {
+        if (node == null) {
+            return null;
+        }
+        final Future<V> future = node.get();
+        if (future != null) {
+            final long tick = clock.get();
+            if (node.accessed != tick) {
+                // Not write the hot entry shared by threads again
+                node.accessed = tick;
+            }
+        }
+        return future;
+    }
+
+    private boolean isOverflow() {
+        return map.size() > capacity || weight.get() > maxWeight;
+    }
+
+    private void evict() {
+        if (!isOverflow()) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            while (isOverflow()) {
+                Node<K, V> victim = null;
+                for (int i = 0; i < SAMPLES; i++) {
+                    if (hand == null || !hand.hasNext()) {
+                        hand = map.values().iterator();
+                        if (!hand.hasNext()) {
+                            break;
+                        }
+                    }
+                    final Node<K, V> node = hand.next();
+                    if (victim == null || node.accessed < victim.accessed) {
+                        victim = node;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                if (discard(victim)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void processQueue() {
+        while (true) {
+            Reference<? extends Future<V>> o = referenceQueue.poll();
+            if (null == o) {
+                return;
+            }
+            // The soft value was cleared by GC
+            if (discard((Node<K, V>) o)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    public void setRemoveableException(final Class<? extends Throwable> cls) {
+        this.exceptionStrategy = ExceptionStrategies.<K>removeOn(cls);
+    }
+
+    public void setExceptionStrategy(ExceptionStrategy<K> exceptionStrategy) {
+        this.exceptionStrategy = exceptionStrategy;
+    }
+
+    /**
+     * The listener of the computed values removed, evicted, invalidated or cleared.
+     * Not called for a value cleared by GC or not retained.
+     */
+    public void setRemovalListener(BiConsumer<K, V> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public String toString() {
+        if (weigher != null) {
+            return String.format(Locale.getDefault(), "Cache(%d, %d/%d)", map.size(), weight.get(), maxWeight);
+        }
+        return String.format(Locale.getDefault(), "Cache(%d/%d)", map.size(), capacity);
+    }
+}
@@ -1,13 +1,39 @@
 package net.tiny.ws.cache;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.tiny.ws.ByteArrayPool;
+import net.tiny.ws.Codec;
 
 public class ContentsCache {
 
-    private final BarakbCache<URL, byte[]> cache;
+    public static final String GZIP    = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    // The retries of lease when the contents were evicted meanwhile
+    private static final int LEASE_RETRIES = 3;
+
+    private final ConcurrentCache<Variant, Contents> cache;
+    private final boolean offHeap;
+    private final OffHeapArena arena;
+    private final int maxEntryBytes;
+    // The blocks of off-heap contents, freed when the contents are collected without release
+    private final Set<Reclaim> reclaims = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Contents> collected = new ReferenceQueue<>();
 
     /**
      * Create cache for the last capacity number used file.
@@ -15,18 +41,170 @@ public class ContentsCache {
      * @param capacity
      */
     public ContentsCache(int capacity) {
-        this.cache = new BarakbCache<>(key -> readContents(key), capacity);
+        this.cache = new ConcurrentCache<>(key -> readContents(key), capacity);
+        this.offHeap = false;
+        this.arena = null;
+        this.maxEntryBytes = Integer.MAX_VALUE;
         // Have an error from the file system that a file was deleted.
         this.cache.setRemoveableException(RuntimeException.class);
     }
 
+    /**
+     * Create cache bounded by the total bytes of contents.
+     * A file larger than the max entry size is read each time without cache.
+     *
+     * @param maxBytes the max total bytes of cached contents
+     * @param maxEntryBytes the max bytes of a cached file
+     */
+    public ContentsCache(long maxBytes, int maxEntryBytes) {
+        this(maxBytes, maxEntryBytes, false);
+    }
+
+    /**
+     * Create cache bounded by the total bytes of contents.
+     * The off-heap contents are stored in the blocks of a few large direct slabs out of java heap,
+     * only the index and the free blocks are kept on heap, so a large cache has few impact to GC.
+     * The block of evicted contents is reused when no lease of it is open,
+     * the slabs are never released, up to the max bytes of '-XX:MaxDirectMemorySize'.
+     * The off-heap contents are weighed by their block sizes (power of 2).
+     *
+     * @param maxBytes the max total bytes of cached contents
+     * @param maxEntryBytes the max bytes of a cached file
+     * @param offHeap store the contents in direct buffers
+     */
+    public ContentsCache(long maxBytes, int maxEntryBytes, boolean offHeap) {
+        this.cache = new ConcurrentCache<>(key -> readContents(key), (key, value) -> value.weight(),
+                maxBytes, maxEntryBytes);
+        this.cache.setRemoveableException(RuntimeException.class);
+        this.offHeap = offHeap;
+        this.maxEntryBytes = maxEntryBytes;
+        if (offHeap) {
+            this.arena = new OffHeapArena(maxBytes, maxEntryBytes);
+            // The cache holds a reference of contents until removed
+            this.cache.setRemovalListener((key, value) -> value.release());
+        } else {
+            this.arena = null;
+        }
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /** The total bytes of cached contents */
+    public long getWeight() {
+        return cache.weight();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /** The bytes of off-heap blocks in use */
+    long getOffHeapUsed() {
+        return arena != null ? arena.used() : 0L;
+    }
+
+    /**
+     * Remove the contents and all compressed variants of the URL.
+     * The URL of a directory removes all files under the directory,
+     * not the siblings of the same name prefix.
+     *
+     * @return the number of removed entries
+     */
+    public int invalidate(URL url) {
+        final String name = url.toString();
+        final String dir = name.endsWith("/") ? name : name + "/";
+        return cache.removeIf(key -> {
+            final String file = key.url.toString();
+            return file.equals(name) || file.startsWith(dir);
+        });
+    }
+
     public void clear() {
         cache.clear();
     }
 
     public byte[] get(URL url) throws IOException {
+        return get(url, null);
+    }
+
+    /**
+     * Get the contents compressed by the encoding, the compressed bytes are cached
+     * separately from the original contents.
+     *
+     * @param url
+     * @param encoding 'gzip' or 'deflate', null is the original contents
+     */
+    public byte[] get(URL url, String encoding) throws IOException {
+        try (Lease lease = lease(url, encoding)) {
+            return lease.bytes();
+        }
+    }
+
+    public ByteBuffer getBuffer(URL url) throws IOException {
+        return getBuffer(url, null);
+    }
+
+    /**
+     * Get the contents as a buffer, the off-heap contents are not copied into heap.
+     * The buffer has its own position, it can be consumed by the caller.
+     * The buffer of off-heap contents is valid only while the contents are cached,
+     * use {@link #lease(URL, String)} to send it.
+     *
+     * @param url
+     * @param encoding 'gzip' or 'deflate', null is the original contents
+     */
+    public ByteBuffer getBuffer(URL url, String encoding) throws IOException {
+        return load(url, encoding).buffer();
+    }
+
+    /**
+     * Lease the contents as a buffer, the block of off-heap contents is not reused
+     * until the lease is closed, even if the contents are evicted meanwhile.
+     *
+     * @param url
+     * @param encoding 'gzip' or 'deflate', null is the original contents
+     */
+    public Lease lease(URL url, String encoding) throws IOException {
+        for (int i = 0; i < LEASE_RETRIES; i++) {
+            final Contents contents = load(url, encoding);
+            if (contents.retain()) {
+                return new Lease(contents, contents.buffer());
+            }
+            // Evicted and released meanwhile
+        }
+        // Evicted as soon as loaded, read without cache
+        final byte[] data = readAllBytes(url);
+        return Lease.of(ByteBuffer.wrap(encoding == null ? data : compress(data, encoding)));
+    }
+
+    public String getETag(URL url) throws IOException {
+        return getETag(url, null);
+    }
+
+    /**
+     * Get the strong entity tag computed when the contents were loaded.
+     * The contents are not read again while they are cached.
+     *
+     * @param url
+     * @param encoding 'gzip' or 'deflate', null is the original contents
+     */
+    public String getETag(URL url, String encoding) throws IOException {
+        return load(url, encoding).etag;
+    }
+
+    private Contents load(URL url, String encoding) throws IOException {
         try {
-            return cache.get(url);
+            return cache.get(new Variant(url, encoding));
         } catch (Throwable e) {
             Throwable cause = findErrorCause(e);
             if(cause instanceof IOException) {
@@ -53,26 +231,266 @@ public class ContentsCache {
         }
     }
 
-    private byte[] readContents(URL url) {
+    private Contents readContents(Variant key) {
         try {
-            return readAllBytes(url);
+            if (key.encoding == null) {
+                final byte[] data = readAllBytes(key.url);
+                return newContents(data, etag(data));
+            }
+            final String etag = getETag(key.url, null);
+            try (Lease origin = lease(key.url, null)) {
+                return newContents(compress(origin.bytes(), key.encoding), etag(etag, key.encoding));
+            }
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
+    private Contents newContents(byte[] data, String etag) {
+        if (arena != null && OffHeapArena.blockSize(data.length) <= maxEntryBytes) {
+            reclaim();
+            final OffHeapArena.Block block = arena.allocate(data.length);
+            if (block != null) {
+                block.buffer.put(data).flip();
+                final Contents contents = new Contents(block, etag);
+                contents.reclaim = new Reclaim(contents, block);
+                reclaims.add(contents.reclaim);
+                return contents;
+            }
+            // No free block, kept on heap
+        }
+        return new Contents(data, etag);
+    }
+
+    /**
+     * Free the blocks of the contents collected without release,
+     * ex. the soft values cleared by GC or computed after removed.
+     */
+    private void reclaim() {
+        Reclaim reclaim;
+        while ((reclaim = (Reclaim) collected.poll()) != null) {
+            reclaim.free();
+        }
+    }
+
+    /**
+     * Compute a strong entity tag (MD5 digest) of the contents.
+     */
+    public static String etag(byte[] contents) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(contents);
+            return "\"" + Codec.encodeHex(digest) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The entity tag of a compressed variant, ex. '"d41d8cd9...-gzip"'.
+     */
+    public static String etag(String etag, String encoding) {
+        if (null == encoding) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
 
     public static byte[] readAllBytes(URL url) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        InputStream in = url.openStream();
-        byte[] buffer = new byte[4096];
-        int nread;
-        while ((nread = in.read(buffer)) > 0) {
-            baos.write(buffer, 0, nread);
+        try (InputStream in = url.openStream();
+             ByteArrayPool.Buffer buffer = ByteArrayPool.SHARED.buffer(Math.max(in.available(), 0))) {
+            buffer.readFrom(in);
+            return buffer.toByteArray();
+        }
+    }
+
+    public static byte[] compress(byte[] contents, String encoding) throws IOException {
+        try (ByteArrayPool.Buffer buffer = ByteArrayPool.SHARED.buffer(Math.max(64, contents.length / 2))) {
+            DeflaterOutputStream out;
+            switch (encoding) {
+            case GZIP:
+                out = new GZIPOutputStream(buffer);
+                break;
+            case DEFLATE:
+                out = new DeflaterOutputStream(buffer);
+                break;
+            default:
+                throw new IOException(String.format("Unsupported content encoding '%s'", encoding));
+            }
+            out.write(contents);
+            out.finish();
+            final byte[] compressed = buffer.toByteArray();
+            // Release the deflater and the pooled buffer
+            out.close();
+            return compressed;
+        }
+    }
+
+    /**
+     * The contents leased from the cache, the buffer must not be used after closed.
+     */
+    public static final class Lease implements Closeable {
+        private final Contents contents;
+        private final ByteBuffer buffer;
+        private boolean closed = false;
+
+        Lease(Contents contents, ByteBuffer buffer) {
+            this.contents = contents;
+            this.buffer = buffer;
+        }
+
+        /**
+         * A lease of the buffer not cached.
+         */
+        public static Lease of(ByteBuffer buffer) {
+            return new Lease(null, buffer);
+        }
+
+        /**
+         * @return the buffer of its own position, valid until closed
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        public int length() {
+            return buffer.remaining();
+        }
+
+        byte[] bytes() {
+            if (contents != null) {
+                return contents.bytes();
+            }
+            final byte[] copy = new byte[buffer.remaining()];
+            buffer.duplicate().get(copy);
+            return copy;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                if (contents != null) {
+                    contents.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * The block of off-heap contents, freed once by the last release or when the contents are collected.
+     */
+    final class Reclaim extends WeakReference<Contents> {
+        private final OffHeapArena.Block block;
+        private final AtomicBoolean freed = new AtomicBoolean();
+
+        Reclaim(Contents contents, OffHeapArena.Block block) {
+            super(contents, collected);
+            this.block = block;
+        }
+
+        void free() {
+            if (freed.compareAndSet(false, true)) {
+                clear();
+                reclaims.remove(this);
+                arena.free(block);
+            }
+        }
+    }
+
+    static final class Contents {
+        // One of heap bytes or off-heap block
+        private final byte[] data;
+        private final ByteBuffer direct;
+        private final int capacity;
+        // The references of cache and leases to the off-heap block
+        private final AtomicInteger references = new AtomicInteger(1);
+        private Reclaim reclaim;
+        final String etag;
+
+        Contents(byte[] data, String etag) {
+            this.data = data;
+            this.direct = null;
+            this.capacity = data.length;
+            this.etag = etag;
+        }
+
+        Contents(OffHeapArena.Block block, String etag) {
+            this.data = null;
+            this.direct = block.buffer;
+            this.capacity = block.capacity();
+            this.etag = etag;
+        }
+
+        int length() {
+            return data != null ? data.length : direct.limit();
+        }
+
+        /** The bytes weighed by the cache, the block size of off-heap contents */
+        int weight() {
+            return capacity;
+        }
+
+        /** @return false if the off-heap block was already released */
+        boolean retain() {
+            if (reclaim == null) {
+                return true;
+            }
+            while (true) {
+                final int count = references.get();
+                if (count <= 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (reclaim != null && references.decrementAndGet() == 0) {
+                reclaim.free();
+            }
+        }
+
+        byte[] bytes() {
+            if (data != null) {
+                return data;
+            }
+            final byte[] copy = new byte[direct.limit()];
+            direct.duplicate().get(copy);
+            return copy;
+        }
+
+        ByteBuffer buffer() {
+            return data != null ? ByteBuffer.wrap(data) : direct.asReadOnlyBuffer();
         }
-        baos.close();
-        in.close();
-        return baos.toByteArray();
     }
 
+    static final class Variant {
+        final URL url;
+        final String encoding;
+        // URL.equals() may resolve the host name
+        private final String name;
+
+        Variant(URL url, String encoding) {
+            this.url = url;
+            this.encoding = encoding;
+            this.name = (encoding == null) ? url.toString() : url.toString() + ";" + encoding;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Variant) && name.equals(((Variant) obj).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
 }
@@ -0,0 +1,269 @@
+package net.tiny.ws.cache;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the file changes under the root directories and notifies the changed paths to listeners.
+ * The native file system events (inotify) are used by default.
+ * The polling mode compares the last modified time and the size of files at intervals,
+ * for the file systems without native events (ex. NFS), it is also the fallback when
+ * the file system does not support {@link WatchService}.
+ * A deleted or an overflowed directory is notified as the directory path.
+ */
+public class FileWatcher implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(FileWatcher.class.getName());
+
+    public static final long DEFAULT_INTERVAL = 2000L; //2 seconds
+
+    private final List<Consumer<Path>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Path> roots = new CopyOnWriteArrayList<>();
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final long interval;
+    private boolean polling;
+    private WatchService service = null;
+    // The files of polling, guarded by this
+    private Map<Path, FileStamp> snapshot = new HashMap<>();
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    public FileWatcher() {
+        this(false, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param polling poll the file changes instead of native file system events
+     * @param interval the polling interval in milliseconds
+     */
+    public FileWatcher(boolean polling, long interval) {
+        if (interval <= 0L) {
+            throw new IllegalArgumentException("Polling interval must be positive : " + interval);
+        }
+        this.polling = polling;
+        this.interval = interval;
+    }
+
+    public FileWatcher listen(Consumer<Path> listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    public boolean isPolling() {
+        return polling;
+    }
+
+    public List<Path> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Start watching the root directory and all sub directories.
+     */
+    public synchronized void watch(Path dir) throws IOException {
+        final Path root = dir.toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            throw new IOException(String.format("Not a directory '%s'", root));
+        }
+        if (roots.contains(root)) {
+            return;
+        }
+        if (!polling && service == null) {
+            try {
+                service = root.getFileSystem().newWatchService();
+            } catch (UnsupportedOperationException | IOException ex) {
+                LOGGER.warning(String.format("[WATCH] File system events are not supported, poll every %dms : %s",
+                        interval, ex.getMessage()));
+                polling = true;
+            }
+        }
+        roots.add(root);
+        if (polling) {
+            scan(root, snapshot);
+        } else {
+            register(root);
+        }
+        start();
+        LOGGER.info(String.format("[WATCH] Watching '%s' (%s)", root, polling ? "polling" : "native"));
+    }
+
+    private void register(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                final WatchKey key = dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (polling) {
+                    Thread.sleep(interval);
+                    poll();
+                } else {
+                    process(service.take());
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                break;
+            } catch (RuntimeException | IOException ex) {
+                LOGGER.log(Level.WARNING, String.format("[WATCH] Watching error : %s", ex.getMessage()), ex);
+            }
+        }
+    }
+
+    private void process(WatchKey key) throws IOException {
+        final Path dir = keys.get(key);
+        if (dir != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    // Lost some events
+                    fire(dir);
+                    continue;
+                }
+                final Path child = dir.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                    register(child);
+                }
+                fire(child);
+            }
+        }
+        if (!key.reset()) {
+            // The directory was deleted
+            keys.remove(key);
+        }
+    }
+
+    private synchronized void poll() throws IOException {
+        final Map<Path, FileStamp> current = new HashMap<>(snapshot.size());
+        for (Path root : roots) {
+            if (Files.isDirectory(root)) {
+                scan(root, current);
+            }
+        }
+        for (Map.Entry<Path, FileStamp> entry : current.entrySet()) {
+            if (!entry.getValue().equals(snapshot.get(entry.getKey()))) {
+                // Created or modified
+                fire(entry.getKey());
+            }
+        }
+        for (Path path : snapshot.keySet()) {
+            if (!current.containsKey(path)) {
+                // Deleted
+                fire(path);
+            }
+        }
+        snapshot = current;
+    }
+
+    private static void scan(Path root, Map<Path, FileStamp> files) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.put(file, new FileStamp(attrs.lastModifiedTime().toMillis(), attrs.size()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                // Deleted while scanning
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void fire(Path path) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format("[WATCH] Changed '%s'", path));
+        }
+        for (Consumer<Path> listener : listeners) {
+            try {
+                listener.accept(path);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, String.format("[WATCH] Notify '%s' error : %s", path, ex.getMessage()), ex);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, ex.getMessage(), ex);
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+        keys.clear();
+        roots.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s {roots:%s, polling:%s}", getClass().getSimpleName(), roots, polling);
+    }
+
+    static final class FileStamp {
+        final long lastModified;
+        final long size;
+
+        FileStamp(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileStamp)) {
+                return false;
+            }
+            final FileStamp other = (FileStamp) obj;
+            return lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(lastModified) * 31 + Long.hashCode(size);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package net.tiny.ws.cache;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A bounded cache of the resolved resources (ex. URI to local file) with time to live.
+ * A positive entry holds the found resource, a negative entry remembers not found (null) for a shorter time.
+ *
+ * @param <V> the type of resolved resource
+ */
+public class LookupCache<V> {
+
+    static final class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final ConcurrentCache<String, Entry<V>> cache;
+    private final long positiveTtl;
+    private final long negativeTtl;
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * @param lookup the function to resolve a resource, returns null if not found
+     * @param capacity the max number of entries
+     * @param positiveTtl the time to live of found entries in milliseconds
+     * @param negativeTtl the time to live of not found entries in milliseconds
+     */
+    public LookupCache(Function<String, V> lookup, int capacity, long positiveTtl, long negativeTtl) {
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        this.cache = new ConcurrentCache<>(key -> resolve(lookup, key), capacity);
+        this.cache.setRemoveableException(RuntimeException.class);
+    }
+
+    private Entry<V> resolve(Function<String, V> lookup, String key) {
+        final V value = lookup.apply(key);
+        final long ttl = (value != null) ? positiveTtl : negativeTtl;
+        return new Entry<>(value, System.currentTimeMillis() + ttl);
+    }
+
+    public V get(String key) {
+        Entry<V> entry = load(key);
+        if (entry.expires < System.currentTimeMillis()) {
+            expired.increment();
+            cache.remove(key);
+            entry = load(key);
+        }
+        return entry.value;
+    }
+
+    private Entry<V> load(String key) {
+        try {
+            return cache.get(key);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Remove the found entries matched by the filter and all not found entries,
+     * a new file may be found by the lookups.
+     *
+     * @return the number of removed entries
+     */
+    public int invalidate(Predicate<V> filter) {
+        return cache.removeIf((key, entry) -> entry == null || entry.value == null || filter.test(entry.value));
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount() - expired.sum();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "Lookup(%d/%d hit:%d miss:%d)",
+                cache.size(), cache.capacity(), getHitCount(), getMissCount());
+    }
+}
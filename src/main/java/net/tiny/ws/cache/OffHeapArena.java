@@ -0,0 +1,142 @@
+package net.tiny.ws.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The off-heap memory of {@link ContentsCache}, a few large direct slabs allocated once
+ * and split into blocks by a buddy allocator.
+ * <ul>
+ * <li>The block sizes are powers of 2 from 512B to the slab size.</li>
+ * <li>The free blocks are kept on heap, a freed block is merged with its free buddy.</li>
+ * <li>The slabs are allocated on demand up to the max bytes and never released,
+ * so the eviction of contents does not wait the GC to free the native memory.</li>
+ * </ul>
+ */
+final class OffHeapArena {
+
+    static final int MIN_SHIFT = 9; // 512B
+    static final int MIN_SLAB_SHIFT = 22; // 4MB
+    static final int MAX_SLAB_SHIFT = 30; // 1GB
+
+    /** A block of slab, the buffer is valid until freed */
+    static final class Block {
+        // The slab index in high 32 bits and the offset in low 32 bits
+        final long address;
+        final int shift;
+        final ByteBuffer buffer;
+
+        Block(long address, int shift, ByteBuffer buffer) {
+            this.address = address;
+            this.shift = shift;
+            this.buffer = buffer;
+        }
+
+        int capacity() {
+            return 1 << shift;
+        }
+    }
+
+    private final int slabShift;
+    private final int maxSlabs;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    // The addresses of free blocks by the shift, lower addresses are used first
+    private final TreeSet<Long>[] free;
+    private long used = 0L;
+
+    /**
+     * @param maxBytes the max total bytes of slabs
+     * @param maxBlockBytes the max bytes of a block, the slab size is not under it up to 1GB
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OffHeapArena(long maxBytes, int maxBlockBytes) {
+        slabShift = Math.min(Math.max(MIN_SLAB_SHIFT, shiftOf(maxBlockBytes)), MAX_SLAB_SHIFT);
+        maxSlabs = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, (maxBytes + (1L << slabShift) - 1L) >> slabShift));
+        free = new TreeSet[slabShift - MIN_SHIFT + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new TreeSet<>();
+        }
+    }
+
+    /**
+     * @return the shift of block size for the bytes
+     */
+    static int shiftOf(int size) {
+        return Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+    }
+
+    /**
+     * @return the block size of the bytes
+     */
+    static int blockSize(int size) {
+        return 1 << shiftOf(size);
+    }
+
+    /**
+     * @return a block of the size or larger, null if over the slab size or no free block
+     */
+    synchronized Block allocate(int size) {
+        final int shift = shiftOf(size);
+        if (shift > slabShift) {
+            return null;
+        }
+        int k = shift;
+        while (k <= slabShift && free[k - MIN_SHIFT].isEmpty()) {
+            k++;
+        }
+        if (k > slabShift) {
+            if (slabs.size() >= maxSlabs) {
+                return null;
+            }
+            slabs.add(ByteBuffer.allocateDirect(1 << slabShift));
+            free[slabShift - MIN_SHIFT].add((long) (slabs.size() - 1) << 32);
+            k = slabShift;
+        }
+        final long address = free[k - MIN_SHIFT].pollFirst();
+        // Split, the upper halves are free
+        while (k > shift) {
+            k--;
+            free[k - MIN_SHIFT].add(address + (1L << k));
+        }
+        used += 1L << shift;
+        final ByteBuffer slab = slabs.get((int) (address >>> 32)).duplicate();
+        final int offset = (int) address;
+        slab.limit(offset + size).position(offset);
+        return new Block(address, shift, slab.slice());
+    }
+
+    /**
+     * Return the block to the arena, the buffer of block must not be used after.
+     */
+    synchronized void free(Block block) {
+        long address = block.address;
+        int k = block.shift;
+        used -= 1L << k;
+        // Merge with the free buddies
+        while (k < slabShift) {
+            final long buddy = address ^ (1L << k);
+            if (!free[k - MIN_SHIFT].remove(buddy)) {
+                break;
+            }
+            address = Math.min(address, buddy);
+            k++;
+        }
+        free[k - MIN_SHIFT].add(address);
+    }
+
+    /** The bytes of allocated blocks */
+    synchronized long used() {
+        return used;
+    }
+
+    /** The bytes of allocated slabs */
+    synchronized long reserved() {
+        return (long) slabs.size() << slabShift;
+    }
+
+    int slabSize() {
+        return 1 << slabShift;
+    }
+}
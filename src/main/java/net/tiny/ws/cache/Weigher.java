@@ -0,0 +1,8 @@
+package net.tiny.ws.cache;
+
+public interface Weigher<K, V> {
+    /**
+     * @return the weight of the value, ex. the size of contents in bytes.
+     */
+    int weigh(K key, V value);
+}
@@ -2,7 +2,6 @@ package net.tiny.ws.client;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.CookieHandler;
@@ -20,6 +19,7 @@ import java.util.Optional;
 import java.util.function.Consumer;
 
 import net.tiny.config.JsonParser;
+import net.tiny.ws.ByteArrayPool;
 import net.tiny.ws.Callback;
 
 public class SimpleClient {
@@ -305,14 +305,10 @@ public class SimpleClient {
     }
 
     private byte[] getContent(int contentLength, InputStream in) throws IOException {
-        ByteArrayOutputStream contentBuffer = new ByteArrayOutputStream();
-        byte readBuf[] = new byte[contentLength];
-        int readLen = 0;
-        while((readLen = in.read(readBuf)) > 0 ) {
-            contentBuffer.write(readBuf, 0, readLen);
-            contentBuffer.flush();
-        }
-        return contentBuffer.toByteArray();
+        try (ByteArrayPool.Buffer buffer = ByteArrayPool.SHARED.buffer(contentLength)) {
+            buffer.readFrom(in);
+            return buffer.toByteArray();
+        }
     }
 
     public static class RequestBuilder {
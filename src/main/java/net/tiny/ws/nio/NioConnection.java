@@ -0,0 +1,462 @@
+package net.tiny.ws.nio;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * A keep-alive connection of {@link NioHttpServer}.
+ * The selector thread reads and parses a whole request, the head in the buffer
+ * and the body moved out to a {@link NioRequestBody} as the bytes arrive,
+ * then the connection stops reading until the exchange is completed by a worker thread.
+ * The buffer grows up to the max header size only, a large body is spooled to a file.
+ * The pipelined requests left in the buffer are handled in order.
+ */
+final class NioConnection {
+
+    static final int MAX_HEADER_SIZE = 64 * 1024;
+    static final int HTTP_HEADER_TOO_LARGE = 431;
+
+    // The states of chunked body
+    private static final int CHUNK_SIZE = 0;
+    private static final int CHUNK_DATA = 1;
+    private static final int CHUNK_END = 2;
+    private static final int CHUNK_TRAILER = 3;
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /** The parsed request */
+    static final class Request {
+        String method;
+        String uri;
+        String version;
+        final Headers headers = new Headers();
+        NioRequestBody body;
+        int headLength;
+        long contentLength;
+        boolean chunked;
+        boolean close;
+        boolean http10;
+        boolean expectContinue;
+
+        void release() {
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+
+    /** An error of request answered before the exchange */
+    static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int code;
+
+        HttpError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    final NioHttpServer server;
+    final SocketChannel channel;
+    SelectionKey key;
+    volatile long lastActive;
+    // In an exchange, not read by the selector
+    volatile boolean busy = false;
+    private volatile boolean closed = false;
+    private InetSocketAddress remote;
+    private InetSocketAddress local;
+
+    // Filled from 0 to position, owned by the selector thread or the worker of exchange
+    private ByteBuffer buffer;
+    private Request pending;
+    private int scanned = 0;
+    private boolean continued = false;
+    // The body of pending request
+    private NioRequestBody body;
+    private long remaining;
+    private int chunkState;
+
+    NioConnection(NioHttpServer server, SocketChannel channel) {
+        this.server = server;
+        this.channel = channel;
+        this.buffer = server.getPool().acquire();
+        this.lastActive = System.nanoTime();
+    }
+
+    private boolean isTooLarge(long length) {
+        final long max = server.getMaxBodySize();
+        return max >= 0L && length > max;
+    }
+
+    InetSocketAddress getRemoteAddress() {
+        if (remote == null) {
+            try {
+                remote = (InetSocketAddress) channel.getRemoteAddress();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+        return remote;
+    }
+
+    InetSocketAddress getLocalAddress() {
+        if (local == null) {
+            try {
+                local = (InetSocketAddress) channel.getLocalAddress();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+        return local;
+    }
+
+    /**
+     * Read the channel on the selector thread.
+     * @return the whole request or null if not yet
+     */
+    Request read() throws IOException, HttpError {
+        if (!buffer.hasRemaining()) {
+            // A head or a chunk line not ended in the buffer
+            if (buffer.capacity() >= MAX_HEADER_SIZE) {
+                if (pending == null) {
+                    throw new HttpError(HTTP_HEADER_TOO_LARGE, "Request header too large");
+                }
+                throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Chunk line too long");
+            }
+            grow(buffer.capacity() * 2);
+        }
+        final int n = channel.read(buffer);
+        if (n < 0) {
+            throw new IOException("Closed by peer");
+        }
+        lastActive = System.nanoTime();
+        final Request request = parse();
+        if (request == null && pending != null && pending.expectContinue && !continued) {
+            continued = true;
+            channel.write(ByteBuffer.wrap(CONTINUE));
+        }
+        return request;
+    }
+
+    /**
+     * Parse a request in the buffer, the parsed bytes are removed from the buffer
+     * and the body bytes are moved to the body of request.
+     * @return the request or null if not yet
+     */
+    Request parse() throws IOException, HttpError {
+        final byte[] data = buffer.array();
+        int limit = buffer.position();
+        if (pending == null) {
+            // Skip the empty lines between the requests
+            int start = 0;
+            while (start < limit && (data[start] == '\r' || data[start] == '\n')) {
+                start++;
+            }
+            if (start > 0) {
+                consume(start);
+                limit = buffer.position();
+            }
+            final int end = headEnd(data, limit);
+            if (end < 0) {
+                if (limit >= MAX_HEADER_SIZE) {
+                    throw new HttpError(HTTP_HEADER_TOO_LARGE, "Request header too large");
+                }
+                return null;
+            }
+            pending = parseHead(data, end);
+            consume(end);
+            body = new NioRequestBody();
+            remaining = pending.contentLength;
+            chunkState = CHUNK_SIZE;
+        }
+        final Request request = pending;
+        final boolean completed = request.chunked ? readChunked() : readFixed();
+        if (!completed) {
+            return null;
+        }
+        body.finish();
+        request.body = body;
+        body = null;
+        pending = null;
+        continued = false;
+        return request;
+    }
+
+    private boolean readFixed() throws IOException {
+        final int n = (int) Math.min(buffer.position(), remaining);
+        if (n > 0) {
+            body.write(buffer.array(), 0, n);
+            consume(n);
+            remaining -= n;
+        }
+        return remaining == 0L;
+    }
+
+    private boolean readChunked() throws IOException, HttpError {
+        final byte[] data = buffer.array();
+        while (true) {
+            final int limit = buffer.position();
+            if (chunkState == CHUNK_DATA) {
+                final int n = (int) Math.min(limit, remaining);
+                if (n > 0) {
+                    body.write(data, 0, n);
+                    consume(n);
+                    remaining -= n;
+                }
+                if (remaining > 0L) {
+                    return false;
+                }
+                chunkState = CHUNK_END;
+                continue;
+            }
+            final int eol = lineEnd(data, 0, limit);
+            if (eol < 0) {
+                return false;
+            }
+            switch (chunkState) {
+            case CHUNK_SIZE:
+                String line = new String(data, 0, eol, StandardCharsets.ISO_8859_1).trim();
+                final int ext = line.indexOf(';');
+                if (ext >= 0) {
+                    line = line.substring(0, ext).trim();
+                }
+                final long size;
+                try {
+                    size = Long.parseLong(line, 16);
+                } catch (NumberFormatException e) {
+                    throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Bad chunk size");
+                }
+                if (size < 0L) {
+                    throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Bad chunk size");
+                }
+                if (isTooLarge(body.length() + size)) {
+                    throw new HttpError(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, "Request body too large");
+                }
+                remaining = size;
+                chunkState = (size == 0L) ? CHUNK_TRAILER : CHUNK_DATA;
+                consume(eol + 1);
+                break;
+            case CHUNK_END:
+                // The CRLF after the chunk data
+                consume(eol + 1);
+                chunkState = CHUNK_SIZE;
+                break;
+            default:
+                // Skip the trailers to the empty line
+                final boolean empty = (eol == 0) || (eol == 1 && data[0] == '\r');
+                consume(eol + 1);
+                if (empty) {
+                    return true;
+                }
+                break;
+            }
+        }
+    }
+
+    private int headEnd(byte[] data, int limit) {
+        for (int i = Math.max(scanned - 3, 0); i < limit; i++) {
+            if (data[i] == '\n') {
+                if (i + 1 < limit && data[i + 1] == '\n') {
+                    return i + 2;
+                }
+                if (i + 2 < limit && data[i + 1] == '\r' && data[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
+        }
+        scanned = limit;
+        return -1;
+    }
+
+    private Request parseHead(byte[] data, int end) throws HttpError {
+        final Request request = new Request();
+        request.headLength = end;
+        final String head = new String(data, 0, end, StandardCharsets.ISO_8859_1);
+        final String[] lines = head.split("\r?\n");
+        final String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Bad request line");
+        }
+        request.method = requestLine[0];
+        request.uri = requestLine[1];
+        request.version = requestLine[2];
+        String name = null;
+        String value = null;
+        for (int i = 1; i < lines.length; i++) {
+            final String line = lines[i];
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+                // Folded value
+                if (name == null) {
+                    throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Bad header line");
+                }
+                value = value + ' ' + line.trim();
+                continue;
+            }
+            if (name != null) {
+                request.headers.add(name, value);
+            }
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Bad header line");
+            }
+            name = line.substring(0, colon).trim();
+            value = line.substring(colon + 1).trim();
+        }
+        if (name != null) {
+            request.headers.add(name, value);
+        }
+
+        final String encoding = request.headers.getFirst("Transfer-encoding");
+        if (encoding != null && encoding.toLowerCase().contains("chunked")) {
+            request.chunked = true;
+        } else {
+            final String length = request.headers.getFirst("Content-length");
+            if (length != null) {
+                try {
+                    request.contentLength = Long.parseLong(length.trim());
+                } catch (NumberFormatException e) {
+                    throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Bad content length");
+                }
+                if (request.contentLength < 0L) {
+                    throw new HttpError(HttpURLConnection.HTTP_BAD_REQUEST, "Bad content length");
+                }
+                if (isTooLarge(request.contentLength)) {
+                    throw new HttpError(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, "Request body too large");
+                }
+            }
+        }
+        final String connection = request.headers.getFirst("Connection");
+        if ("HTTP/1.0".equalsIgnoreCase(request.version)) {
+            request.http10 = true;
+            request.close = !"keep-alive".equalsIgnoreCase(connection);
+        } else {
+            request.close = "close".equalsIgnoreCase(connection);
+        }
+        request.expectContinue = "100-continue".equalsIgnoreCase(request.headers.getFirst("Expect"));
+        return request;
+    }
+
+    private static int lineEnd(byte[] data, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void consume(int length) {
+        buffer.flip();
+        buffer.position(length);
+        buffer.compact();
+        scanned = 0;
+    }
+
+    private void grow(int size) {
+        final ByteBuffer larger = ByteBuffer.allocate(Math.min(size, MAX_HEADER_SIZE));
+        buffer.flip();
+        larger.put(buffer);
+        server.getPool().release(buffer);
+        buffer = larger;
+    }
+
+    /**
+     * Write all bytes, wait the channel writable if the socket buffer is full.
+     */
+    void write(ByteBuffer... buffers) throws IOException {
+        long remaining = 0L;
+        for (ByteBuffer b : buffers) {
+            remaining += b.remaining();
+        }
+        while (remaining > 0L) {
+            final long n = channel.write(buffers);
+            remaining -= n;
+            if (n == 0L) {
+                server.awaitWritable(channel);
+            }
+        }
+    }
+
+    /**
+     * Answer an error without exchange and close the connection.
+     */
+    void reject(int code, String message) {
+        final String body = "<h1>" + code + NioHttpExchange.reason(code) + "</h1>" + message;
+        final String response = "HTTP/1.1 " + code + NioHttpExchange.reason(code) + "\r\n"
+                + "Date: " + NioHttpExchange.date() + "\r\n"
+                + "Content-type: text/html\r\n"
+                + "Content-length: " + body.length() + "\r\n"
+                + "Connection: close\r\n\r\n" + body;
+        try {
+            write(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (IOException e) {
+            // Closed by peer
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Called by the exchange when the response is completed.
+     */
+    void completed(boolean close) {
+        if (close || closed || !server.isRunning()) {
+            close();
+            return;
+        }
+        final Request next;
+        try {
+            next = parse();
+        } catch (HttpError e) {
+            reject(e.code, e.getMessage());
+            return;
+        } catch (IOException e) {
+            reject(HttpURLConnection.HTTP_INTERNAL_ERROR, e.getMessage());
+            return;
+        }
+        lastActive = System.nanoTime();
+        if (next != null) {
+            // Pipelined request
+            server.dispatch(this, next);
+        } else {
+            busy = false;
+            server.register(this);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        server.closed(this);
+        if (body != null && !busy) {
+            // The body of a request not completed
+            body.close();
+            body = null;
+        }
+        final ByteBuffer b = buffer;
+        if (b != null && !busy) {
+            server.getPool().release(b);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package net.tiny.ws.nio;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+final class NioHttpContext extends HttpContext {
+
+    private final String path;
+    private final NioHttpServer server;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<Filter> filters = new CopyOnWriteArrayList<>();
+    private volatile HttpHandler handler;
+    private volatile Authenticator authenticator;
+
+    NioHttpContext(String path, HttpHandler handler, NioHttpServer server) {
+        this.path = path;
+        this.handler = handler;
+        this.server = server;
+    }
+
+    @Override
+    public HttpHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void setHandler(HttpHandler h) {
+        if (h == null) {
+            throw new NullPointerException("Null handler parameter");
+        }
+        if (handler != null) {
+            throw new IllegalArgumentException("Handler already set");
+        }
+        handler = h;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public HttpServer getServer() {
+        return server;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    @Override
+    public Authenticator setAuthenticator(Authenticator auth) {
+        final Authenticator old = authenticator;
+        authenticator = auth;
+        return old;
+    }
+
+    @Override
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * The user filters, the authenticator then the handler, same as the JDK server.
+     */
+    void handle(HttpExchange exchange) throws IOException {
+        final HttpHandler target = handler;
+        if (target == null) {
+            throw new IOException("No handler for context '" + path + "'");
+        }
+        final Authenticator auth = authenticator;
+        final HttpHandler authorized = (auth == null) ? target : e -> authenticate(auth, e, target);
+        new Filter.Chain(filters, authorized).doFilter(exchange);
+    }
+
+    private static void authenticate(Authenticator auth, HttpExchange exchange, HttpHandler target) throws IOException {
+        final Authenticator.Result result = auth.authenticate(exchange);
+        if (result instanceof Authenticator.Success) {
+            if (exchange instanceof NioHttpExchange) {
+                ((NioHttpExchange) exchange).principal = ((Authenticator.Success) result).getPrincipal();
+            }
+            target.handle(exchange);
+        } else if (result instanceof Authenticator.Retry) {
+            exchange.sendResponseHeaders(((Authenticator.Retry) result).getResponseCode(), -1);
+            exchange.close();
+        } else if (result instanceof Authenticator.Failure) {
+            exchange.sendResponseHeaders(((Authenticator.Failure) result).getResponseCode(), -1);
+            exchange.close();
+        } else {
+            throw new IOException("Unknown authenticator result : " + result);
+        }
+    }
+}
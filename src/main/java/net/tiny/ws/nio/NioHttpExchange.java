@@ -0,0 +1,448 @@
+package net.tiny.ws.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import net.tiny.ws.HttpDateFormat;
+
+/**
+ * An exchange of {@link NioHttpServer}, the response framing is same as the JDK server.
+ * The head of response is sent with the first bytes of body in a gathering write.
+ */
+final class NioHttpExchange extends HttpExchange implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(NioHttpExchange.class.getName());
+
+    private static final byte[] CRLF = new byte[] {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static volatile String date = "";
+    private static volatile long dateSecond = 0L;
+
+    private final NioConnection connection;
+    private final NioHttpContext context;
+    private final NioConnection.Request request;
+    private final URI uri;
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final ResponseStream response = new ResponseStream();
+    private InputStream in;
+    private OutputStream out;
+    private int code = -1;
+    private boolean close;
+    private boolean closed = false;
+    HttpPrincipal principal;
+
+    NioHttpExchange(NioConnection connection, NioHttpContext context, NioConnection.Request request, URI uri) {
+        this.connection = connection;
+        this.context = context;
+        this.request = request;
+        this.uri = uri;
+        this.close = request.close;
+        this.in = open(request.body);
+        this.out = response;
+    }
+
+    private static InputStream open(NioRequestBody body) {
+        try {
+            return body.getInputStream();
+        } catch (IOException e) {
+            // The spooled file was removed
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            context.handle(this);
+        } catch (Throwable e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, String.format("[NIO] Exchange '%s %s' error : %s",
+                        request.method, request.uri, e.getMessage()), e);
+            }
+            if (!response.finished) {
+                connection.close();
+            }
+        } finally {
+            // The pooled array or the spooled file of body
+            request.release();
+        }
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return request.headers;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return request.method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!response.sent) {
+            // No response can be sent
+            request.release();
+            connection.close();
+            return;
+        }
+        try {
+            in.close();
+            request.release();
+            out.close();
+        } catch (IOException e) {
+            request.release();
+            connection.close();
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return out;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (response.sent) {
+            throw new IOException("headers already sent");
+        }
+        code = rCode;
+        responseHeaders.set("Date", date());
+        long length = responseLength;
+        boolean noContentLength = false;
+        if ((rCode >= 100 && rCode < 200) || rCode == 204 || rCode == 304) {
+            length = -1L;
+            noContentLength = (rCode != 304);
+        }
+        if ("HEAD".equals(request.method) || rCode == 304) {
+            response.fixed(0L);
+        } else if (length == 0L) {
+            if (request.http10) {
+                // Until closed
+                response.raw();
+                close = true;
+            } else {
+                responseHeaders.set("Transfer-encoding", "chunked");
+                response.chunked();
+            }
+        } else {
+            if (length == -1L) {
+                length = 0L;
+            }
+            if (!noContentLength) {
+                responseHeaders.set("Content-length", Long.toString(length));
+            }
+            response.fixed(length);
+        }
+        final List<String> connectionHeader = responseHeaders.get("Connection");
+        if (!close && connectionHeader != null) {
+            for (String value : connectionHeader) {
+                if ("close".equalsIgnoreCase(value)) {
+                    close = true;
+                }
+            }
+        }
+        if (request.http10 && !responseHeaders.containsKey("Connection")) {
+            responseHeaders.set("Connection", close ? "close" : "keep-alive");
+        }
+        response.head(rCode, responseHeaders);
+        if (response.remaining == 0L && !response.chunked && !response.raw) {
+            // No content to send
+            response.close();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return code;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return request.version;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        if (name == null) {
+            throw new NullPointerException("null name parameter");
+        }
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (name == null) {
+            throw new NullPointerException("null name parameter");
+        }
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            in = i;
+        }
+        if (o != null) {
+            out = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return principal;
+    }
+
+    static String date() {
+        final long second = System.currentTimeMillis() / 1000L;
+        if (second != dateSecond) {
+            date = HttpDateFormat.format(new java.util.Date(second * 1000L));
+            dateSecond = second;
+        }
+        return date;
+    }
+
+    static String reason(int code) {
+        switch (code) {
+        case 100: return " Continue";
+        case 101: return " Switching Protocols";
+        case 200: return " OK";
+        case 201: return " Created";
+        case 202: return " Accepted";
+        case 204: return " No Content";
+        case 206: return " Partial Content";
+        case 301: return " Moved Permanently";
+        case 302: return " Found";
+        case 303: return " See Other";
+        case 304: return " Not Modified";
+        case 307: return " Temporary Redirect";
+        case 400: return " Bad Request";
+        case 401: return " Unauthorized";
+        case 403: return " Forbidden";
+        case 404: return " Not Found";
+        case 405: return " Method Not Allowed";
+        case 408: return " Request Timeout";
+        case 411: return " Length Required";
+        case 413: return " Request Entity Too Large";
+        case 415: return " Unsupported Media Type";
+        case 416: return " Requested Range Not Satisfiable";
+        case 431: return " Request Header Fields Too Large";
+        case 500: return " Internal Server Error";
+        case 501: return " Not Implemented";
+        case 502: return " Bad Gateway";
+        case 503: return " Service Unavailable";
+        case 504: return " Gateway Timeout";
+        default:  return " ";
+        }
+    }
+
+    /**
+     * The original response body, buffered in a pooled buffer.
+     */
+    final class ResponseStream extends OutputStream {
+        private ByteBuffer head;
+        private ByteBuffer buffer;
+        boolean sent = false;
+        boolean chunked = false;
+        boolean raw = false;
+        boolean finished = false;
+        long remaining = 0L;
+
+        void fixed(long length) {
+            remaining = length;
+        }
+
+        void chunked() {
+            chunked = true;
+        }
+
+        void raw() {
+            raw = true;
+        }
+
+        void head(int rCode, Headers headers) {
+            final StringBuilder sb = new StringBuilder(256);
+            sb.append("HTTP/1.1 ").append(rCode).append(reason(rCode)).append("\r\n");
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                for (String value : entry.getValue()) {
+                    sb.append(entry.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+            sb.append("\r\n");
+            head = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+            sent = true;
+        }
+
+        private void check(int len) throws IOException {
+            if (!sent) {
+                throw new IOException("response headers not sent yet");
+            }
+            if (finished) {
+                throw new IOException("stream is closed");
+            }
+            if (!chunked && !raw) {
+                if (len > remaining) {
+                    throw new IOException("too many bytes to write to stream");
+                }
+                remaining -= len;
+            }
+            if (buffer == null) {
+                buffer = connection.server.getPool().acquire();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            check(1);
+            if (!buffer.hasRemaining()) {
+                send(false);
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            check(len);
+            if (len >= buffer.capacity() && buffer.position() == 0) {
+                // Large array without copy
+                sendBody(ByteBuffer.wrap(b, off, len), false);
+                return;
+            }
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    send(false);
+                }
+                final int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (sent && !finished && buffer != null && buffer.position() > 0) {
+                send(false);
+            }
+        }
+
+        private void send(boolean last) throws IOException {
+            buffer.flip();
+            sendBody(buffer, last);
+            buffer.clear();
+        }
+
+        private void sendBody(ByteBuffer body, boolean last) throws IOException {
+            final ByteBuffer first = head;
+            head = null;
+            if (chunked) {
+                final ByteBuffer size = ByteBuffer.wrap(
+                        (Integer.toHexString(body.remaining()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                if (!body.hasRemaining()) {
+                    write(first, ByteBuffer.wrap(LAST_CHUNK));
+                } else if (last) {
+                    write(first, size, body, ByteBuffer.wrap(CRLF), ByteBuffer.wrap(LAST_CHUNK));
+                } else {
+                    write(first, size, body, ByteBuffer.wrap(CRLF));
+                }
+            } else {
+                write(first, body);
+            }
+        }
+
+        private void write(ByteBuffer... buffers) throws IOException {
+            if (buffers[0] == null) {
+                final ByteBuffer[] rest = new ByteBuffer[buffers.length - 1];
+                System.arraycopy(buffers, 1, rest, 0, rest.length);
+                connection.write(rest);
+            } else {
+                connection.write(buffers);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) {
+                return;
+            }
+            if (!sent) {
+                throw new IOException("response headers not sent yet");
+            }
+            finished = true;
+            boolean failed = !chunked && !raw && remaining > 0L;
+            try {
+                if (buffer == null) {
+                    buffer = connection.server.getPool().acquire();
+                }
+                if (chunked || buffer.position() > 0 || head != null) {
+                    send(true);
+                }
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            } finally {
+                connection.server.getPool().release(buffer);
+                buffer = null;
+                connection.completed(close || failed || raw);
+            }
+            if (failed) {
+                throw new IOException("insufficient bytes written to stream");
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package net.tiny.ws.nio;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A HTTP/1.1 server of a selector loop, the handlers, filters and authenticators of
+ * {@link com.sun.net.httpserver} run on it as same as the JDK server.
+ * <ul>
+ * <li>The selector thread accepts the connections, reads and parses the whole requests.</li>
+ * <li>The exchanges run on the executor, or on the selector thread without executor.</li>
+ * <li>The responses are written by the threads of exchanges, waiting the writable channel if need.</li>
+ * <li>The pipelined requests of a keep-alive connection are handled in order.</li>
+ * <li>The buffers of the connections and the responses are pooled.</li>
+ * </ul>
+ * The whole body is received before the exchange is dispatched, spooled to a file if large,
+ * so the checks of handlers (ex. the 413 by Content-Length, the streaming multipart parser)
+ * run only after the upload has arrived. The body size is not limited by default,
+ * {@link #setMaxBodySize(long)} rejects a larger body with '413' while receiving.
+ * The idle timeout and TCP_NODELAY are the system properties of the JDK server.
+ */
+public class NioHttpServer extends HttpServer implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(NioHttpServer.class.getName());
+
+    static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final long DEFAULT_IDLE_INTERVAL = 30L;
+    private static final long WRITE_TIMEOUT = 60000L; //60s
+    private static final long SELECT_TIMEOUT = 1000L;
+
+    private final List<NioHttpContext> contexts = new CopyOnWriteArrayList<>();
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+    private final Queue<NioConnection> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Selector> writeSelectors = new ConcurrentLinkedQueue<>();
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final long idleTimeout;
+    private final boolean noDelay;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private InetSocketAddress address;
+    private Executor executor;
+    private Thread dispatcher;
+    private long maxBodySize = -1L;
+    private volatile boolean running = false;
+
+    NioHttpServer() {
+        idleTimeout = TimeUnit.SECONDS.toNanos(Long.getLong("sun.net.httpserver.idleInterval", DEFAULT_IDLE_INTERVAL));
+        noDelay = Boolean.getBoolean("sun.net.httpserver.nodelay");
+    }
+
+    @Override
+    public void bind(InetSocketAddress addr, int backlog) throws IOException {
+        if (serverChannel != null) {
+            throw new java.net.BindException("HttpServer already bound");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(addr, backlog);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        address = (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    @Override
+    public void start() {
+        if (serverChannel == null || running) {
+            throw new IllegalStateException("server in wrong state");
+        }
+        running = true;
+        dispatcher = new Thread(this, "nio-http-dispatcher-" + address.getPort());
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        if (running) {
+            throw new IllegalStateException("server already started");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param size the max bytes of request body received before the exchange, not limited if less than 0
+     */
+    public void setMaxBodySize(long size) {
+        if (running) {
+            throw new IllegalStateException("server already started");
+        }
+        this.maxBodySize = size;
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    @Override
+    public void stop(int delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("negative delay parameter");
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        // Wait the exchanges in process
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delay);
+        while (System.nanoTime() < deadline && isBusy()) {
+            try {
+                Thread.sleep(10L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        running = false;
+        selector.wakeup();
+        if (dispatcher != null && dispatcher != Thread.currentThread()) {
+            try {
+                dispatcher.join(SELECT_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (NioConnection connection : connections) {
+            connection.close();
+        }
+        Selector s;
+        while ((s = writeSelectors.poll()) != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private boolean isBusy() {
+        for (NioConnection connection : connections) {
+            if (connection.busy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        return createContext(path, handler, true);
+    }
+
+    @Override
+    public HttpContext createContext(String path) {
+        return createContext(path, null, false);
+    }
+
+    private HttpContext createContext(String path, HttpHandler handler, boolean check) {
+        if (path == null || (check && handler == null)) {
+            throw new NullPointerException("null parameter");
+        }
+        if (!path.startsWith("/")) {
+            throw new IllegalArgumentException("Illegal value for path or protocol");
+        }
+        for (NioHttpContext context : contexts) {
+            if (context.getPath().equals(path)) {
+                throw new IllegalArgumentException("cannot add context to list");
+            }
+        }
+        final NioHttpContext context = new NioHttpContext(path, handler, this);
+        contexts.add(context);
+        return context;
+    }
+
+    @Override
+    public void removeContext(String path) {
+        for (NioHttpContext context : contexts) {
+            if (context.getPath().equals(path)) {
+                contexts.remove(context);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("cannot remove element from list");
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        if (!contexts.remove(context)) {
+            throw new IllegalArgumentException("cannot remove element from list");
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * The context of the longest path matched.
+     */
+    NioHttpContext findContext(String path) {
+        NioHttpContext found = null;
+        for (NioHttpContext context : contexts) {
+            final String prefix = context.getPath();
+            if (path.startsWith(prefix) && (found == null || prefix.length() > found.getPath().length())) {
+                found = context;
+            }
+        }
+        return found;
+    }
+
+    BufferPool getPool() {
+        return pool;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void run() {
+        long lastIdleCheck = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT);
+                NioConnection pending;
+                while ((pending = registrations.poll()) != null) {
+                    if (!pending.isClosed()) {
+                        try {
+                            pending.key.interestOps(SelectionKey.OP_READ);
+                        } catch (RuntimeException e) {
+                            pending.close();
+                        }
+                    }
+                }
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    // An error of a connection does not stop the loop
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read((NioConnection) key.attachment());
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, String.format("[NIO] Key error : %s", e.getMessage()), e);
+                        if (key.attachment() instanceof NioConnection) {
+                            ((NioConnection) key.attachment()).close();
+                        }
+                    }
+                }
+                final long now = System.nanoTime();
+                if (now - lastIdleCheck > TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT)) {
+                    closeIdleConnections(now);
+                    lastIdleCheck = now;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                LOGGER.log(Level.SEVERE, String.format("[NIO] Dispatcher error : %s", e.getMessage()), e);
+            }
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel;
+        while ((channel = acceptChannel()) != null) {
+            try {
+                channel.configureBlocking(false);
+                if (noDelay) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+                }
+                final NioConnection connection = new NioConnection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                // Reset by the client, close this channel only
+                LOGGER.fine(String.format("[NIO] Accept error : %s", e.getMessage()));
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private SocketChannel acceptChannel() {
+        try {
+            return serverChannel.accept();
+        } catch (IOException e) {
+            // Closed or too many open files
+            return null;
+        }
+    }
+
+    private void read(NioConnection connection) {
+        final NioConnection.Request request;
+        try {
+            request = connection.read();
+        } catch (NioConnection.HttpError e) {
+            connection.reject(e.code, e.getMessage());
+            return;
+        } catch (IOException e) {
+            connection.close();
+            return;
+        }
+        if (request != null) {
+            connection.key.interestOps(0);
+            dispatch(connection, request);
+        }
+    }
+
+    /**
+     * Run the exchange of the request.
+     */
+    void dispatch(NioConnection connection, NioConnection.Request request) {
+        connection.busy = true;
+        final URI uri;
+        try {
+            uri = new URI(request.uri);
+        } catch (URISyntaxException e) {
+            request.release();
+            connection.reject(HttpURLConnection.HTTP_BAD_REQUEST, "URISyntaxException thrown");
+            return;
+        }
+        final String path = (uri.getPath() != null) ? uri.getPath() : "/";
+        final NioHttpContext context = findContext(path);
+        if (context == null || context.getHandler() == null) {
+            request.release();
+            connection.reject(HttpURLConnection.HTTP_NOT_FOUND, "No context found for request");
+            return;
+        }
+        final NioHttpExchange exchange = new NioHttpExchange(connection, context, request, uri);
+        final Executor pool = executor;
+        if (pool == null) {
+            exchange.run();
+            return;
+        }
+        try {
+            pool.execute(exchange);
+        } catch (RejectedExecutionException e) {
+            // Same as the JDK server
+            request.release();
+            connection.close();
+        }
+    }
+
+    /**
+     * Read the next request of the connection on the selector thread.
+     */
+    void register(NioConnection connection) {
+        registrations.offer(connection);
+        selector.wakeup();
+    }
+
+    void closed(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    private void closeIdleConnections(long now) {
+        for (NioConnection connection : connections) {
+            if (!connection.busy && now - connection.lastActive > idleTimeout) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Wait the channel writable by a pooled selector.
+     */
+    void awaitWritable(SocketChannel channel) throws IOException {
+        Selector s = writeSelectors.poll();
+        if (s == null) {
+            s = Selector.open();
+        }
+        try {
+            final SelectionKey key = channel.register(s, SelectionKey.OP_WRITE);
+            try {
+                if (s.select(WRITE_TIMEOUT) == 0) {
+                    throw new IOException("Write timeout");
+                }
+            } finally {
+                key.cancel();
+                s.selectNow();
+            }
+        } finally {
+            if (s.isOpen()) {
+                writeSelectors.offer(s);
+            }
+        }
+    }
+}
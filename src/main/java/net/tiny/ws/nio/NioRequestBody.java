@@ -0,0 +1,114 @@
+package net.tiny.ws.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import net.tiny.ws.ByteArrayPool;
+
+/**
+ * The request body written by the selector thread as the bytes arrive.
+ * The first bytes are kept in a pooled array, a body over {@link #MAX_MEMORY_SIZE}
+ * is spooled to a temporary file deleted by close.
+ */
+final class NioRequestBody implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(NioRequestBody.class.getName());
+
+    static final int MAX_MEMORY_SIZE = 64 * 1024; //64KB
+    private static final byte[] EMPTY = new byte[0];
+
+    private ByteArrayPool.Buffer memory;
+    private Path file;
+    private FileChannel channel;
+    private long length = 0L;
+
+    void write(byte[] data, int off, int len) throws IOException {
+        if (len <= 0) {
+            return;
+        }
+        if (channel == null && length + len > MAX_MEMORY_SIZE) {
+            spool();
+        }
+        if (channel != null) {
+            final ByteBuffer src = ByteBuffer.wrap(data, off, len);
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        } else {
+            if (memory == null) {
+                memory = ByteArrayPool.SHARED.buffer(len);
+            }
+            memory.write(data, off, len);
+        }
+        length += len;
+    }
+
+    private void spool() throws IOException {
+        file = Files.createTempFile("nio-body", ".tmp");
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        if (memory != null) {
+            channel.write(ByteBuffer.wrap(memory.array(), 0, memory.size()));
+            memory.close();
+            memory = null;
+        }
+    }
+
+    /**
+     * All bytes are written, the spooled file is ready to read.
+     */
+    void finish() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    boolean isSpooled() {
+        return file != null;
+    }
+
+    InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        if (memory == null) {
+            return new ByteArrayInputStream(EMPTY);
+        }
+        return new ByteArrayInputStream(memory.array(), 0, memory.size());
+    }
+
+    /**
+     * Release the pooled array or delete the spooled file.
+     */
+    @Override
+    public void close() {
+        if (memory != null) {
+            memory.close();
+            memory = null;
+        }
+        if (file != null) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warning(String.format("[NIO] Can not delete '%s' : %s", file, e.getMessage()));
+            }
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package net.tiny.ws.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsServer;
+import com.sun.net.httpserver.spi.HttpServerProvider;
+
+/**
+ * The provider of the built-in NIO engine.
+ * The handlers, filters and authenticators of {@link com.sun.net.httpserver} run on it unchanged.
+ * HTTPS is not supported.
+ */
+public class NioServerProvider extends HttpServerProvider {
+
+    @Override
+    public HttpServer createHttpServer(InetSocketAddress addr, int backlog) throws IOException {
+        final NioHttpServer server = new NioHttpServer();
+        if (addr != null) {
+            server.bind(addr, backlog);
+        }
+        return server;
+    }
+
+    @Override
+    public HttpsServer createHttpsServer(InetSocketAddress addr, int backlog) throws IOException {
+        throw new UnsupportedOperationException("HTTPS is not supported by the NIO engine");
+    }
+}
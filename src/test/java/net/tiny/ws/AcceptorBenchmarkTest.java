@@ -0,0 +1,97 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.LogManager;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The throughput of short requests on 1/2/4/8 acceptors,
+ * the clients spread the connections over the ports of acceptors.
+ * <p>
+ * Skipped in the regular test run, run with -Dbench=true, ex.
+ * 'mvn test -Dtest=AcceptorBenchmarkTest -Dbench=true'.
+ */
+public class AcceptorBenchmarkTest {
+
+    static final int REQUESTS = 20000;
+    static final int CLIENTS  = 64;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception {
+        assumeTrue(Boolean.getBoolean("bench"), "Run with -Dbench=true");
+        LogManager.getLogManager()
+            .readConfiguration(Thread.currentThread().getContextClassLoader().getResourceAsStream("logging.properties"));
+    }
+
+    @Test
+    public void testBenchmarkAcceptors() throws Exception {
+        System.out.println(String.format("Requests:%d  Clients:%d  Cores:%d",
+                REQUESTS, CLIENTS, Runtime.getRuntime().availableProcessors()));
+        for (int acceptors : new int[] {1, 2, 4, 8}) {
+            benchmark(acceptors);
+        }
+    }
+
+    void benchmark(int acceptors) throws Exception {
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .acceptors(acceptors)
+                .random()
+                .handler("/json", new TestJsonHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        final int[] ports = server.ports();
+
+        final AtomicInteger ok = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(REQUESTS);
+        final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        final byte[] buffer = new byte[1024];
+        final long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            final URL url = new URL("http://localhost:" + ports[i % ports.length] + "/json");
+            clients.execute(() -> {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+                    if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                        // Read to the end to reuse the connection
+                        try (InputStream in = connection.getInputStream()) {
+                            while (in.read(buffer) != -1);
+                        }
+                        ok.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        final long elapsed = (System.nanoTime() - start) / 1000000L;
+        clients.shutdown();
+
+        System.out.println(String.format("Acceptors %d:\t%dms  ok:%d  error:%d  %.1f req/s",
+                acceptors, elapsed, ok.get(), failed.get(), (REQUESTS * 1000d / elapsed)));
+        assertEquals(REQUESTS, ok.get() + failed.get());
+
+        server.stop();
+        server.awaitTermination();
+    }
+}
@@ -3,7 +3,11 @@ package net.tiny.ws;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
 import java.text.MessageFormat;
+import java.util.Date;
 
 import net.tiny.benchmark.Benchmarker;
 
@@ -58,4 +62,127 @@ public class AccessLoggerTest {
         //Summary ETA:331ms 586904ns MIPS:0.034 0.029ms/per min:14.924K/s max:44.621K/s avg:33.116K/s mean:31.795K/s count:10000 lost:6ms 614539ns
         bench.metric(System.out);
     }
+
+    @Test
+    public void testCompiledFormat() throws Exception {
+        AccessLogger logger = new AccessLogger();
+        long now = System.currentTimeMillis();
+        AccessRecord record = new AccessRecord("127.0.0.1", "hogo", "localhost", "GET", "/index.html?q=1", "HTTP/1.1",
+                200, "420", "http://localhost/", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1)", now, 12L);
+        String date = logger.formatDate(new Date(now));
+        for (String format : new String[] {AccessLogger.COMMON_FORMAT, AccessLogger.COMBINED_FORMAT}) {
+            String pattern = AccessLogger.getPattern(format);
+            String expected = MessageFormat.format(pattern,
+                    "127.0.0.1", "-", "hogo", date, "0.012", "GET /index.html?q=1 HTTP/1.1", "200", "420",
+                    "http://localhost/", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1)");
+            assertEquals(expected, AccessLogFormat.compile(pattern).format(record));
+        }
+
+        // Custom pattern with quotes of MessageFormat
+        assertEquals("'127.0.0.1' {x} 200 1.500",
+                AccessLogFormat.compile("''{0}'' '{x}' {6} {4}").format(
+                        new AccessRecord("127.0.0.1", "-", null, "GET", "/", "HTTP/1.1", 200, "0", "", null, now, 1500L)));
+        assertThrows(IllegalArgumentException.class, () -> AccessLogFormat.compile("{0} {10}"));
+
+        logger.setFormatPattern("%h %>s %b");
+        assertEquals("{0} {6} {7}", logger.getFormatPattern());
+    }
+
+    @Test
+    public void testBenchmarkAsyncWriteLog() throws Exception {
+        AccessLogger logger = new AccessLogger();
+        String pattern = AccessLogger.getPattern(AccessLogger.COMBINED_FORMAT);
+        AsyncLogWriter<String> writer = new AsyncLogWriter<>(logs -> {
+            for (String log : logs) {
+                System.err.println(log);
+            }
+            System.err.flush();
+        }, 16384, 256, 200L, AsyncLogWriter.Overflow.BLOCK);
+        Benchmarker bench = new Benchmarker();
+        bench.start(10000L, 1000L);
+        while (bench.loop()) {
+            bench.trace(System.out);
+            String log = MessageFormat.format(pattern,
+                    "127.0.0.1", "-", "hogo", "30/Jun/2019:11:57:39 +0900", "12", "GET", "200", "420", "/index.html", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1)");
+            writer.offer(log);
+        }
+        bench.stop();
+        bench.metric(System.out);
+        writer.close();
+        assertEquals(0L, writer.getDropCount());
+        logger.close();
+    }
+
+    @Test
+    public void testAsyncAccessLog() throws Exception {
+        StringWriter out = new StringWriter();
+        AccessLogger logger = new AccessLogger();
+        logger.setLogger(new PrintWriter(out));
+        logger.setFormat("COMMON");
+        logger.setAsync(true);
+        logger.setFlushInterval(50L);
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .random()
+                .handler("/health", new VoidHttpHandler().path("/health").filter(logger))
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpURLConnection.HTTP_OK, EmbeddedServerTest.status(server.port(), "/health"));
+        }
+        // Stopping the server writes all queued logs
+        server.stop();
+        server.awaitTermination();
+
+        String[] lines = out.toString().split(System.lineSeparator());
+        assertEquals(10, lines.length);
+        assertTrue(lines[0].contains("\"GET /health HTTP/1.1\" 200"), lines[0]);
+        assertEquals(0L, logger.getDropCount());
+    }
+
+    @Test
+    public void testJsonFormat() throws Exception {
+        AccessRecord record = new AccessRecord("127.0.0.1", "-", "localhost", "GET", "/a?q=\"x\"", "HTTP/1.1",
+                200, "12", "", null, 1561863459000L, 12L);
+        assertEquals("{\"timestamp\":1561863459000,\"remote\":\"127.0.0.1\",\"user\":\"-\",\"host\":\"localhost\","
+                + "\"method\":\"GET\",\"uri\":\"/a?q=\\\"x\\\"\",\"protocol\":\"HTTP/1.1\",\"path\":null,"
+                + "\"status\":200,\"size\":\"12\",\"referer\":\"\",\"agent\":null,\"total_ns\":12000000}",
+                AccessLogFormat.JSON.format(record));
+    }
+
+    @Test
+    public void testJsonAccessLog() throws Exception {
+        StringWriter out = new StringWriter();
+        AccessLogger logger = new AccessLogger();
+        logger.setLogger(new PrintWriter(out));
+        logger.setFormat("json");
+        assertEquals("JSON", logger.getFormat());
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .random()
+                .handler("/json", new TestJsonHandler().path("/json").filter(logger))
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        assertEquals(HttpURLConnection.HTTP_OK, EmbeddedServerTest.status(server.port(), "/json/test"));
+        server.stop();
+        server.awaitTermination();
+
+        String line = out.toString().trim();
+        assertTrue(line.startsWith("{\"timestamp\":"), line);
+        assertTrue(line.contains("\"uri\":\"/json/test\""), line);
+        assertTrue(line.contains("\"path\":\"/json\""), line);
+        assertTrue(line.contains("\"status\":200"), line);
+        assertTrue(line.contains("\"bytes\":16"), line);
+        for (String timing : new String[] {"queue_ns", "filter_ns", "handler_ns", "write_ns", "total_ns"}) {
+            int pos = line.indexOf("\"" + timing + "\":");
+            assertTrue(pos > 0, timing);
+            assertTrue(line.charAt(pos + timing.length() + 3) != '-', line);
+        }
+    }
 }
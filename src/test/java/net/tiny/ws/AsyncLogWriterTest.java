@@ -0,0 +1,125 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class AsyncLogWriterTest {
+
+    @Test
+    public void testWriteBatches() throws Exception {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        AsyncLogWriter<String> writer = new AsyncLogWriter<>(records -> {
+            lines.addAll(records);
+            batches.add(records.size());
+        }, 1024, 100, 50L, AsyncLogWriter.Overflow.DROP);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(writer.offer("log" + i));
+        }
+        writer.close();
+        assertEquals(1000, lines.size());
+        assertEquals("log0", lines.get(0));
+        assertEquals("log999", lines.get(999));
+        assertTrue(batches.size() < 1000);
+        for (int size : batches) {
+            assertTrue(size <= 100);
+        }
+        assertEquals(1000L, writer.getWriteCount());
+        assertEquals(0L, writer.getDropCount());
+        // Closed writer drops the records
+        assertFalse(writer.offer("closed"));
+        assertEquals(1L, writer.getDropCount());
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        AsyncLogWriter<String> writer = new AsyncLogWriter<>(records -> written.countDown(),
+                1024, 100, 50L, AsyncLogWriter.Overflow.DROP);
+        writer.offer("log");
+        // Not full batch is written after the flush interval
+        assertTrue(written.await(1L, TimeUnit.SECONDS));
+        writer.close();
+    }
+
+    @Test
+    public void testDropOverflow() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        AsyncLogWriter<String> writer = new AsyncLogWriter<>(records -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+            }
+        }, 10, 1, 10L, AsyncLogWriter.Overflow.DROP);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (writer.offer("log" + i)) {
+                accepted++;
+            }
+        }
+        // The queue and the blocked batch
+        assertTrue(accepted <= 11);
+        assertEquals(100L - accepted, writer.getDropCount());
+        blocked.countDown();
+        writer.close();
+        assertEquals((long)accepted, writer.getWriteCount());
+    }
+
+    @Test
+    public void testBlockOverflow() throws Exception {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        AsyncLogWriter<String> writer = new AsyncLogWriter<>(records -> {
+            try {
+                Thread.sleep(1L);
+            } catch (InterruptedException e) {
+            }
+            lines.addAll(records);
+        }, 4, 2, 10L, AsyncLogWriter.Overflow.BLOCK);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(writer.offer("log" + i));
+        }
+        writer.close();
+        assertEquals(0L, writer.getDropCount());
+        assertEquals(200, lines.size());
+    }
+
+    @Test
+    public void testCloseWhileOffering() throws Exception {
+        final int threads = 4;
+        final int records = 20000;
+        AsyncLogWriter<String> writer = new AsyncLogWriter<>(batch -> {},
+                1024, 64, 10L, AsyncLogWriter.Overflow.DROP);
+        final CountDownLatch started = new CountDownLatch(threads);
+        final AtomicLong accepted = new AtomicLong();
+        final List<Thread> offerers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; i < records; i++) {
+                    if (writer.offer("log" + i)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            offerers.add(thread);
+        }
+        started.await();
+        writer.close();
+        for (Thread thread : offerers) {
+            thread.join();
+        }
+        // Every record is written or counted as dropped, none is left in the queue
+        assertEquals(0, writer.getQueueSize());
+        assertEquals((long)threads * records, writer.getWriteCount() + writer.getDropCount());
+        assertTrue(writer.getWriteCount() <= accepted.get());
+    }
+}
@@ -0,0 +1,102 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.LogManager;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The connection establishment latency of a burst of clients at different accept backlogs.
+ * <p>
+ * Skipped in the regular test run, run with -Dbench=true, ex.
+ * 'mvn test -Dtest=BacklogBenchmarkTest -Dbench=true'.
+ */
+public class BacklogBenchmarkTest {
+
+    static final int CLIENTS = 1000;
+    static final int ROUNDS  = 5;
+    static final int CONNECT_TIMEOUT = 5000;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception {
+        assumeTrue(Boolean.getBoolean("bench"), "Run with -Dbench=true");
+        LogManager.getLogManager()
+            .readConfiguration(Thread.currentThread().getContextClassLoader().getResourceAsStream("logging.properties"));
+    }
+
+    @Test
+    public void testBenchmarkBacklog() throws Exception {
+        System.out.println(String.format("Clients:%d  Rounds:%d", CLIENTS, ROUNDS));
+        benchmark("Backlog 1", new EmbeddedServer.Builder().backlog(1));
+        benchmark("Backlog 50", new EmbeddedServer.Builder().backlog(50));
+        // Derived from the concurrency
+        benchmark("Backlog derived", new EmbeddedServer.Builder().concurrency(CLIENTS));
+    }
+
+    void benchmark(String name, EmbeddedServer.Builder builder) throws Exception {
+        EmbeddedServer server = builder
+                .random()
+                .handler("/health", new VoidHttpHandler())
+                .build();
+        final int port = server.port();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        final LatencyHistogram latency = new LatencyHistogram(CLIENTS);
+        final AtomicInteger failed = new AtomicInteger();
+        final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        final InetSocketAddress address = new InetSocketAddress("localhost", port);
+        for (int r = 0; r < ROUNDS; r++) {
+            // All clients connect at the same time
+            final CountDownLatch ready = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(CLIENTS);
+            final Socket[] sockets = new Socket[CLIENTS];
+            for (int i = 0; i < CLIENTS; i++) {
+                final int index = i;
+                clients.execute(() -> {
+                    try {
+                        ready.await();
+                        final Socket socket = new Socket();
+                        final long start = System.nanoTime();
+                        socket.connect(address, CONNECT_TIMEOUT);
+                        latency.record(System.nanoTime() - start);
+                        sockets[index] = socket;
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            ready.countDown();
+            done.await();
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        clients.shutdown();
+
+        final LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        System.out.println(String.format("%s:\tconnected:%d  failed:%d  p50:%.2fms  p99:%.2fms  max:%.2fms",
+                name, snapshot.getCount(), failed.get(),
+                snapshot.getValueAt(0.5d) / 1e6d, snapshot.getValueAt(0.99d) / 1e6d, snapshot.getMax() / 1e6d));
+        assertEquals(CLIENTS * ROUNDS, snapshot.getCount() + failed.get());
+
+        server.stop();
+        server.awaitTermination();
+    }
+}
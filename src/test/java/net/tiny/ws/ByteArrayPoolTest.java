@@ -0,0 +1,120 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import net.tiny.service.VirtualThreadExecutors;
+
+public class ByteArrayPoolTest {
+
+    @Test
+    public void testSizeClass() throws Exception {
+        assertEquals(0, ByteArrayPool.sizeClass(0));
+        assertEquals(0, ByteArrayPool.sizeClass(512));
+        assertEquals(1, ByteArrayPool.sizeClass(513));
+        assertEquals(1, ByteArrayPool.sizeClass(1024));
+        assertEquals(7, ByteArrayPool.sizeClass(64 * 1024));
+        assertEquals(11, ByteArrayPool.sizeClass(1024 * 1024));
+        assertEquals(-1, ByteArrayPool.sizeClass(1024 * 1024 + 1));
+    }
+
+    @Test
+    public void testAcquireRelease() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool(true, false);
+        byte[] a = pool.acquire(1000);
+        assertEquals(1024, a.length);
+        pool.release(a);
+        // Reused from the thread cache
+        assertSame(a, pool.acquire(600));
+        assertEquals(1L, pool.getAllocatedCount());
+        assertEquals(1L, pool.getReusedCount());
+
+        // Shared over the threads
+        byte[] large = pool.acquire(512 * 1024);
+        assertEquals(512 * 1024, large.length);
+        pool.release(large);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        assertSame(large, executor.submit(() -> pool.acquire(300000)).get());
+        executor.shutdown();
+        executor.awaitTermination(1L, TimeUnit.SECONDS);
+
+        // Not pooled
+        byte[] huge = pool.acquire(2 * 1024 * 1024);
+        assertEquals(2 * 1024 * 1024, huge.length);
+        pool.release(huge);
+        assertNotSame(huge, pool.acquire(2 * 1024 * 1024));
+        pool.release(new byte[1000]);
+        assertNotEquals(1000, pool.acquire(1000).length);
+
+        ByteArrayPool disabled = new ByteArrayPool(false, false);
+        byte[] b = disabled.acquire(1000);
+        assertEquals(1000, b.length);
+        disabled.release(b);
+        assertNotSame(b, disabled.acquire(1000));
+    }
+
+    @Test
+    public void testVirtualThread() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool(true, false);
+        assertFalse(VirtualThreadExecutors.isVirtual(Thread.currentThread()));
+        if (!VirtualThreadExecutors.isSupported()) {
+            return;
+        }
+        // Released to the shared arrays, not kept by the virtual thread
+        ExecutorService executor = VirtualThreadExecutors.newExecutor(1);
+        byte[] released = executor.submit(() -> {
+            byte[] a = pool.acquire(1000);
+            pool.release(a);
+            return a;
+        }).get();
+        executor.shutdown();
+        assertSame(released, pool.acquire(1000));
+    }
+
+    @Test
+    public void testBuffer() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool(true, true);
+        byte[] data = new byte[100000];
+        new Random(1L).nextBytes(data);
+        try (ByteArrayPool.Buffer buffer = pool.buffer()) {
+            assertEquals(100000L, buffer.readFrom(new ByteArrayInputStream(data)));
+            assertEquals(100000, buffer.size());
+            assertArrayEquals(data, buffer.toByteArray());
+            buffer.reset();
+            buffer.write(data, 0, 10);
+            buffer.write(1);
+            assertEquals(11, buffer.size());
+        }
+        // The grown arrays are released
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool(true, true);
+        assertTrue(pool.isDebug());
+        byte[] released = pool.acquire(4096);
+        pool.release(released);
+        // Released twice is ignored
+        pool.release(released);
+        assertEquals(0, pool.getOutstandingCount());
+
+        pool.acquire(8192);
+        assertEquals(1, pool.getOutstandingCount());
+        for (int i = 0; i < 20 && pool.getLeakCount() == 0L; i++) {
+            System.gc();
+            Thread.sleep(50L);
+            // The collected arrays are checked on acquire
+            pool.release(pool.acquire(512));
+        }
+        assertEquals(1L, pool.getLeakCount());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+}
@@ -1,16 +1,30 @@
 package net.tiny.ws;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
+import net.tiny.service.PausableThreadPoolExecutor;
+
 
 
 public class EmbeddedServerTest {
@@ -46,7 +60,7 @@ public class EmbeddedServerTest {
             EmbeddedServer.available(10000);
           });
 
-        EmbeddedServer server = new EmbeddedServer.Builder()
+        EmbeddedServer server = newBuilder()
                 .handler("/health", new VoidHttpHandler())
                 .port(port)
                 .build();
@@ -64,4 +78,274 @@ public class EmbeddedServerTest {
         server.stop();
         server.awaitTermination();
     }
+
+    @Test
+    public void testVirtualExecutor() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .backlog(10)
+                .virtual(true)
+                .concurrency(1)
+                .handler("/slow", new TestSlowHandler().delay(500L))
+                .build();
+        final int port = server.port();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        assertEquals(1, server.getAdmission().getMaxConcurrency());
+
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        Future<Integer> first = clients.submit(() -> status(port, "/slow"));
+        Thread.sleep(100L);
+        Future<Integer> second = clients.submit(() -> status(port, "/slow"));
+
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, second.get().intValue());
+        assertEquals(HttpURLConnection.HTTP_OK, first.get().intValue());
+        assertEquals(1L, server.getAdmission().getRejectedCount());
+        clients.shutdown();
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testBoundedExecutor() throws Exception {
+        // One thread and one queued task
+        PausableThreadPoolExecutor pool = new PausableThreadPoolExecutor() {{
+            size = 1;
+            max = 1;
+        }};
+        EmbeddedServer server = newBuilder()
+                .random()
+                .backlog(10)
+                .executor(pool)
+                .maxQueueWait(100L)
+                .retryAfter(3)
+                .handler("/slow", new TestSlowHandler().delay(500L))
+                .handler("/health", new VoidHttpHandler())
+                .build();
+        final int port = server.port();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        AdmissionFilter admission = server.getAdmission();
+        assertEquals(100L, admission.getMaxQueueWait());
+        assertTrue(admission.isPriority("/health"));
+        assertFalse(admission.isPriority("/slow"));
+
+        ExecutorService clients = Executors.newFixedThreadPool(3);
+        Future<Integer> running = clients.submit(() -> status(port, "/slow"));
+        Thread.sleep(100L);
+        Future<Integer> queued = clients.submit(() -> status(port, "/slow"));
+        Thread.sleep(100L);
+        // A slow client rejected by the saturated executor does not stop the dispatcher
+        Socket idle = new Socket("localhost", port);
+        idle.getOutputStream().write("GET /slow HTTP/1.1\r\n".getBytes());
+        idle.getOutputStream().flush();
+        Thread.sleep(50L);
+        // Rejected by the saturated executor
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + "/slow").openConnection();
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, connection.getResponseCode());
+        assertEquals("3", connection.getHeaderField("Retry-After"));
+        connection.disconnect();
+        // Health check is never shed
+        assertEquals(HttpURLConnection.HTTP_OK, status(port, "/health"));
+
+        assertEquals(HttpURLConnection.HTTP_OK, running.get().intValue());
+        // Waited in queue over 100ms
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, queued.get().intValue());
+        assertEquals(2L, admission.getRejectedCount());
+        idle.close();
+        clients.shutdown();
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testDerivedBacklog() throws Exception {
+        assertEquals(256, builder().build().backlog());
+        assertEquals(10, builder().backlog(10).build().backlog());
+        assertEquals(1000, builder().maxInFlight(1000).build().backlog());
+        PausableThreadPoolExecutor pool = new PausableThreadPoolExecutor() {{
+            size = 100;
+            max = 200;
+        }};
+        assertEquals(300, builder().executor(pool).build().backlog());
+        assertEquals(64, builder().concurrency(1).build().backlog());
+    }
+
+    @Test
+    public void testMaxRequests() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .maxRequests(2)
+                .handler("/json", new TestJsonHandler())
+                .build();
+        final int port = server.port();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        assertEquals(2, server.getKeepAlive().getMaxRequests());
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(3000);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String request = "GET /json HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            List<String> first = readResponse(in);
+            assertEquals("HTTP/1.1 200 OK", first.get(0));
+            assertTrue(first.contains("Keep-alive: timeout=30, max=1"), first.toString());
+
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            List<String> second = readResponse(in);
+            assertEquals("HTTP/1.1 200 OK", second.get(0));
+            assertTrue(second.contains("Connection: close"), second.toString());
+            // Closed by server after the last response
+            assertEquals(-1, in.read());
+        }
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testKeepAlivePurge() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .maxRequests(10)
+                .handler("/json", new TestJsonHandler())
+                .build();
+        final int port = server.port();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        final KeepAliveFilter keepAlive = server.getKeepAlive();
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(3000);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            out.write("GET /json HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            assertEquals("HTTP/1.1 200 OK", readResponse(in).get(0));
+        }
+        assertEquals(1, keepAlive.getConnectionCount());
+        // Kept within the idle timeout, purged after it
+        keepAlive.purge(System.nanoTime());
+        assertEquals(1, keepAlive.getConnectionCount());
+        keepAlive.purge(System.nanoTime() + TimeUnit.SECONDS.toNanos(keepAlive.getIdleTimeout() + 1L));
+        assertEquals(0, keepAlive.getConnectionCount());
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testJdkIdleTimeout() throws Exception {
+        final String property = System.getProperty("sun.net.httpserver.idleInterval");
+        EmbeddedServer first = new EmbeddedServer.Builder()
+                .random()
+                .maxRequests(10)
+                .handler("/json", new TestJsonHandler())
+                .build();
+        first.listen(callback -> {});
+        final long timeout = first.getKeepAlive().getIdleTimeout();
+        first.stop();
+        first.awaitTermination();
+
+        // Not changed after the first JDK server of JVM, the actual timeout is advertised
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .random()
+                .maxRequests(10)
+                .idleTimeout(timeout + 7L)
+                .handler("/json", new TestJsonHandler())
+                .build();
+        try {
+            server.listen(callback -> {});
+            assertEquals(timeout, server.getKeepAlive().getIdleTimeout());
+        } finally {
+            server.stop();
+            server.awaitTermination();
+            if (property == null) {
+                System.clearProperty("sun.net.httpserver.idleInterval");
+            } else {
+                System.setProperty("sun.net.httpserver.idleInterval", property);
+            }
+        }
+    }
+
+    @Test
+    public void testAcceptors() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .acceptors(3)
+                .random()
+                .handler("/json", new TestJsonHandler())
+                .handler("/health", new VoidHttpHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        int[] ports = server.ports();
+        assertEquals(3, ports.length);
+        assertEquals(server.port() + 2, ports[2]);
+        // Same handlers on all ports
+        for (int port : ports) {
+            assertFalse(EmbeddedServer.available(port));
+            assertEquals(HttpURLConnection.HTTP_OK, status(port, "/json"));
+            assertEquals(HttpURLConnection.HTTP_OK, status(port, "/health"));
+        }
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    /**
+     * The builder of the server engine under test
+     */
+    protected EmbeddedServer.Builder newBuilder() {
+        return new EmbeddedServer.Builder();
+    }
+
+    EmbeddedServer.Builder builder() {
+        return newBuilder().handler("/health", new VoidHttpHandler());
+    }
+
+    static List<String> readResponse(BufferedReader in) throws Exception {
+        List<String> lines = new ArrayList<>();
+        int length = 0;
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            lines.add(line);
+            if (line.startsWith("Content-length: ")) {
+                length = Integer.parseInt(line.substring(16));
+            }
+        }
+        // Skip the body
+        in.skip(length);
+        return lines;
+    }
+
+    static int status(int port, String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + path).openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
 }
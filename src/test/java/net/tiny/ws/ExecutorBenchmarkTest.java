@@ -0,0 +1,107 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.LogManager;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The slow requests of many clients on the cached thread pool and on virtual threads.
+ * <p>
+ * Skipped in the regular test run, run with -Dbench=true, ex.
+ * 'mvn test -Dtest=ExecutorBenchmarkTest -Dbench=true'.
+ */
+public class ExecutorBenchmarkTest {
+
+    static final int REQUESTS = 10000;
+    static final int CLIENTS  = 1000;
+    static final long DELAY   = 100L;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception {
+        assumeTrue(Boolean.getBoolean("bench"), "Run with -Dbench=true");
+        LogManager.getLogManager()
+            .readConfiguration(Thread.currentThread().getContextClassLoader().getResourceAsStream("logging.properties"));
+    }
+
+    @Test
+    public void testBenchmarkSlowRequests() throws Exception {
+        System.out.println(String.format("Requests:%d  Clients:%d  Delay:%dms", REQUESTS, CLIENTS, DELAY));
+        // Unbounded platform thread per request
+        benchmark("Cached Pool", new EmbeddedServer.Builder());
+        System.out.println("---------------------------------");
+        // Virtual thread per request, capped by 503
+        benchmark("Virtual Thread", new EmbeddedServer.Builder()
+                .virtual(true)
+                .concurrency(CLIENTS / 2));
+    }
+
+    void benchmark(String name, EmbeddedServer.Builder builder) throws Exception {
+        EmbeddedServer server = builder
+                .random()
+                .backlog(CLIENTS)
+                .handler("/slow", new TestSlowHandler().delay(DELAY))
+                .build();
+        final int port = server.port();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int baseThreads = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        final AtomicInteger ok = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(REQUESTS);
+        final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        final URL url = new URL("http://localhost:" + port + "/slow");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < REQUESTS; i++) {
+            clients.execute(() -> {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+                    int status = connection.getResponseCode();
+                    connection.disconnect();
+                    if (status == HttpURLConnection.HTTP_OK) {
+                        ok.incrementAndGet();
+                    } else if (status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                        rejected.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = System.currentTimeMillis() - start;
+        // Peak threads exclude the client threads
+        int peak = threads.getPeakThreadCount() - baseThreads - CLIENTS;
+        clients.shutdown();
+
+        System.out.println(String.format("%s:\t%dms  ok:%d  503:%d  error:%d  peak server threads:%d  %.1f req/s",
+                name, elapsed, ok.get(), rejected.get(), failed.get(), peak, (REQUESTS * 1000d / elapsed)));
+        assertEquals(REQUESTS, ok.get() + rejected.get() + failed.get());
+
+        server.stop();
+        server.awaitTermination();
+    }
+}
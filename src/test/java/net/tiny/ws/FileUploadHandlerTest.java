@@ -104,6 +104,34 @@ public class FileUploadHandlerTest {
     }
 
 
+    @Test
+    public void testEntityTooLarge() throws Exception {
+        String boundary = "WebKitFormBoundaryKBRUiUWrIpW9wq2j";
+        uploader.setMaxPartSize(10L);
+        SimpleClient client = new SimpleClient.Builder().build();
+
+        String contents =
+                "--WebKitFormBoundaryKBRUiUWrIpW9wq2j\r\n" +
+                "Content-Disposition: form-data; name=\"datafile\"; filename=\"test.txt\"\r\n" +
+                "Content-type: application/octet-stream\r\n" +
+                "\r\n" +
+                "1234567890\r\n" +
+                "abcdefghijk\r\n" +
+                "--WebKitFormBoundaryKBRUiUWrIpW9wq2j--\r\n" +
+                "";
+
+        client.request()
+            .port(port)
+            .path("/upload")
+            .type("multipart/form-data;boundary=" + boundary)
+            .doPost(contents.getBytes(),  callback -> {
+                assertFalse(callback.success());
+            });
+        assertEquals(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, client.getStatus());
+        client.close();
+        assertNull(uploader.multiParts);
+    }
+
     static class TestFileUploadHandler extends FormDataHandler {
         List<MultiPart> multiParts;
         @Override
@@ -2,6 +2,13 @@ package net.tiny.ws;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 import org.junit.jupiter.api.Test;
 
 public class HttpHandlerHelperTest {
@@ -17,4 +24,22 @@ public class HttpHandlerHelperTest {
         assertEquals("text/xml; charset=utf-8", HttpHandlerHelper.getMimeType("define.xml").getType());
         assertEquals("application/json; charset=utf-8", HttpHandlerHelper.getMimeType("product.json").getType());
     }
+
+    @Test
+    public void testTransferFile() throws Exception {
+        Path path = Paths.get("src/test/resources/home/icon/favicon.ico");
+        byte[] expected = Files.readAllBytes(path);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            HttpHandlerHelper.transfer(channel, 0L, channel.size(), out);
+        }
+        assertArrayEquals(expected, out.toByteArray());
+
+        out = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Over the end of file
+            HttpHandlerHelper.transfer(channel, 100L, channel.size(), out);
+        }
+        assertEquals(expected.length - 100, out.size());
+    }
 }
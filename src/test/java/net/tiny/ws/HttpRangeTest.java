@@ -0,0 +1,61 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class HttpRangeTest {
+
+    @Test
+    public void testParseSingleRange() throws Exception {
+        List<HttpRange> ranges = HttpRange.parse("bytes=0-499", 1000L);
+        assertEquals(1, ranges.size());
+        assertEquals(0L, ranges.get(0).start());
+        assertEquals(499L, ranges.get(0).end());
+        assertEquals(500L, ranges.get(0).length());
+        assertEquals("bytes 0-499/1000", ranges.get(0).contentRange(1000L));
+
+        ranges = HttpRange.parse("bytes=500-", 1000L);
+        assertEquals("500-999", ranges.get(0).toString());
+
+        ranges = HttpRange.parse("bytes=-200", 1000L);
+        assertEquals("800-999", ranges.get(0).toString());
+
+        // Last byte position over the size
+        ranges = HttpRange.parse("bytes=900-2000", 1000L);
+        assertEquals("900-999", ranges.get(0).toString());
+
+        // Suffix over the size
+        ranges = HttpRange.parse("bytes=-2000", 1000L);
+        assertEquals("0-999", ranges.get(0).toString());
+    }
+
+    @Test
+    public void testParseMultiRanges() throws Exception {
+        List<HttpRange> ranges = HttpRange.parse("bytes=0-9, 20-29,-5", 100L);
+        assertEquals(3, ranges.size());
+        assertEquals("0-9", ranges.get(0).toString());
+        assertEquals("20-29", ranges.get(1).toString());
+        assertEquals("95-99", ranges.get(2).toString());
+
+        // Unsatisfiable range is skipped
+        ranges = HttpRange.parse("bytes=0-9,200-299", 100L);
+        assertEquals(1, ranges.size());
+    }
+
+    @Test
+    public void testInvalidRange() throws Exception {
+        assertNull(HttpRange.parse(null, 100L));
+        assertNull(HttpRange.parse("items=0-9", 100L));
+        assertNull(HttpRange.parse("bytes=9-0", 100L));
+        assertNull(HttpRange.parse("bytes=a-b", 100L));
+        assertNull(HttpRange.parse("bytes=10", 100L));
+
+        // Not satisfiable
+        assertTrue(HttpRange.parse("bytes=100-199", 100L).isEmpty());
+        assertTrue(HttpRange.parse("bytes=-0", 100L).isEmpty());
+        assertTrue(HttpRange.parse("bytes=0-", 0L).isEmpty());
+    }
+}
@@ -0,0 +1,74 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() throws Exception {
+        for (long v = 0L; v < 16L; v++) {
+            assertEquals(v, LatencyHistogram.index(v));
+        }
+        assertEquals(16, LatencyHistogram.index(16L));
+        assertEquals(31, LatencyHistogram.index(31L));
+        assertEquals(32, LatencyHistogram.index(32L));
+        assertEquals(32, LatencyHistogram.index(33L));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long lower = LatencyHistogram.lowerBound(i);
+            long upper = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.index(lower));
+            assertEquals(i, LatencyHistogram.index(upper));
+            if (i > 0) {
+                assertEquals(LatencyHistogram.upperBound(i - 1) + 1L, lower);
+            }
+            // Under 1/16 relative error
+            assertTrue((upper - lower) * 16L <= Math.max(lower, 16L), "bucket " + i);
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        for (long v = 1L; v <= 10000L; v++) {
+            histogram.record(v * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000L, snapshot.getCount());
+        assertEquals(10000000L, snapshot.getMax());
+        assertEquals(5000500.0d, snapshot.getMean(), 0.1d);
+        assertNear(5000000L, snapshot.getValueAt(0.5d));
+        assertNear(9900000L, snapshot.getValueAt(0.99d));
+        assertEquals(10000000L, snapshot.getValueAt(1.0d));
+        assertEquals(0L, new LatencyHistogram().snapshot().getValueAt(0.5d));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram(8);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int n = 0; n < 100000; n++) {
+                    histogram.record(ThreadLocalRandom.current().nextLong(1000000L));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800000L, histogram.snapshot().getCount());
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16L, expected + " ~ " + actual);
+    }
+}
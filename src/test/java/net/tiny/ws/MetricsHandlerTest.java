@@ -0,0 +1,110 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import net.tiny.service.ThreadPoolExeutorWrapper;
+
+public class MetricsHandlerTest {
+
+    @Test
+    public void testPrometheusMetrics() throws Exception {
+        MetricsFilter metrics = new MetricsFilter();
+        ThreadPoolExeutorWrapper executor = new ThreadPoolExeutorWrapper();
+        WebServiceHandler json = new TestJsonHandler()
+                .path("/json")
+                .filter(metrics);
+        MetricsHandler handler = new MetricsHandler();
+        handler.setMetrics(metrics);
+        WebServiceHandler prometheus = handler.path("/metrics");
+        // The executor of server is found by the handler
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .random()
+                .executor(executor)
+                .handler("/json", json)
+                .handler("/metrics", prometheus)
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+        final int port = server.port();
+        assertSame(executor, server.getExecutor());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpURLConnection.HTTP_OK, EmbeddedServerTest.status(port, "/json"));
+        }
+        assertEquals(HttpURLConnection.HTTP_BAD_METHOD, status(port, "/json", "POST"));
+        MetricsFilter.ContextMetrics context = metrics.getContexts().get("/json");
+        // Recorded after the response was sent
+        for (int i = 0; i < 50 && context.getRequests() < 11L; i++) {
+            Thread.sleep(20L);
+        }
+        assertEquals(11L, context.getRequests());
+        assertEquals(10L, context.getStatusCount(2));
+        assertEquals(1L, context.getStatusCount(4));
+        assertEquals(160L, context.getBytesOut());
+        assertEquals(11L, context.getLatency().getCount());
+        assertEquals(0L, context.getInFlight());
+
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + "/metrics").openConnection();
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        assertEquals(MetricsHandler.MIME_TYPE_PROMETHEUS, connection.getContentType());
+        String text = read(connection.getInputStream());
+        connection.disconnect();
+        System.out.println(text);
+        assertTrue(text.contains("# TYPE http_requests_total counter\n"));
+        assertTrue(text.contains("http_requests_total{path=\"/json\",status=\"2xx\"} 10\n"));
+        assertTrue(text.contains("http_requests_total{path=\"/json\",status=\"4xx\"} 1\n"));
+        assertTrue(text.contains("http_requests_total{path=\"/json\",status=\"other\"} 0\n"));
+        assertTrue(text.contains("http_response_bytes_total{path=\"/json\"} 160\n"));
+        assertTrue(text.contains("http_request_duration_seconds{path=\"/json\",quantile=\"0.99\"} "));
+        assertTrue(text.contains("http_request_duration_seconds_count{path=\"/json\"} 11\n"));
+        assertTrue(text.contains("executor_queue_size 0\n"));
+        // The running exchange of metrics
+        assertTrue(text.contains("executor_active_threads 1\n"), text);
+        final Matcher completed = Pattern.compile("executor_completed_tasks_total (\\d+)\n").matcher(text);
+        assertTrue(completed.find(), text);
+        assertTrue(Long.parseLong(completed.group(1)) >= 11L, text);
+
+        server.stop();
+        server.awaitTermination();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEscapeLabel() throws Exception {
+        assertEquals("/api", MetricsHandler.escape("/api"));
+        assertEquals("/a\\\"b\\\\c", MetricsHandler.escape("/a\"b\\c"));
+    }
+
+    static int status(int port, String path, String method) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
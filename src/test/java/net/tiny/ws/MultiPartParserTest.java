@@ -0,0 +1,190 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.tiny.ws.FormDataHandler.MultiPart;
+import net.tiny.ws.FormDataHandler.PartType;
+
+public class MultiPartParserTest {
+
+    static final String BOUNDARY = "--WebKitFormBoundaryKBRUiUWrIpW9wq2j";
+
+    static byte[] payload(byte[] file) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("preamble\r\n" +
+                BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"textline\"\r\n" +
+                "Content-Type: text/plain;charset=UTF-8\r\n" +
+                "\r\n" +
+                "value of textfield here\r\n" +
+                BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"datafile\"; filename=\"test.bin\"\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(file);
+        out.write(("\r\n" + BOUNDARY + "--\r\nepilogue").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns 1 to 7 bytes at a time, the delimiters are split over the reads.
+     */
+    static class TrickleInputStream extends ByteArrayInputStream {
+        int count = 0;
+        TrickleInputStream(byte[] buf) {
+            super(buf);
+        }
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, (count++ % 7) + 1));
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        // The file contains a part of delimiter
+        byte[] file = ("1234567890\r\n" + BOUNDARY.substring(0, 20) + "\r\nabcdefghijk").getBytes(StandardCharsets.UTF_8);
+        List<MultiPart> parts = new MultiPartParser(new ByteArrayInputStream(payload(file)),
+                BOUNDARY.getBytes(StandardCharsets.UTF_8)).parse();
+        assertEquals(2, parts.size());
+        MultiPart part = parts.get(0);
+        assertEquals(PartType.TEXT, part.type);
+        assertEquals("textline", part.name);
+        assertEquals("text/plain;charset=UTF-8", part.contentType);
+        assertEquals("value of textfield here", part.value);
+        assertNull(part.bytes);
+
+        part = parts.get(1);
+        assertEquals(PartType.FILE, part.type);
+        assertEquals("datafile", part.name);
+        assertEquals("test.bin", part.filename);
+        assertNull(part.value);
+        assertNull(part.file);
+        assertArrayEquals(file, part.bytes);
+        assertEquals(file.length, part.size);
+    }
+
+    @Test
+    public void testSplitDelimiter() throws Exception {
+        byte[] file = random(100000);
+        List<MultiPart> parts = new MultiPartParser(new TrickleInputStream(payload(file)),
+                BOUNDARY.getBytes(StandardCharsets.UTF_8), 8192).parse();
+        assertEquals(2, parts.size());
+        assertEquals("value of textfield here", parts.get(0).value);
+        assertArrayEquals(file, parts.get(1).bytes);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        byte[] file = random(300000);
+        List<MultiPart> parts = new MultiPartParser(new ByteArrayInputStream(payload(file)),
+                BOUNDARY.getBytes(StandardCharsets.UTF_8))
+                .spillThreshold(100000L)
+                .parse();
+        assertEquals(2, parts.size());
+        MultiPart part = parts.get(1);
+        assertNull(part.bytes);
+        assertNotNull(part.file);
+        assertTrue(Files.exists(part.file));
+        assertEquals(file.length, part.size);
+        assertArrayEquals(file, Files.readAllBytes(part.file));
+        try (InputStream in = part.getInputStream()) {
+            assertEquals(file[0] & 0xFF, in.read());
+        }
+
+        Path spilled = part.file;
+        part.delete();
+        assertNull(part.file);
+        assertFalse(Files.exists(spilled));
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception {
+        byte[] file = random(10000);
+        assertThrows(MultiPartParser.SizeLimitException.class, () ->
+            new MultiPartParser(new ByteArrayInputStream(payload(file)), BOUNDARY.getBytes(StandardCharsets.UTF_8))
+                .maxPartSize(9999L)
+                .parse());
+        assertThrows(MultiPartParser.SizeLimitException.class, () ->
+            new MultiPartParser(new ByteArrayInputStream(payload(file)), BOUNDARY.getBytes(StandardCharsets.UTF_8))
+                .maxTotalSize(10000L)
+                .parse());
+        // The text parts are not spilled
+        assertThrows(MultiPartParser.SizeLimitException.class, () ->
+            new MultiPartParser(new ByteArrayInputStream(payload(file)), BOUNDARY.getBytes(StandardCharsets.UTF_8))
+                .spillThreshold(10L)
+                .parse());
+
+        List<MultiPart> parts = new MultiPartParser(new ByteArrayInputStream(payload(file)),
+                BOUNDARY.getBytes(StandardCharsets.UTF_8))
+                .maxPartSize(10000L)
+                .maxTotalSize(20000L)
+                .parse();
+        assertEquals(10000L, parts.get(1).size);
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        byte[] file = random(200000);
+        List<String> names = new ArrayList<>();
+        MultiPartParser parser = new MultiPartParser(new TrickleInputStream(payload(file)),
+                BOUNDARY.getBytes(StandardCharsets.UTF_8), 8192);
+        parser.parse((part, body) -> {
+            names.add(part.name);
+            if (part.type == PartType.FILE) {
+                // Read a half, the rest is skipped
+                byte[] half = new byte[file.length / 2];
+                int off = 0;
+                int n;
+                while (off < half.length && (n = body.read(half, off, half.length - off)) != -1) {
+                    off += n;
+                }
+                assertArrayEquals(Arrays.copyOf(file, half.length), half);
+            }
+        });
+        assertEquals(Arrays.asList("textline", "datafile"), names);
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        byte[] truncated = Arrays.copyOf(payload(random(1000)), 500);
+        assertThrows(IOException.class, () ->
+            new MultiPartParser(new ByteArrayInputStream(truncated), BOUNDARY.getBytes(StandardCharsets.UTF_8))
+                .parse());
+        // No boundary
+        List<MultiPart> parts = new MultiPartParser(new ByteArrayInputStream("abc".getBytes()),
+                BOUNDARY.getBytes(StandardCharsets.UTF_8)).parse();
+        assertTrue(parts.isEmpty());
+    }
+
+    @Test
+    public void testParameters() throws Exception {
+        Map<String, String> params = MultiPartParser.parameters("form-data; name=\"input-b[]\"; filename=\"a;b.txt\"");
+        assertEquals("input-b[]", params.get("name"));
+        assertEquals("a;b.txt", params.get("filename"));
+        params = MultiPartParser.parameters("form-data; name=field");
+        assertEquals("field", params.get("name"));
+        assertNull(params.get("filename"));
+    }
+}
@@ -0,0 +1,189 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+public class RequestBodyTest {
+
+    static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns 100 bytes at a time and no Content-Length, like a chunked body.
+     */
+    static class SlowInputStream extends ByteArrayInputStream {
+        SlowInputStream(byte[] buf) {
+            super(buf);
+        }
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 100));
+        }
+    }
+
+    @Test
+    public void testMemory() throws Exception {
+        byte[] data = random(10000);
+        try (RequestBody body = RequestBody.read(new ByteArrayInputStream(data), data.length, 65536L, -1L, null)) {
+            assertFalse(body.isSpilled());
+            assertNull(body.getFile());
+            assertEquals(10000L, body.length());
+            assertArrayEquals(data, body.getBytes());
+            ByteBuffer buffer = body.asByteBuffer();
+            assertEquals(10000, buffer.remaining());
+            assertTrue(buffer.isReadOnly());
+        }
+        // Unknown length, the buffer grows
+        try (RequestBody body = RequestBody.read(new SlowInputStream(data), -1L, 65536L, -1L, null)) {
+            assertFalse(body.isSpilled());
+            assertArrayEquals(data, body.getBytes());
+        }
+        try (RequestBody body = RequestBody.read(new ByteArrayInputStream(new byte[0]), 0L, 65536L, -1L, null)) {
+            assertEquals(0L, body.length());
+            assertEquals("", body.getString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        byte[] data = random(300000);
+        Path file;
+        try (RequestBody body = RequestBody.read(new SlowInputStream(data), -1L, 65536L, -1L, null)) {
+            assertTrue(body.isSpilled());
+            file = body.getFile();
+            assertTrue(Files.exists(file));
+            assertEquals(300000L, body.length());
+            assertArrayEquals(data, body.getBytes());
+            ByteBuffer mapped = body.asByteBuffer();
+            assertEquals(300000, mapped.remaining());
+            assertEquals(data[299999], mapped.get(299999));
+            try (InputStream in = body.getInputStream()) {
+                assertEquals(data[0] & 0xFF, in.read());
+            }
+        }
+        assertFalse(Files.exists(file));
+
+        // Known length over the threshold
+        try (RequestBody body = RequestBody.read(new ByteArrayInputStream(data), data.length, 1000L, -1L, null)) {
+            assertTrue(body.isSpilled());
+            assertArrayEquals(data, body.getBytes());
+        }
+        // Always spilled
+        try (RequestBody body = RequestBody.read(new ByteArrayInputStream(data, 0, 10), 10L, 0L, -1L, null)) {
+            assertTrue(body.isSpilled());
+            assertArrayEquals(Arrays.copyOf(data, 10), body.getBytes());
+        }
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        byte[] data = random(10000);
+        // Rejected by the Content-Length before reading
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        assertThrows(RequestBody.TooLargeException.class, () ->
+            RequestBody.read(in, data.length, 65536L, 9999L, null));
+        assertEquals(data.length, in.available());
+        assertThrows(RequestBody.TooLargeException.class, () ->
+            RequestBody.read(new SlowInputStream(data), -1L, 65536L, 9999L, null));
+        assertThrows(RequestBody.TooLargeException.class, () ->
+            RequestBody.read(new SlowInputStream(data), -1L, 1000L, 9999L, null));
+        try (RequestBody body = RequestBody.read(new SlowInputStream(data), -1L, 1000L, 10000L, null)) {
+            assertEquals(10000L, body.length());
+        }
+    }
+
+    @Test
+    public void testHandler() throws Exception {
+        EchoHandler echo = new EchoHandler();
+        echo.setMaxBodySize(1000L);
+        WebServiceHandler handler = echo.path("/echo")
+                .filter(new ParameterFilter().bodyThreshold(100L));
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .random()
+                .handlers(Arrays.asList(handler))
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        // The body read by the filter is read again by the handler
+        String form = "name=" + String.join("", java.util.Collections.nCopies(100, "a")) + "&age=20";
+        HttpURLConnection connection = post(server.port(), form.getBytes(StandardCharsets.UTF_8), false);
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        assertEquals(form, new String(readAll(connection.getInputStream()), StandardCharsets.UTF_8));
+        assertEquals("20", echo.parameters.get("age"));
+        connection.disconnect();
+
+        connection = post(server.port(), random(2000), false);
+        assertEquals(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, connection.getResponseCode());
+        connection.disconnect();
+
+        // Chunked, rejected while reading
+        connection = post(server.port(), random(2000), true);
+        assertEquals(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, connection.getResponseCode());
+        connection.disconnect();
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    static HttpURLConnection post(int port, byte[] data, boolean chunked) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/echo").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        if (chunked) {
+            connection.setChunkedStreamingMode(256);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(data);
+        } catch (IOException e) {
+            // The server closed the connection
+        }
+        return connection;
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        try (RequestBody body = RequestBody.read(in, -1L, Integer.MAX_VALUE, -1L, null)) {
+            return body.getBytes();
+        } finally {
+            in.close();
+        }
+    }
+
+    static class EchoHandler extends BaseWebService {
+        Map<String, Object> parameters;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void execute(HTTP_METHOD method, HttpExchange he) throws IOException {
+            parameters = (Map<String, Object>) he.getAttribute(HTTP_PARAMETER_ATTRIBUTE);
+            final RequestBody body = getRequestBody(he);
+            final byte[] contents = body.getBytes();
+            he.sendResponseHeaders(HttpURLConnection.HTTP_OK, contents.length);
+            he.getResponseBody().write(contents);
+        }
+    }
+}
@@ -3,7 +3,10 @@ package net.tiny.ws;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -86,4 +89,37 @@ public class ResourceHttpHandlerTest {
         assertNull(rh.findResouce("/img/abc.png"));
         assertNull(rh.findResouce("/unkonw.htm"));
     }
+
+    @Test
+    public void testLookupCache() throws Exception {
+        Path home = Files.createTempDirectory("lookup");
+        Files.write(home.resolve("index.html"), "<html></html>".getBytes());
+        ResourceHttpHandler rh = new ResourceHttpHandler();
+        Map<String, String> resources = new HashMap<>();
+        resources.put("/", home.toString());
+        rh.setResources(resources);
+        rh.setWatchInterval(100L);
+        try {
+            assertNotNull(rh.findLocalFile("/index.html"));
+            assertNotNull(rh.findLocalFile("/index.html"));
+            assertNull(rh.findLocalFile("/new.html"));
+            assertNull(rh.findLocalFile("/new.html"));
+            assertEquals(2L, rh.getLookupCache().getHitCount());
+            assertEquals(2L, rh.getLookupCache().getMissCount());
+
+            // The not found entry is invalidated by the created file
+            Files.write(home.resolve("new.html"), "<html></html>".getBytes());
+            File found = null;
+            for (int i = 0; i < 50 && found == null; i++) {
+                Thread.sleep(100L);
+                found = rh.findLocalFile("/new.html");
+            }
+            assertNotNull(found);
+        } finally {
+            rh.close();
+            Files.delete(home.resolve("new.html"));
+            Files.delete(home.resolve("index.html"));
+            Files.delete(home);
+        }
+    }
 }
@@ -12,12 +12,20 @@ import net.tiny.ws.EmbeddedServer;
 import net.tiny.ws.ResourceHttpHandler;
 import net.tiny.ws.client.SimpleClient;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.logging.LogManager;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 public class ResourceServerTest {
@@ -43,7 +51,12 @@ public class ResourceServerTest {
                 "js:src/test/resources/home/js",
                 "icon:src/test/resources/home/icon"
                 );
-        WebServiceHandler resources = new ResourceHttpHandler()
+        ResourceHttpHandler handler = new ResourceHttpHandler();
+        // Stream the image files (over 4KB) from file channel
+        handler.setStreamThreshold(4096L);
+        // Compress the small test css and js files
+        handler.setCompressMinSize(16L);
+        WebServiceHandler resources = handler
                 .setPaths(paths)
                 .path("/")
                 .filters(Arrays.asList(logger, snap));
@@ -73,6 +86,29 @@ public class ResourceServerTest {
         server.awaitTermination();
     }
 
+    /**
+     * A server of the same resources with the contents cache, compressed on the fly.
+     */
+    static EmbeddedServer cachedServer() {
+        ResourceHttpHandler handler = new ResourceHttpHandler();
+        handler.setCacheBytes(1024L * 1024L);
+        handler.setStreamThreshold(4096L);
+        handler.setCompressMinSize(16L);
+        WebServiceHandler resources = handler
+                .setPaths(Arrays.asList(
+                        "img:src/test/resources/home/img",
+                        "css:src/test/resources/home/css",
+                        "js:src/test/resources/home/js",
+                        "icon:src/test/resources/home/icon"))
+                .path("/");
+        EmbeddedServer cached = new EmbeddedServer.Builder()
+                .random()
+                .handlers(Arrays.asList(resources))
+                .build();
+        cached.listen(callback -> {});
+        return cached;
+    }
+
     @Test
     public void testSimpleClientGetMethod() throws Exception {
         SimpleClient client = new SimpleClient.Builder()
@@ -179,6 +215,337 @@ public class ResourceServerTest {
 
     }
 
+    @Test
+    public void testRangeRequest() throws Exception {
+        SimpleClient client = new SimpleClient.Builder()
+                .userAgent(BROWSER_AGENT)
+                .build();
+
+        client.request().port(port).path("/icon/favicon.ico")
+            .header("Range", "bytes=0-99")
+            .doGet(callback -> {
+                if(callback.success()) {
+                    assertEquals(HttpURLConnection.HTTP_PARTIAL, client.getStatus());
+                    assertEquals("bytes", client.getHeader("Accept-Ranges"));
+                    assertEquals("bytes 0-99/5686", client.getHeader("Content-Range"));
+                    assertEquals(100, client.getContents().length);
+                } else {
+                    Throwable err = callback.cause();
+                    fail(err.getMessage());
+                }
+            });
+
+        client.request().port(port).path("/css/style.css")
+            .header("Range", "bytes=-5")
+            .doGet(callback -> {
+                if(callback.success()) {
+                    assertEquals(HttpURLConnection.HTTP_PARTIAL, client.getStatus());
+                    assertEquals("bytes 16-20/21", client.getHeader("Content-Range"));
+                    assertEquals(5, client.getContents().length);
+                } else {
+                    Throwable err = callback.cause();
+                    fail(err.getMessage());
+                }
+            });
+
+        client.request().port(port).path("/icon/favicon.ico")
+            .header("Range", "bytes=0-9,100-109")
+            .doGet(callback -> {
+                if(callback.success()) {
+                    assertEquals(HttpURLConnection.HTTP_PARTIAL, client.getStatus());
+                    assertTrue(client.getHeader("Content-Type").startsWith("multipart/byteranges; boundary="));
+                    String body = new String(client.getContents());
+                    assertTrue(body.contains("Content-Range: bytes 0-9/5686"));
+                    assertTrue(body.contains("Content-Range: bytes 100-109/5686"));
+                } else {
+                    Throwable err = callback.cause();
+                    fail(err.getMessage());
+                }
+            });
+
+        // A stale 'If-Range' sends the whole contents
+        client.request().port(port).path("/icon/favicon.ico")
+            .header("Range", "bytes=0-99")
+            .header("If-Range", HttpDateFormat.format(new Date(0L)))
+            .doGet(callback -> {
+                if(callback.success()) {
+                    assertEquals(HttpURLConnection.HTTP_OK, client.getStatus());
+                    assertEquals(5686, client.getContents().length);
+                } else {
+                    Throwable err = callback.cause();
+                    fail(err.getMessage());
+                }
+            });
+
+        client.close();
+
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + "/icon/favicon.ico").openConnection();
+        connection.setRequestProperty("Range", "bytes=6000-");
+        assertEquals(416, connection.getResponseCode());
+        assertEquals("bytes */5686", connection.getHeaderField("Content-Range"));
+        connection.disconnect();
+    }
+
+    @Test
+    public void testCompressedContents() throws Exception {
+        final byte[] css = Files.readAllBytes(new File("src/test/resources/home/css/style.css").toPath());
+        final byte[] js = Files.readAllBytes(new File("src/test/resources/home/js/script.js").toPath());
+
+        // Without cache, not compressed on the fly
+        HttpURLConnection connection = openConnection("/css/style.css", "gzip, deflate");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getHeaderField("Content-Encoding"));
+        assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+        assertArrayEquals(css, readAll(connection.getInputStream()));
+        connection.disconnect();
+
+        EmbeddedServer cached = cachedServer();
+        try {
+            // Compressed on the fly once and kept in cache
+            connection = openConnection(cached.port(), "/css/style.css", "gzip, deflate");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+            assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+            assertArrayEquals(css, readAll(new GZIPInputStream(connection.getInputStream())));
+            connection.disconnect();
+
+            connection = openConnection(cached.port(), "/js/script.js", "gzip;q=0, deflate");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("deflate", connection.getHeaderField("Content-Encoding"));
+            assertArrayEquals(js, readAll(new InflaterInputStream(connection.getInputStream())));
+            connection.disconnect();
+
+            // No acceptable encoding
+            connection = openConnection(cached.port(), "/css/style.css", "br");
+            assertEquals(200, connection.getResponseCode());
+            assertNull(connection.getHeaderField("Content-Encoding"));
+            assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+            assertArrayEquals(css, readAll(connection.getInputStream()));
+            connection.disconnect();
+
+            // Not compressible image
+            connection = openConnection(cached.port(), "/img/image.png", "gzip");
+            assertEquals(200, connection.getResponseCode());
+            assertNull(connection.getHeaderField("Content-Encoding"));
+            assertNull(connection.getHeaderField("Vary"));
+            assertEquals(4671, readAll(connection.getInputStream()).length);
+            connection.disconnect();
+        } finally {
+            cached.close();
+            cached.awaitTermination();
+        }
+
+        // Precompressed sibling file
+        File gz = new File("src/test/resources/home/js/script.js.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz.toPath()))) {
+            out.write(js);
+        }
+        try {
+            connection = openConnection("/js/script.js", "gzip");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+            assertEquals(gz.length(), connection.getContentLengthLong());
+            assertArrayEquals(js, readAll(new GZIPInputStream(connection.getInputStream())));
+            connection.disconnect();
+        } finally {
+            gz.delete();
+        }
+    }
+
+    @Test
+    public void testWeakEntityTag() throws Exception {
+        // Without cache the contents are not read for the entity tag
+        HttpURLConnection connection = openConnection("/css/style.css", "identity");
+        assertEquals(200, connection.getResponseCode());
+        final String etag = connection.getHeaderField("ETag");
+        assertTrue(etag.matches("W/\"[0-9a-f]+-[0-9a-f]+\""), etag);
+        connection.disconnect();
+
+        // Not compressed without cache, the same entity
+        connection = openConnection("/css/style.css", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getHeaderField("Content-Encoding"));
+        assertEquals(etag, connection.getHeaderField("ETag"));
+        connection.disconnect();
+
+        connection = openConnection("/css/style.css", "identity");
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(304, connection.getResponseCode());
+        assertEquals(etag, connection.getHeaderField("ETag"));
+        connection.disconnect();
+
+        // A weak entity tag never matches 'If-Range'
+        connection = openConnection("/css/style.css", "identity");
+        connection.setRequestProperty("Range", "bytes=0-9");
+        connection.setRequestProperty("If-Range", etag);
+        assertEquals(200, connection.getResponseCode());
+        connection.disconnect();
+    }
+
+    @Test
+    public void testInternalResourceValidators() throws Exception {
+        // Two handlers started at different times, as over a restart of server
+        EmbeddedServer first = internalServer();
+        Thread.sleep(1100L);
+        EmbeddedServer second = internalServer();
+        try {
+            HttpURLConnection connection = openConnection(first.port(), "/css/style.css", "identity");
+            assertEquals(200, connection.getResponseCode());
+            final String etag = connection.getHeaderField("ETag");
+            final String modified = connection.getHeaderField("Last-Modified");
+            assertTrue(etag.startsWith("W/"), etag);
+            connection.disconnect();
+
+            connection = openConnection(second.port(), "/css/style.css", "identity");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(etag, connection.getHeaderField("ETag"));
+            assertEquals(modified, connection.getHeaderField("Last-Modified"));
+            connection.disconnect();
+
+            connection = openConnection(second.port(), "/css/style.css", "identity");
+            connection.setRequestProperty("If-None-Match", etag);
+            assertEquals(304, connection.getResponseCode());
+            connection.disconnect();
+        } finally {
+            first.stop();
+            second.stop();
+            first.awaitTermination();
+            second.awaitTermination();
+        }
+    }
+
+    static EmbeddedServer internalServer() {
+        ResourceHttpHandler handler = new ResourceHttpHandler();
+        handler.setInternal(true);
+        WebServiceHandler resources = handler
+                .setPaths(Arrays.asList("css:home/css"))
+                .path("/");
+        EmbeddedServer internal = new EmbeddedServer.Builder()
+                .random()
+                .handlers(Arrays.asList(resources))
+                .build();
+        internal.listen(callback -> {});
+        return internal;
+    }
+
+    @Test
+    public void testEntityTag() throws Exception {
+        EmbeddedServer cached = cachedServer();
+        final int port = cached.port();
+        try {
+            HttpURLConnection connection = openConnection(port, "/css/style.css", "identity");
+            assertEquals(200, connection.getResponseCode());
+            final String etag = connection.getHeaderField("ETag");
+            assertTrue(etag.matches("\"[0-9a-f]{32}\""), etag);
+            connection.disconnect();
+
+            connection = openConnection(port, "/css/style.css", "gzip");
+            assertEquals(200, connection.getResponseCode());
+            final String gzipTag = connection.getHeaderField("ETag");
+            assertEquals(etag.replace("\"", "") , gzipTag.replace("-gzip\"", "").replace("\"", ""));
+            connection.disconnect();
+
+            // The entity tag takes precedence over the date
+            connection = openConnection(port, "/css/style.css", "identity");
+            connection.setRequestProperty("If-None-Match", "\"xyz\", " + etag);
+            connection.setRequestProperty("If-Modified-Since", HttpDateFormat.format(new Date(0L)));
+            assertEquals(304, connection.getResponseCode());
+            assertEquals(etag, connection.getHeaderField("ETag"));
+            connection.disconnect();
+
+            connection = openConnection(port, "/css/style.css", "gzip");
+            connection.setRequestProperty("If-None-Match", etag);
+            assertEquals(200, connection.getResponseCode());
+            connection.disconnect();
+
+            connection = openConnection(port, "/css/style.css", "gzip");
+            connection.setRequestProperty("If-None-Match", gzipTag);
+            assertEquals(304, connection.getResponseCode());
+            connection.disconnect();
+
+            // Large file streamed without cache has a weak entity tag
+            connection = openConnection(port, "/icon/favicon.ico", "identity");
+            assertEquals(200, connection.getResponseCode());
+            final String weakTag = connection.getHeaderField("ETag");
+            assertTrue(weakTag.startsWith("W/\""), weakTag);
+            connection.disconnect();
+
+            connection = openConnection(port, "/icon/favicon.ico", "identity");
+            connection.setRequestProperty("If-None-Match", weakTag);
+            assertEquals(304, connection.getResponseCode());
+            connection.disconnect();
+
+            // A weak entity tag never matches 'If-Range'
+            connection = openConnection(port, "/icon/favicon.ico", "identity");
+            connection.setRequestProperty("Range", "bytes=0-99");
+            connection.setRequestProperty("If-Range", weakTag);
+            assertEquals(200, connection.getResponseCode());
+            connection.disconnect();
+
+            connection = openConnection(port, "/css/style.css", "identity");
+            connection.setRequestProperty("Range", "bytes=0-9");
+            connection.setRequestProperty("If-Range", etag);
+            assertEquals(206, connection.getResponseCode());
+            connection.disconnect();
+        } finally {
+            cached.close();
+            cached.awaitTermination();
+        }
+    }
+
+    @Test
+    public void testOffHeapCache() throws Exception {
+        ResourceHttpHandler handler = new ResourceHttpHandler();
+        handler.setCacheBytes(1024L * 1024L);
+        handler.setOffHeap(true);
+        WebServiceHandler resources = handler
+                .setPaths(Arrays.asList("css:src/test/resources/home/css"))
+                .path("/");
+        EmbeddedServer offHeap = new EmbeddedServer.Builder()
+                .random()
+                .handlers(Arrays.asList(resources))
+                .build();
+        offHeap.listen(callback -> {});
+        try {
+            final byte[] css = Files.readAllBytes(new File("src/test/resources/home/css/style.css").toPath());
+            for (int i = 0; i < 2; i++) {
+                HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + offHeap.port() + "/css/style.css").openConnection();
+                assertEquals(200, connection.getResponseCode());
+                assertArrayEquals(css, readAll(connection.getInputStream()));
+                connection.disconnect();
+            }
+            assertTrue(handler.getContentsCache().isOffHeap());
+            assertEquals(1L, handler.getContentsCache().getMissCount());
+            // Weighed by the smallest off-heap block
+            assertTrue(css.length <= 512);
+            assertEquals(512L, handler.getContentsCache().getWeight());
+        } finally {
+            offHeap.close();
+            offHeap.awaitTermination();
+        }
+    }
+
+    static HttpURLConnection openConnection(String path, String acceptEncoding) throws Exception {
+        return openConnection(port, path, acceptEncoding);
+    }
+
+    static HttpURLConnection openConnection(int port, String path, String acceptEncoding) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        return connection;
+    }
+
+    static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
     @Test
     public void testJson() throws Exception {
         SimpleClient client = new SimpleClient.Builder().build();
@@ -0,0 +1,114 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+public class RollingFileWriterTest {
+
+    @Test
+    public void testRolloverBySize() throws Exception {
+        Path dir = Files.createTempDirectory("rolling");
+        Path log = dir.resolve("access.log");
+        RollingFileWriter rolling = new RollingFileWriter(log, 1000L, false, false, 0);
+        PrintWriter writer = new PrintWriter(rolling);
+        for (int i = 0; i < 100; i++) {
+            // 50 bytes per line
+            writer.println(String.format("%049d", i));
+            writer.flush();
+        }
+        writer.close();
+
+        List<Path> rolled = rolling.listRolledFiles();
+        assertEquals(5, rolled.size());
+        int lines = countLines(log);
+        for (Path path : rolled) {
+            // Rolled on flush, the lines are not split
+            assertEquals(1000L, Files.size(path));
+            lines += countLines(path);
+        }
+        assertEquals(100, lines);
+        delete(dir);
+    }
+
+    @Test
+    public void testCompressAndHistory() throws Exception {
+        Path dir = Files.createTempDirectory("rolling");
+        Path log = dir.resolve("access.log");
+        RollingFileWriter rolling = new RollingFileWriter(log, 500L, false, true, 3);
+        PrintWriter writer = new PrintWriter(rolling);
+        for (int i = 0; i < 100; i++) {
+            writer.println(String.format("%049d", i));
+            writer.flush();
+        }
+        writer.close();
+
+        List<Path> rolled = null;
+        for (int i = 0; i < 50; i++) {
+            rolled = rolling.listRolledFiles();
+            if (rolled.size() == 3 && rolled.stream().allMatch(p -> p.toString().endsWith(".gz"))) {
+                break;
+            }
+            Thread.sleep(100L);
+        }
+        assertEquals(3, rolled.size());
+        for (Path path : rolled) {
+            assertTrue(path.toString().endsWith(".gz"), path.toString());
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new GZIPInputStream(Files.newInputStream(path))))) {
+                assertEquals(49, reader.readLine().length());
+            }
+        }
+        delete(dir);
+    }
+
+    @Test
+    public void testNextMidnight() throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2019, Calendar.DECEMBER, 31, 23, 59, 59);
+        Calendar next = Calendar.getInstance();
+        next.setTimeInMillis(RollingFileWriter.nextMidnight(calendar.getTimeInMillis()));
+        assertEquals(2020, next.get(Calendar.YEAR));
+        assertEquals(Calendar.JANUARY, next.get(Calendar.MONTH));
+        assertEquals(1, next.get(Calendar.DAY_OF_MONTH));
+        assertEquals(0, next.get(Calendar.HOUR_OF_DAY));
+        assertEquals(0, next.get(Calendar.MINUTE));
+    }
+
+    @Test
+    public void testAccessLoggerRolling() throws Exception {
+        Path dir = Files.createTempDirectory("rolling");
+        File log = dir.resolve("access.log").toFile();
+        AccessLogger logger = new AccessLogger();
+        logger.setOut(log.getAbsolutePath());
+        logger.setMaxFileSize(200L);
+        for (int i = 0; i < 10; i++) {
+            logger.writeAccessLog(String.format("%099d", i));
+        }
+        logger.close();
+        assertEquals(5, new RollingFileWriter(log.toPath(), 200L, false, false, 0).listRolledFiles().size());
+        delete(dir);
+    }
+
+    private static int countLines(Path path) throws IOException {
+        return Files.readAllLines(path).size();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        for (File file : dir.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(dir);
+    }
+}
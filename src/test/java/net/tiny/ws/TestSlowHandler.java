@@ -0,0 +1,31 @@
+package net.tiny.ws;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import com.sun.net.httpserver.HttpExchange;
+
+public class TestSlowHandler extends BaseWebService {
+
+    private long delay = 100L;
+
+    public TestSlowHandler delay(long ms) {
+        delay = ms;
+        return this;
+    }
+
+    @Override
+    protected boolean doGetOnly() {
+        return true;
+    }
+
+    @Override
+    protected void execute(HTTP_METHOD method, HttpExchange he) throws IOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        he.sendResponseHeaders(HttpURLConnection.HTTP_OK, NO_RESPONSE_LENGTH);
+    }
+}
@@ -0,0 +1,60 @@
+package net.tiny.ws;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class VirtualLoggerTest {
+
+    @Test
+    public void testAsyncDispatch() throws Exception {
+        Path dir = Files.createTempDirectory("virtual");
+        List<VirtualHost> hosts = new ArrayList<>();
+        for (String domain : Arrays.asList("one.com", "two.com", "three.com")) {
+            hosts.add(new VirtualHost()
+                    .domain(domain)
+                    .home(dir.toString())
+                    .log(domain + ".log"));
+        }
+        VirtualLogger logger = new VirtualLogger();
+        logger.setHosts(hosts);
+        logger.setFormat("COMMON");
+        logger.setAsync(true);
+        logger.setMaxOpenFiles(2);
+        assertTrue(logger.isAsync());
+
+        List<AccessRecord> records = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String host = hosts.get(i % 3).domain() + ":8080";
+            records.add(new AccessRecord("127.0.0.1", "-", host, "GET", "/index.html", "HTTP/1.1",
+                    200, "420", "", "Mozilla/5.0", System.currentTimeMillis(), 1L));
+        }
+        // Unknown host is ignored
+        records.add(new AccessRecord("127.0.0.1", "-", null, "GET", "/", "HTTP/1.1",
+                404, "0", "", "Mozilla/5.0", System.currentTimeMillis(), 1L));
+        logger.dispatch(records.subList(0, 15));
+        // The least recently used file was closed
+        assertEquals(2, logger.getOpenFiles());
+        logger.dispatch(records.subList(15, records.size()));
+        assertEquals(2, logger.getOpenFiles());
+        logger.close();
+        assertEquals(0, logger.getOpenFiles());
+
+        for (VirtualHost host : hosts) {
+            File log = new File(dir.toFile(), host.log());
+            // Appended after reopened
+            List<String> lines = Files.readAllLines(log.toPath());
+            assertEquals(10, lines.size());
+            assertTrue(lines.get(0).contains("\"GET /index.html HTTP/1.1\" 200 420"), lines.get(0));
+            log.delete();
+        }
+        Files.delete(dir);
+    }
+}
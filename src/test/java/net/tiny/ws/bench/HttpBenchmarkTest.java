@@ -0,0 +1,282 @@
+package net.tiny.ws.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.tiny.ws.ByteArrayPool;
+import net.tiny.ws.EmbeddedServer;
+import net.tiny.ws.FormDataHandler;
+import net.tiny.ws.ResourceHttpHandler;
+import net.tiny.ws.TestJsonHandler;
+import net.tiny.ws.VirtualHost;
+import net.tiny.ws.VirtualHostHandler;
+import net.tiny.ws.WebServiceHandler;
+import net.tiny.ws.auth.JsonWebToken;
+import net.tiny.ws.auth.JsonWebTokenFilter;
+import net.tiny.ws.auth.Keys;
+
+/**
+ * The throughput, corrected latencies and allocation per request of the handlers,
+ * on the JDK and the NIO engines, in closed loop then in open loop at the half of
+ * the closed loop throughput.
+ * <p>
+ * Skipped in the regular test run, run with -Dbench=true, ex.
+ * 'mvn test -Dtest=HttpBenchmarkTest -Dbench=true'.
+ * The system properties "bench.connections", "bench.pipeline", "bench.warmup" and "bench.duration"
+ * change the load.
+ * The allocation of the pooled buffers is compared with the pool disabled on the file and upload paths.
+ */
+public class HttpBenchmarkTest {
+
+    static final int CONNECTIONS = Integer.getInteger("bench.connections", 16);
+    static final int PIPELINE    = Integer.getInteger("bench.pipeline", 4);
+    static final long WARMUP     = Long.getLong("bench.warmup", 1000L);
+    static final long DURATION   = Long.getLong("bench.duration", 3000L);
+    static final String BOUNDARY = "BenchmarkBoundary7MA4YWxkTrZu0gW";
+
+    static Logger logger;
+    static Path publicKey;
+    static String token;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception {
+        assumeTrue(Boolean.getBoolean("bench"), "Run with -Dbench=true");
+        LogManager.getLogManager()
+            .readConfiguration(Thread.currentThread().getContextClassLoader().getResourceAsStream("logging.properties"));
+        // No logging of requests
+        logger = Logger.getLogger("net.tiny");
+        logger.setLevel(Level.WARNING);
+
+        KeyPair keyPair = JsonWebToken.generateKeyPair("RS256");
+        publicKey = Files.createTempFile("bench", ".pub");
+        Files.write(publicKey, Keys.encodeKey(keyPair.getPublic()).getBytes(StandardCharsets.UTF_8));
+        Map<String, Object> payload = new HashMap<String, Object>();
+        payload.put("user", "bench");
+        token = new JsonWebToken.Builder()
+                .signer("RS256", Keys.encodeKey(keyPair.getPrivate()))
+                .subject("bench")
+                .issuer("net.tiny")
+                .build(payload)
+                .token();
+    }
+
+    @AfterAll
+    public static void afterAll() throws Exception {
+        if (publicKey != null) {
+            Files.deleteIfExists(publicKey);
+        }
+    }
+
+    @Test
+    public void testBenchmarkResource() throws Exception {
+        benchmark("resource", () -> {
+            ResourceHttpHandler handler = new ResourceHttpHandler();
+            handler.setPaths(Arrays.asList("css:src/test/resources/home/css", "img:src/test/resources/home/img"));
+            return handler.path("/");
+        }, LoadGenerator.get("/css/style.css"), LoadGenerator.get("/img/image.png"));
+    }
+
+    @Test
+    public void testBenchmarkVirtualHost() throws Exception {
+        benchmark("virtual", () -> {
+            VirtualHostHandler handler = new VirtualHostHandler();
+            handler.setHosts(Arrays.asList(new VirtualHost()
+                    .domain("localhost")
+                    .home("src/test/resources/virtual/one")));
+            return handler.path("/");
+        }, LoadGenerator.get("/index.html"), LoadGenerator.get("/css/style.css"));
+    }
+
+    @Test
+    public void testBenchmarkJsonWebToken() throws Exception {
+        benchmark("jwt", () -> {
+            JsonWebTokenFilter filter = new JsonWebTokenFilter();
+            filter.setKey(publicKey);
+            filter.setUri("/api/.*");
+            return new TestJsonHandler()
+                    .path("/api/json")
+                    .filter(filter);
+        }, LoadGenerator.get("/api/json", "Authorization: Bearer " + token));
+    }
+
+    @Test
+    public void testBenchmarkFormData() throws Exception {
+        benchmark("upload", () -> new CountingFormDataHandler().path("/upload"), uploadRequest());
+    }
+
+    @Test
+    public void testBenchmarkPooledBuffers() throws Exception {
+        // Larger than the stream threshold, read from the file by chunks
+        final Path home = Files.createTempDirectory("bench");
+        final byte[] data = new byte[256 * 1024];
+        Arrays.fill(data, (byte) 'x');
+        Files.write(home.resolve("large.png"), data);
+        try {
+            pooled("file", () -> {
+                ResourceHttpHandler handler = new ResourceHttpHandler();
+                handler.setPaths(Arrays.asList("files:" + home.toString()));
+                handler.setStreamThreshold(64L * 1024L);
+                return handler.path("/");
+            }, LoadGenerator.get("/files/large.png"));
+            pooled("upload", () -> new CountingFormDataHandler().path("/upload"), uploadRequest());
+        } finally {
+            Files.deleteIfExists(home.resolve("large.png"));
+            Files.deleteIfExists(home);
+        }
+    }
+
+    static byte[] uploadRequest() {
+        final byte[] file = new byte[8192];
+        Arrays.fill(file, (byte) 'x');
+        final String head =
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"textline\"\r\n" +
+                "\r\n" +
+                "value of textfield here\r\n" +
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"datafile\"; filename=\"bench.txt\"\r\n" +
+                "Content-type: application/octet-stream\r\n" +
+                "\r\n";
+        final String tail = "\r\n--" + BOUNDARY + "--\r\n";
+        final byte[] body = new byte[head.length() + file.length + tail.length()];
+        System.arraycopy(head.getBytes(StandardCharsets.ISO_8859_1), 0, body, 0, head.length());
+        System.arraycopy(file, 0, body, head.length(), file.length);
+        System.arraycopy(tail.getBytes(StandardCharsets.ISO_8859_1), 0, body, head.length() + file.length, tail.length());
+        return LoadGenerator.post("/upload", "multipart/form-data; boundary=" + BOUNDARY, body);
+    }
+
+    interface HandlerFactory {
+        WebServiceHandler create() throws Exception;
+    }
+
+    void benchmark(String scenario, HandlerFactory factory, byte[]... requests) throws Exception {
+        System.out.println(String.format("Connections:%d  Pipeline:%d  Warmup:%dms  Duration:%dms  Cores:%d",
+                CONNECTIONS, PIPELINE, WARMUP, DURATION, Runtime.getRuntime().availableProcessors()));
+        System.out.println(LoadReport.header());
+        for (String engine : new String[] {EmbeddedServer.ENGINE_JDK, EmbeddedServer.ENGINE_NIO}) {
+            final WebServiceHandler handler = factory.create();
+            EmbeddedServer server = new EmbeddedServer.Builder()
+                    .engine(engine)
+                    .random()
+                    .handlers(Arrays.asList(handler))
+                    .build();
+            server.listen(callback -> {
+                if(!callback.success()) {
+                    callback.cause().printStackTrace();
+                }
+            });
+            try {
+                final LoadReport closed = load(scenario + "-" + engine, server.port(), 0, requests);
+                System.out.println(closed);
+                assertResult(closed);
+                // At the half of the throughput, the latencies without the queuing
+                final int rate = Math.max(1, (int) (closed.getThroughput() / 2d));
+                final LoadReport open = load(scenario + "-" + engine, server.port(), rate, requests);
+                System.out.println(open);
+                assertResult(open);
+            } finally {
+                server.stop();
+                server.awaitTermination();
+                if (handler instanceof AutoCloseable) {
+                    ((AutoCloseable) handler).close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closed loop with the pool disabled then enabled.
+     */
+    void pooled(String scenario, HandlerFactory factory, byte[]... requests) throws Exception {
+        System.out.println(LoadReport.header());
+        try {
+            for (String engine : new String[] {EmbeddedServer.ENGINE_JDK, EmbeddedServer.ENGINE_NIO}) {
+                final long[] allocated = new long[2];
+                for (int i = 0; i < 2; i++) {
+                    ByteArrayPool.SHARED.setEnabled(i == 1);
+                    final WebServiceHandler handler = factory.create();
+                    EmbeddedServer server = new EmbeddedServer.Builder()
+                            .engine(engine)
+                            .random()
+                            .handlers(Arrays.asList(handler))
+                            .build();
+                    server.listen(callback -> {
+                        if(!callback.success()) {
+                            callback.cause().printStackTrace();
+                        }
+                    });
+                    try {
+                        final String name = scenario + "-" + engine + (i == 1 ? "-pool" : "-nopool");
+                        final LoadReport report = load(name, server.port(), 0, requests);
+                        System.out.println(report);
+                        assertResult(report);
+                        allocated[i] = report.getAllocatedPerRequest();
+                    } finally {
+                        server.stop();
+                        server.awaitTermination();
+                        if (handler instanceof AutoCloseable) {
+                            ((AutoCloseable) handler).close();
+                        }
+                    }
+                }
+                if (allocated[0] > 0L && allocated[1] >= 0L) {
+                    System.out.println(String.format("%s-%s allocation %d -> %d bytes/req (%.1f%%)",
+                            scenario, engine, allocated[0], allocated[1],
+                            100d * (allocated[1] - allocated[0]) / allocated[0]));
+                }
+            }
+        } finally {
+            ByteArrayPool.SHARED.setEnabled(true);
+        }
+    }
+
+    LoadReport load(String name, int port, int rate, byte[]... requests) throws IOException {
+        LoadGenerator.Builder builder = new LoadGenerator.Builder()
+                .name(name)
+                .port(port)
+                .connections(CONNECTIONS)
+                .pipeline(PIPELINE)
+                .rate(rate)
+                .warmup(WARMUP)
+                .duration(DURATION);
+        for (byte[] request : requests) {
+            builder.request(request);
+        }
+        return builder.build().run();
+    }
+
+    void assertResult(LoadReport report) {
+        assertTrue(report.getRequests() > 0L, report.toString());
+        assertEquals(0L, report.getErrors(), report.toString());
+    }
+
+    static class CountingFormDataHandler extends FormDataHandler {
+        @Override
+        protected void handle(HttpExchange he, List<MultiPart> parts) throws IOException {
+            final byte[] count = String.valueOf(parts != null ? parts.size() : 0).getBytes(StandardCharsets.UTF_8);
+            he.sendResponseHeaders(HttpURLConnection.HTTP_OK, count.length);
+            he.getResponseBody().write(count);
+        }
+    }
+}
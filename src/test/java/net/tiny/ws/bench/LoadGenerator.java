@@ -0,0 +1,689 @@
+package net.tiny.ws.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.tiny.ws.LatencyHistogram;
+
+/**
+ * A HTTP/1.1 load generator of pipelined keep-alive connections on a selector loop.
+ * <ul>
+ * <li>Closed loop : each connection keeps {@link Builder#pipeline(int)} requests in flight,
+ * a new request is sent when a response is completed.</li>
+ * <li>Open loop : the requests are sent at a constant {@link Builder#rate(int)} whether
+ * the responses are completed or not.</li>
+ * </ul>
+ * The latencies are corrected for the coordinated omission.
+ * In open loop a latency is measured from the time the request was scheduled to be sent,
+ * not from the time it was actually sent. In closed loop a latency over the expected interval
+ * (the mean latency of the warm up) is backfilled with the latencies of the requests
+ * which would have been sent during the stall, as HdrHistogram does.
+ * <p>
+ * The allocation rate is the bytes allocated by the other threads of this JVM (the server)
+ * per request, the threads terminated during the run are not counted.
+ */
+public class LoadGenerator {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos(10L);
+
+    // Response parser states
+    private static final int HEAD = 0;
+    private static final int BODY = 1;
+    private static final int CHUNK_SIZE = 2;
+    private static final int CHUNK_DATA = 3;
+    private static final int TRAILER = 4;
+
+    private final Builder builder;
+    private final List<Connection> connections = new ArrayList<>();
+    private Selector selector;
+    private LatencyHistogram histogram;
+    private boolean recording = false;
+    private boolean sending = false;
+    private long expectedInterval = 0L;
+    private long completed = 0L;
+    private long errors = 0L;
+    private long failures = 0L;
+    private long latencySum = 0L;
+    private long latencyCount = 0L;
+    private int sequence = 0;
+
+    private LoadGenerator(Builder builder) {
+        this.builder = builder;
+    }
+
+    public boolean isOpenLoop() {
+        return builder.rate > 0;
+    }
+
+    /**
+     * Run the warm up then the measurement on the caller thread.
+     */
+    public LoadReport run() throws IOException {
+        selector = Selector.open();
+        try {
+            for (int i = 0; i < builder.connections; i++) {
+                connections.add(connect(i));
+            }
+            // Warm up without recording
+            histogram = new LatencyHistogram(1);
+            loop(TimeUnit.MILLISECONDS.toNanos(builder.warmup));
+            if (!isOpenLoop()) {
+                expectedInterval = (builder.expectedInterval > 0L)
+                        ? TimeUnit.MICROSECONDS.toNanos(builder.expectedInterval)
+                        : (latencyCount > 0L ? latencySum / latencyCount : 0L);
+            }
+            completed = 0L;
+            errors = 0L;
+            failures = 0L;
+            histogram = new LatencyHistogram(1);
+
+            final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            final long allocatedBefore = allocatedBytes(threads);
+            final long start = System.nanoTime();
+            recording = true;
+            loop(TimeUnit.MILLISECONDS.toNanos(builder.duration));
+            final long elapsed = System.nanoTime() - start;
+            recording = false;
+            final long allocated = allocatedBytes(threads) - allocatedBefore;
+            drain();
+            return new LoadReport(builder.name, isOpenLoop() ? "open" : "closed",
+                    completed, errors, failures, elapsed,
+                    histogram.snapshot(), (allocatedBefore < 0L) ? -1L : allocated);
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            connections.clear();
+            selector.close();
+        }
+    }
+
+    private Connection connect(int index) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+        channel.connect(new InetSocketAddress(builder.host, builder.port));
+        channel.configureBlocking(false);
+        final Connection connection = new Connection(channel, index);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        return connection;
+    }
+
+    private void loop(long duration) throws IOException {
+        final long now = System.nanoTime();
+        final long end = now + duration;
+        sending = true;
+        if (isOpenLoop()) {
+            // Spread the first requests of connections over an interval
+            final long interval = interval();
+            for (Connection connection : connections) {
+                connection.next = now + interval * connection.index / connections.size();
+            }
+        } else {
+            for (Connection connection : connections) {
+                while (connection.inFlight < builder.pipeline) {
+                    connection.send(System.nanoTime());
+                }
+                connection.flush();
+            }
+        }
+        long time = now;
+        while (time < end) {
+            long wait = TimeUnit.NANOSECONDS.toMillis(end - time);
+            if (isOpenLoop()) {
+                wait = Math.min(wait, TimeUnit.NANOSECONDS.toMillis(schedule(time) - time));
+            }
+            if (wait > 0L) {
+                selector.select(wait);
+            } else {
+                selector.selectNow();
+            }
+            process();
+            time = System.nanoTime();
+        }
+        sending = false;
+    }
+
+    /**
+     * Send the requests which are due, return the next time a request is due.
+     */
+    private long schedule(long now) throws IOException {
+        final long interval = interval();
+        long next = Long.MAX_VALUE;
+        for (Connection connection : connections) {
+            if (connection.channel == null) {
+                continue;
+            }
+            while (connection.next <= now) {
+                connection.send(connection.next);
+                connection.next += interval;
+            }
+            connection.flush();
+            next = Math.min(next, connection.next);
+        }
+        return next;
+    }
+
+    private long interval() {
+        return TimeUnit.SECONDS.toNanos(1L) * connections.size() / builder.rate;
+    }
+
+    private void process() throws IOException {
+        final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            final SelectionKey key = it.next();
+            it.remove();
+            final Connection connection = (Connection) key.attachment();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isWritable()) {
+                connection.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.read();
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        final long end = System.nanoTime() + DRAIN_TIMEOUT;
+        while (System.nanoTime() < end && inFlight() > 0) {
+            selector.select(100L);
+            process();
+        }
+    }
+
+    private int inFlight() {
+        int n = 0;
+        for (Connection connection : connections) {
+            n += connection.inFlight;
+        }
+        return n;
+    }
+
+    private void completed(int status, long latency) {
+        if (!recording) {
+            latencySum += latency;
+            latencyCount++;
+            return;
+        }
+        completed++;
+        if (status < 200 || status >= 400) {
+            errors++;
+        }
+        histogram.record(latency);
+        if (expectedInterval > 0L) {
+            // Backfill the requests which were not sent during the stall
+            for (long missing = latency - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+                histogram.record(missing);
+            }
+        }
+    }
+
+    private long allocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1L;
+        }
+        final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) threads;
+        if (!mx.isThreadAllocatedMemorySupported() || !mx.isThreadAllocatedMemoryEnabled()) {
+            return -1L;
+        }
+        final long self = Thread.currentThread().getId();
+        long total = 0L;
+        for (long id : mx.getAllThreadIds()) {
+            if (id != self) {
+                final long bytes = mx.getThreadAllocatedBytes(id);
+                if (bytes > 0L) {
+                    total += bytes;
+                }
+            }
+        }
+        return total;
+    }
+
+    private byte[] nextRequest() {
+        final List<byte[]> requests = builder.requests;
+        return requests.get((sequence++ & Integer.MAX_VALUE) % requests.size());
+    }
+
+    static int indexOf(ByteBuffer buffer, int from, byte[] target) {
+        final int limit = buffer.limit() - target.length;
+        for (int i = from; i <= limit; i++) {
+            int j = 0;
+            while (j < target.length && buffer.get(i + j) == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final byte[] CRLF = new byte[] {'\r', '\n'};
+    private static final byte[] END_OF_HEAD = new byte[] {'\r', '\n', '\r', '\n'};
+
+    /**
+     * A keep-alive connection and its response parser.
+     */
+    final class Connection {
+        final int index;
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        // The start times of the requests in flight
+        long[] starts = new long[16];
+        int head = 0;
+        int inFlight = 0;
+        long next;
+        // Parser
+        int state = HEAD;
+        long remaining = 0L;
+        int status = 0;
+        boolean close = false;
+        boolean closing = false;
+
+        Connection(SocketChannel channel, int index) {
+            this.channel = channel;
+            this.index = index;
+        }
+
+        void send(long start) {
+            final byte[] request = nextRequest();
+            if (out.remaining() < request.length) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + request.length));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            out.put(request);
+            if (inFlight == starts.length) {
+                final long[] larger = new long[starts.length * 2];
+                for (int i = 0; i < inFlight; i++) {
+                    larger[i] = starts[(head + i) % starts.length];
+                }
+                starts = larger;
+                head = 0;
+            }
+            starts[(head + inFlight) % starts.length] = start;
+            inFlight++;
+        }
+
+        void flush() throws IOException {
+            if (channel == null || out.position() == 0) {
+                return;
+            }
+            out.flip();
+            try {
+                channel.write(out);
+            } catch (IOException e) {
+                out.clear();
+                reconnect();
+                return;
+            }
+            out.compact();
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        void read() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            final int n;
+            try {
+                n = channel.read(in);
+            } catch (IOException e) {
+                reconnect();
+                return;
+            }
+            if (n < 0) {
+                reconnect();
+                return;
+            }
+            in.flip();
+            try {
+                parse();
+            } catch (RuntimeException e) {
+                // Broken response
+                reconnect();
+                return;
+            }
+            if (closing) {
+                closing = false;
+                reconnect();
+                return;
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                // A large head
+                final ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+            flush();
+        }
+
+        private void parse() throws IOException {
+            while (in.hasRemaining()) {
+                switch (state) {
+                case HEAD: {
+                    final int end = indexOf(in, in.position(), END_OF_HEAD);
+                    if (end < 0) {
+                        return;
+                    }
+                    final byte[] bytes = new byte[end - in.position()];
+                    in.get(bytes);
+                    in.position(end + END_OF_HEAD.length);
+                    head(new String(bytes, StandardCharsets.ISO_8859_1));
+                    break;
+                }
+                case BODY:
+                    skip();
+                    if (remaining == 0L) {
+                        complete();
+                    }
+                    break;
+                case CHUNK_SIZE: {
+                    final String line = line();
+                    if (line == null) {
+                        return;
+                    }
+                    final int ext = line.indexOf(';');
+                    final long size = Long.parseLong((ext < 0 ? line : line.substring(0, ext)).trim(), 16);
+                    if (size == 0L) {
+                        state = TRAILER;
+                    } else {
+                        // With the CRLF of the chunk
+                        remaining = size + 2L;
+                        state = CHUNK_DATA;
+                    }
+                    break;
+                }
+                case CHUNK_DATA:
+                    skip();
+                    if (remaining == 0L) {
+                        state = CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILER: {
+                    final String line = line();
+                    if (line == null) {
+                        return;
+                    }
+                    if (line.isEmpty()) {
+                        complete();
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown state " + state);
+                }
+                if (closing) {
+                    return;
+                }
+            }
+        }
+
+        private void head(String text) {
+            final String[] lines = text.split("\r\n");
+            // HTTP/1.1 200 OK
+            status = Integer.parseInt(lines[0].substring(9, 12));
+            long length = -1L;
+            boolean chunked = false;
+            close = false;
+            for (int i = 1; i < lines.length; i++) {
+                final int colon = lines[i].indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                final String name = lines[i].substring(0, colon).trim();
+                final String value = lines[i].substring(colon + 1).trim();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    length = Long.parseLong(value);
+                } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                    chunked = "chunked".equalsIgnoreCase(value);
+                } else if ("Connection".equalsIgnoreCase(name)) {
+                    close = "close".equalsIgnoreCase(value);
+                }
+            }
+            if (status < 200 || status == 204 || status == 304) {
+                length = 0L;
+            }
+            if (chunked) {
+                state = CHUNK_SIZE;
+            } else if (length < 0L) {
+                throw new IllegalStateException("Response without length");
+            } else {
+                remaining = length;
+                state = BODY;
+            }
+            if (status == 100) {
+                // Not a final response
+                state = HEAD;
+                return;
+            }
+            if (state == BODY && remaining == 0L) {
+                complete();
+            }
+        }
+
+        private String line() {
+            final int end = indexOf(in, in.position(), CRLF);
+            if (end < 0) {
+                return null;
+            }
+            final byte[] bytes = new byte[end - in.position()];
+            in.get(bytes);
+            in.position(end + CRLF.length);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        private void skip() {
+            final int n = (int) Math.min(remaining, in.remaining());
+            in.position(in.position() + n);
+            remaining -= n;
+        }
+
+        private void complete() {
+            final long start = starts[head];
+            head = (head + 1) % starts.length;
+            inFlight--;
+            state = HEAD;
+            completed(status, System.nanoTime() - start);
+            if (close) {
+                // The pipelined requests after it are lost
+                closing = true;
+                return;
+            }
+            if (sending && !isOpenLoop()) {
+                send(System.nanoTime());
+            }
+        }
+
+        /**
+         * The requests in flight are failed, the connection is reopened.
+         */
+        void reconnect() throws IOException {
+            if (recording) {
+                failures += inFlight;
+            }
+            close();
+            inFlight = 0;
+            head = 0;
+            state = HEAD;
+            in.clear();
+            out.clear();
+            if (!sending) {
+                // Draining
+                return;
+            }
+            channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+            channel.connect(new InetSocketAddress(builder.host, builder.port));
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+            if (sending && !isOpenLoop()) {
+                while (inFlight < builder.pipeline) {
+                    send(System.nanoTime());
+                }
+            }
+        }
+
+        void close() {
+            if (channel == null) {
+                return;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * A HTTP/1.1 GET request.
+     */
+    public static byte[] get(String path, String... headers) {
+        return request("GET", path, null, null, headers);
+    }
+
+    /**
+     * A HTTP/1.1 POST request with a content length.
+     */
+    public static byte[] post(String path, String contentType, byte[] body, String... headers) {
+        return request("POST", path, contentType, body, headers);
+    }
+
+    static byte[] request(String method, String path, String contentType, byte[] body, String... headers) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        sb.append("Host: localhost\r\n");
+        for (String header : headers) {
+            sb.append(header).append("\r\n");
+        }
+        if (body != null) {
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        sb.append("\r\n");
+        final byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        if (body == null) {
+            return head;
+        }
+        final byte[] request = new byte[head.length + body.length];
+        System.arraycopy(head, 0, request, 0, head.length);
+        System.arraycopy(body, 0, request, head.length, body.length);
+        return request;
+    }
+
+    public static class Builder {
+        private String name = "";
+        private String host = "localhost";
+        private int port = 8080;
+        private int connections = 16;
+        private int pipeline = 1;
+        private int rate = 0;
+        private long warmup = 1000L;
+        private long duration = 5000L;
+        private long expectedInterval = 0L;
+        private List<byte[]> requests = new ArrayList<>();
+
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder connections(int n) {
+            connections = n;
+            return this;
+        }
+
+        /**
+         * The requests in flight of a connection in closed loop.
+         */
+        public Builder pipeline(int depth) {
+            pipeline = depth;
+            return this;
+        }
+
+        /**
+         * The requests per second of all connections, the open loop if over 0.
+         */
+        public Builder rate(int rate) {
+            this.rate = rate;
+            return this;
+        }
+
+        /**
+         * @param ms the time of warm up in milliseconds
+         */
+        public Builder warmup(long ms) {
+            warmup = ms;
+            return this;
+        }
+
+        /**
+         * @param ms the time of measurement in milliseconds
+         */
+        public Builder duration(long ms) {
+            duration = ms;
+            return this;
+        }
+
+        /**
+         * @param micros the expected interval of the closed loop correction, the mean latency of warm up by default
+         */
+        public Builder expectedInterval(long micros) {
+            expectedInterval = micros;
+            return this;
+        }
+
+        /**
+         * Add a request, the requests are sent in turn.
+         */
+        public Builder request(byte[] request) {
+            requests.add(request);
+            return this;
+        }
+
+        public LoadGenerator build() {
+            if (requests.isEmpty()) {
+                throw new IllegalArgumentException("Has not a request");
+            }
+            if (connections <= 0 || pipeline <= 0) {
+                throw new IllegalArgumentException("Invalid connections or pipeline");
+            }
+            return new LoadGenerator(this);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.tiny.ws.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.tiny.ws.BaseWebService;
+import net.tiny.ws.EmbeddedServer;
+import net.tiny.ws.TestJsonHandler;
+import net.tiny.ws.TestSlowHandler;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void testRequest() throws Exception {
+        assertEquals("GET /a HTTP/1.1\r\nHost: localhost\r\nX-Test: 1\r\n\r\n",
+                new String(LoadGenerator.get("/a", "X-Test: 1"), StandardCharsets.ISO_8859_1));
+        assertEquals("POST /b HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/plain\r\nContent-Length: 3\r\n\r\nabc",
+                new String(LoadGenerator.post("/b", "text/plain", "abc".getBytes(StandardCharsets.ISO_8859_1)),
+                        StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testClosedLoop() throws Exception {
+        for (String engine : new String[] {EmbeddedServer.ENGINE_JDK, EmbeddedServer.ENGINE_NIO}) {
+            EmbeddedServer server = new EmbeddedServer.Builder()
+                    .engine(engine)
+                    .random()
+                    .handler("/json", new TestJsonHandler())
+                    .handler("/chunked", new ChunkedHandler())
+                    .build();
+            server.listen(callback -> {
+                if(!callback.success()) {
+                    callback.cause().printStackTrace();
+                }
+            });
+
+            LoadReport report = new LoadGenerator.Builder()
+                    .name(engine)
+                    .port(server.port())
+                    .connections(4)
+                    .pipeline(4)
+                    .warmup(200L)
+                    .duration(500L)
+                    .request(LoadGenerator.get("/json"))
+                    .request(LoadGenerator.get("/chunked"))
+                    .build()
+                    .run();
+            System.out.println(LoadReport.header());
+            System.out.println(report);
+            assertEquals("closed", report.getMode());
+            assertTrue(report.getRequests() > 0L);
+            assertEquals(0L, report.getErrors());
+            assertEquals(0L, report.getFailures());
+            assertTrue(report.getThroughput() > 0d);
+            assertTrue(report.getLatencies().getValueAt(0.5d) > 0L);
+
+            server.stop();
+            server.awaitTermination();
+        }
+    }
+
+    @Test
+    public void testOpenLoop() throws Exception {
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .engine(EmbeddedServer.ENGINE_NIO)
+                .random()
+                .handler("/json", new TestJsonHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        LoadReport report = new LoadGenerator.Builder()
+                .port(server.port())
+                .connections(2)
+                .rate(200)
+                .warmup(0L)
+                .duration(1000L)
+                .request(LoadGenerator.get("/json"))
+                .build()
+                .run();
+        System.out.println(report);
+        assertEquals("open", report.getMode());
+        // About 200 requests in a second
+        assertTrue(report.getRequests() >= 150L && report.getRequests() <= 250L, report.toString());
+        assertEquals(0L, report.getErrors());
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testCoordinatedOmission() throws Exception {
+        EmbeddedServer server = new EmbeddedServer.Builder()
+                .engine(EmbeddedServer.ENGINE_NIO)
+                .random()
+                .handler("/slow", new TestSlowHandler().delay(50L))
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        // Expected a request every 10ms, the requests during the 50ms stall are backfilled
+        LoadReport report = new LoadGenerator.Builder()
+                .port(server.port())
+                .connections(1)
+                .warmup(0L)
+                .duration(500L)
+                .expectedInterval(TimeUnit.MILLISECONDS.toMicros(10L))
+                .request(LoadGenerator.get("/slow"))
+                .build()
+                .run();
+        System.out.println(report);
+        final long recorded = report.getLatencies().getCount();
+        assertTrue(recorded >= report.getRequests() * 4L, recorded + " / " + report.getRequests());
+        assertTrue(report.getLatencies().getValueAt(0.5d) < TimeUnit.MILLISECONDS.toNanos(50L));
+        assertTrue(report.getLatencies().getMax() >= TimeUnit.MILLISECONDS.toNanos(50L));
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    static class ChunkedHandler extends BaseWebService {
+        @Override
+        protected void execute(HTTP_METHOD method, HttpExchange he) throws IOException {
+            he.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0L);
+            he.getResponseBody().write("chunk1".getBytes(StandardCharsets.UTF_8));
+            he.getResponseBody().flush();
+            he.getResponseBody().write("chunk2".getBytes(StandardCharsets.UTF_8));
+            he.getResponseBody().close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package net.tiny.ws.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.tiny.ws.LatencyHistogram;
+
+/**
+ * The result of a {@link LoadGenerator} run.
+ */
+public class LoadReport {
+
+    private final String name;
+    private final String mode;
+    private final long requests;
+    private final long errors;
+    private final long failures;
+    private final long elapsed;
+    private final LatencyHistogram.Snapshot latencies;
+    private final long allocated;
+
+    LoadReport(String name, String mode, long requests, long errors, long failures, long elapsed,
+            LatencyHistogram.Snapshot latencies, long allocated) {
+        this.name = name;
+        this.mode = mode;
+        this.requests = requests;
+        this.errors = errors;
+        this.failures = failures;
+        this.elapsed = elapsed;
+        this.latencies = latencies;
+        this.allocated = allocated;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return "closed" or "open"
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the completed responses
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the responses of status 4xx, 5xx
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the requests lost by the closed connections
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    public double getThroughput() {
+        return (elapsed > 0L) ? requests * 1e9d / elapsed : 0d;
+    }
+
+    /**
+     * @return the corrected latencies in nanoseconds
+     */
+    public LatencyHistogram.Snapshot getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return the bytes allocated by the server per request, -1 if not supported
+     */
+    public long getAllocatedPerRequest() {
+        if (allocated < 0L) {
+            return -1L;
+        }
+        return (requests > 0L) ? allocated / requests : 0L;
+    }
+
+    public static String header() {
+        return String.format("%-24s %-6s %9s %6s %6s %10s %9s %9s %9s %9s %10s",
+                "Scenario", "Mode", "Requests", "Error", "Lost", "req/s", "p50(us)", "p99(us)", "p999(us)", "max(us)", "B/req");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-24s %-6s %9d %6d %6d %10.1f %9d %9d %9d %9d %10d",
+                name, mode, requests, errors, failures, getThroughput(),
+                micros(latencies.getValueAt(0.5d)),
+                micros(latencies.getValueAt(0.99d)),
+                micros(latencies.getValueAt(0.999d)),
+                micros(latencies.getMax()),
+                getAllocatedPerRequest());
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
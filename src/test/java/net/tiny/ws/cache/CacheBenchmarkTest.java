@@ -99,6 +99,8 @@ public class CacheBenchmarkTest {
         para("LRU Cache3", list, new Cache.LruCache3<>(capacity, calc));
         seri("BarakbCache", list, new Cache.LruCache4<>(capacity, calc));
         para("BarakbCache", list, new Cache.LruCache4<>(capacity, calc));
+        seri("ConcurrentCache", list, new Cache.LruCache5<>(capacity, calc));
+        para("ConcurrentCache", list, new Cache.LruCache5<>(capacity, calc));
 
     }
 
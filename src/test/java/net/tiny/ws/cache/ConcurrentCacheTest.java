@@ -0,0 +1,203 @@
+package net.tiny.ws.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentCacheTest {
+
+    private static ExecutorService executorService;
+
+    @BeforeAll
+    public static void beforeClass() {
+        executorService = Executors.newFixedThreadPool(10);
+    }
+
+    @Test
+    public void testGet() throws Throwable {
+        final AtomicBoolean fromCache = new AtomicBoolean();
+        ConcurrentCache<String, String> cache = new ConcurrentCache<>(key -> {
+            fromCache.getAndSet(true);
+            return key;
+        }, executorService, 1);
+        assertEquals("foo", cache.get("foo"));
+        assertTrue(fromCache.getAndSet(false));
+        assertEquals("foo", cache.get("foo"));
+        assertFalse(fromCache.getAndSet(false));
+        assertEquals("bar", cache.get("bar"));
+        assertTrue(fromCache.getAndSet(false));
+        assertEquals("foo", cache.get("foo"));
+        assertTrue(fromCache.getAndSet(false));
+        assertEquals("Cache(1/1)", cache.toString());
+    }
+
+    @Test
+    public void testGetWaiting() throws Throwable {
+        final AtomicInteger nResults = new AtomicInteger(0);
+        final AtomicInteger nComputes = new AtomicInteger(0);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        final CyclicBarrier computeBarrier = new CyclicBarrier(2);
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>(key -> {
+            if (first.compareAndSet(true, false)) {
+                try {
+                    computeBarrier.await();
+                    computeBarrier.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    e.printStackTrace();
+                }
+            }
+            nComputes.incrementAndGet();
+            return key;
+        }, executorService, 1);
+
+        final CyclicBarrier threadsBarrier = new CyclicBarrier(11);
+        for (int i = 0; i < 10; ++i) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        threadsBarrier.await();
+                        String value = cache.get("foo");
+                        nResults.incrementAndGet();
+                        assertEquals("foo", value);
+                        threadsBarrier.await();
+                    } catch (Throwable ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }.start();
+        }
+        threadsBarrier.await();
+        computeBarrier.await();
+        assertEquals(0, nResults.get());
+        computeBarrier.await();
+        threadsBarrier.await();
+        assertEquals(10, nResults.get());
+        assertEquals(1, nComputes.get());
+    }
+
+    @Test
+    public void testDefaultExceptionStrategy() throws Throwable {
+        final AtomicReference<Object> result = new AtomicReference<>(new IOException("foo"));
+        ConcurrentCache<String, Object> cache = new ConcurrentCache<>(key -> {
+            Object r = result.get();
+            if (r instanceof IOException) {
+                IOException e = (IOException) r;
+                throw new RuntimeException(e.getMessage(), e);
+            } else {
+                return r;
+            }
+        }, 1);
+        try {
+            cache.get("foo");
+            fail("should have thrown IOException");
+        } catch (RuntimeException ignored) {
+            assertTrue(ignored.getCause() instanceof IOException);
+        }
+        result.set("foo");
+        try {
+            cache.get("foo");
+            fail("should have thrown IOException");
+        } catch (RuntimeException ignored) {
+            assertTrue(ignored.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testRemoveableException() throws Throwable {
+        final AtomicReference<Object> result = new AtomicReference<>(new IOException("foo"));
+        ConcurrentCache<String, Object> cache = new ConcurrentCache<>(key -> {
+            Object r = result.get();
+            if (r instanceof IOException) {
+                IOException e = (IOException) r;
+                throw new RuntimeException(e.getMessage(), e);
+            } else {
+                return r;
+            }
+        }, 1);
+        cache.setRemoveableException(RuntimeException.class);
+        try {
+            cache.get("foo");
+            fail("should have thrown IOException");
+        } catch (RuntimeException ignore) {
+            assertTrue(ignore.getCause() instanceof IOException);
+        }
+        assertEquals(0, cache.size());
+        result.set("foo");
+        assertEquals("foo", cache.get("foo"));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Throwable {
+        final AtomicInteger nComputes = new AtomicInteger(0);
+        ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(key -> {
+            nComputes.incrementAndGet();
+            return key;
+        }, 4);
+        for (int i = 0; i < 4; i++) {
+            cache.get(i);
+        }
+        // Touch 0, then 1 is the least recently used
+        cache.get(0);
+        cache.get(4);
+        assertEquals(4, cache.size());
+        assertEquals(5, nComputes.get());
+        cache.get(0);
+        assertEquals(5, nComputes.get());
+        cache.get(1);
+        assertEquals(6, nComputes.get());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get(i);
+        }
+        assertEquals("Cache(4/4)", cache.toString());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWeighedCapacity() throws Throwable {
+        final AtomicInteger nComputes = new AtomicInteger(0);
+        ConcurrentCache<Integer, byte[]> cache = new ConcurrentCache<>(key -> {
+            nComputes.incrementAndGet();
+            return new byte[key];
+        }, (key, value) -> value.length, 1000L, 500);
+
+        cache.get(100);
+        cache.get(200);
+        cache.get(300);
+        assertEquals(600L, cache.weight());
+        assertEquals(3, cache.getMissCount());
+        cache.get(100);
+        assertEquals(1, cache.getHitCount());
+
+        // Over max weight, evict 200 the least recently used
+        cache.get(450);
+        assertEquals(3, cache.size());
+        assertEquals(850L, cache.weight());
+        assertEquals(1, cache.getEvictionCount());
+
+        // Over max entry weight, not retained
+        assertEquals(600, cache.get(600).length);
+        assertEquals(600, cache.get(600).length);
+        assertEquals(3, cache.size());
+        assertEquals(850L, cache.weight());
+        assertEquals(6, cache.getMissCount());
+
+        cache.remove(100);
+        assertEquals(750L, cache.weight());
+        assertEquals("Cache(2, 750/1000)", cache.toString());
+        cache.clear();
+        assertEquals(0L, cache.weight());
+    }
+}
@@ -2,14 +2,19 @@ package net.tiny.ws.cache;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.Test;
 
@@ -89,4 +94,171 @@ public class ContentsCacheTest {
 
         cache.clear();
     }
+
+    @Test
+    public void testGetCompressedVariant() throws Exception {
+        URL url = new File("src/test/resources/home/index.html").toURI().toURL();
+        ContentsCache cache = new ContentsCache(3);
+        byte[] contents = cache.get(url);
+        byte[] gzip = cache.get(url, ContentsCache.GZIP);
+        assertSame(gzip, cache.get(url, ContentsCache.GZIP));
+        assertEquals("Cache(2/3)", cache.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            byte[] buffer = new byte[256];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        }
+        assertArrayEquals(contents, out.toByteArray());
+
+        String etag = cache.getETag(url);
+        assertEquals(ContentsCache.etag(contents), etag);
+        assertEquals(etag.replace("\"", "").concat("-gzip"), cache.getETag(url, ContentsCache.GZIP).replace("\"", ""));
+
+        byte[] deflate = cache.get(url, ContentsCache.DEFLATE);
+        assertNotEquals(gzip.length, deflate.length);
+        assertEquals("Cache(3/3)", cache.toString());
+
+        try {
+            cache.get(url, "br");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("br"));
+        }
+        cache.clear();
+    }
+
+    @Test
+    public void testWeighedCache() throws Exception {
+        URL index = new File("src/test/resources/home/index.html").toURI().toURL();
+        URL css = new File("src/test/resources/home/css/style.css").toURI().toURL();
+        URL icon = new File("src/test/resources/home/icon/favicon.ico").toURI().toURL();
+        // Cache max 1KB, the icon (5686 bytes) is not cached
+        ContentsCache cache = new ContentsCache(1024L, 1024);
+        assertEquals(314, cache.get(index).length);
+        assertEquals(21, cache.get(css).length);
+        assertEquals(335L, cache.getWeight());
+        assertEquals(5686, cache.get(icon).length);
+        assertEquals(335L, cache.getWeight());
+
+        cache.get(index);
+        cache.get(css);
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(3L, cache.getMissCount());
+        assertEquals(0L, cache.getEvictionCount());
+        cache.clear();
+        assertEquals(0L, cache.getWeight());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        Path dir = Files.createTempDirectory("cache");
+        Path css = Files.write(dir.resolve("style.css"), "body {}".getBytes("UTF-8"));
+        Path map = Files.write(dir.resolve("style.css.map"), "{}".getBytes("UTF-8"));
+        Files.createDirectory(dir.resolve("style"));
+        Path sub = Files.write(dir.resolve("style/main.css"), "p {}".getBytes("UTF-8"));
+        ContentsCache cache = new ContentsCache(10);
+        cache.get(css.toUri().toURL());
+        cache.get(css.toUri().toURL(), ContentsCache.GZIP);
+        cache.get(map.toUri().toURL());
+        cache.get(sub.toUri().toURL());
+
+        // The file and its variants, not the siblings
+        assertEquals(2, cache.invalidate(css.toUri().toURL()));
+        assertEquals(0, cache.invalidate(css.toUri().toURL()));
+        // A deleted directory has no trailing slash
+        String style = dir.resolve("style").toUri().toString();
+        assertEquals(1, cache.invalidate(new URL(style.substring(0, style.length() - 1))));
+        assertEquals(1, cache.invalidate(dir.toUri().toURL()));
+        cache.clear();
+
+        Files.delete(sub);
+        Files.delete(dir.resolve("style"));
+        Files.delete(map);
+        Files.delete(css);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testOffHeapCache() throws Exception {
+        URL index = new File("src/test/resources/home/index.html").toURI().toURL();
+        byte[] expected = Files.readAllBytes(Paths.get("src/test/resources/home/index.html"));
+        ContentsCache cache = new ContentsCache(1024L * 1024L, 64 * 1024, true);
+        assertTrue(cache.isOffHeap());
+
+        ByteBuffer buffer = cache.getBuffer(index);
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        assertEquals(expected.length, buffer.remaining());
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertArrayEquals(expected, actual);
+        // Each buffer has its own position
+        assertEquals(expected.length, cache.getBuffer(index).remaining());
+        assertArrayEquals(expected, cache.get(index));
+        // Weighed by the block size
+        assertEquals(OffHeapArena.blockSize(expected.length), cache.getWeight());
+
+        ByteBuffer gzip = cache.getBuffer(index, ContentsCache.GZIP);
+        assertTrue(gzip.isDirect());
+        assertEquals(ContentsCache.compress(expected, ContentsCache.GZIP).length, gzip.remaining());
+        assertEquals(OffHeapArena.blockSize(expected.length) + OffHeapArena.blockSize(gzip.remaining()), cache.getWeight());
+        assertEquals(cache.getWeight(), cache.getOffHeapUsed());
+        cache.clear();
+        assertEquals(0L, cache.getOffHeapUsed());
+    }
+
+    @Test
+    public void testOffHeapLease() throws Exception {
+        URL index = new File("src/test/resources/home/index.html").toURI().toURL();
+        byte[] expected = Files.readAllBytes(Paths.get("src/test/resources/home/index.html"));
+        ContentsCache cache = new ContentsCache(1024L * 1024L, 64 * 1024, true);
+        ContentsCache.Lease lease = cache.lease(index, null);
+        assertEquals(expected.length, lease.length());
+        // Evicted while leased, the block is not reused until closed
+        assertEquals(1, cache.invalidate(index));
+        assertEquals(0L, cache.getWeight());
+        assertEquals(OffHeapArena.blockSize(expected.length), cache.getOffHeapUsed());
+        cache.get(index);
+        assertEquals(2L * OffHeapArena.blockSize(expected.length), cache.getOffHeapUsed());
+        byte[] actual = new byte[lease.length()];
+        lease.buffer().get(actual);
+        assertArrayEquals(expected, actual);
+        lease.close();
+        lease.close();
+        assertEquals(OffHeapArena.blockSize(expected.length), cache.getOffHeapUsed());
+        cache.clear();
+        assertEquals(0L, cache.getOffHeapUsed());
+    }
+
+    @Test
+    public void testOffHeapArena() throws Exception {
+        OffHeapArena arena = new OffHeapArena(8L * 1024L * 1024L, 1024);
+        assertEquals(4 * 1024 * 1024, arena.slabSize());
+        assertEquals(512, OffHeapArena.blockSize(1));
+        assertEquals(1024, OffHeapArena.blockSize(1000));
+        OffHeapArena.Block a = arena.allocate(1000);
+        OffHeapArena.Block b = arena.allocate(600);
+        OffHeapArena.Block c = arena.allocate(100);
+        assertEquals(1000, a.buffer.capacity());
+        assertEquals(1024L + 1024L + 512L, arena.used());
+        assertEquals(4L * 1024L * 1024L, arena.reserved());
+        arena.free(b);
+        // The freed block is reused
+        OffHeapArena.Block d = arena.allocate(1024);
+        assertEquals(b.address, d.address);
+        arena.free(a);
+        arena.free(c);
+        arena.free(d);
+        assertEquals(0L, arena.used());
+        // Merged back to a whole slab
+        OffHeapArena.Block whole = arena.allocate(4 * 1024 * 1024);
+        assertNotNull(whole);
+        assertNotNull(arena.allocate(4 * 1024 * 1024));
+        // No more slab
+        assertNull(arena.allocate(512));
+    }
 }
@@ -0,0 +1,92 @@
+package net.tiny.ws.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class FileWatcherTest {
+
+    @Test
+    public void testNativeEvents() throws Exception {
+        assertWatchChanges(new FileWatcher());
+    }
+
+    @Test
+    public void testPolling() throws Exception {
+        FileWatcher watcher = new FileWatcher(true, 100L);
+        assertTrue(watcher.isPolling());
+        assertWatchChanges(watcher);
+    }
+
+    private void assertWatchChanges(FileWatcher watcher) throws Exception {
+        final Path root = Files.createTempDirectory("watch");
+        final Path file = root.resolve("style.css");
+        Files.write(file, "body {}".getBytes(StandardCharsets.UTF_8));
+        final BlockingQueue<Path> changes = new LinkedBlockingQueue<>();
+        watcher.listen(changes::add);
+        watcher.watch(root);
+        try {
+            Thread.sleep(200L);
+            Files.write(file, "body {color: red;}".getBytes(StandardCharsets.UTF_8));
+            assertEquals(file.toAbsolutePath(), changes.poll(10L, TimeUnit.SECONDS));
+
+            // New sub directory is also watched
+            final Path sub = Files.createDirectory(root.resolve("js"));
+            Thread.sleep(200L);
+            final Path script = Files.write(sub.resolve("script.js"), "alert(1);".getBytes(StandardCharsets.UTF_8));
+            assertTrue(waitFor(changes, script.toAbsolutePath()));
+
+            changes.clear();
+            Files.delete(file);
+            assertTrue(waitFor(changes, file.toAbsolutePath()));
+        } finally {
+            watcher.close();
+            Files.deleteIfExists(root.resolve("js").resolve("script.js"));
+            Files.deleteIfExists(root.resolve("js"));
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(root);
+        }
+    }
+
+    @Test
+    public void testInvalidateCache() throws Exception {
+        final Path root = Files.createTempDirectory("watch");
+        final Path file = Files.write(root.resolve("index.html"), "<html/>".getBytes(StandardCharsets.UTF_8));
+        final URL url = file.toFile().toURI().toURL();
+        final CacheFunction function = new CacheFunction(new ContentsCache(1024L, 1024));
+        final FileWatcher watcher = new FileWatcher(true, 100L).listen(path -> function.invalidate(path));
+        watcher.watch(root);
+        try {
+            assertEquals("<html/>", new String(function.apply(url)));
+            function.apply(url, ContentsCache.GZIP);
+            Files.write(file, "<html></html>".getBytes(StandardCharsets.UTF_8));
+            long timeout = System.currentTimeMillis() + 10000L;
+            while (function.getContentsCache().getWeight() > 0L && System.currentTimeMillis() < timeout) {
+                Thread.sleep(50L);
+            }
+            assertEquals("<html></html>", new String(function.apply(url)));
+        } finally {
+            watcher.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(root);
+        }
+    }
+
+    private static boolean waitFor(BlockingQueue<Path> changes, Path expected) throws InterruptedException {
+        Path path;
+        while ((path = changes.poll(10L, TimeUnit.SECONDS)) != null) {
+            if (path.equals(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,72 @@
+package net.tiny.ws.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class LookupCacheTest {
+
+    @Test
+    public void testPositiveAndNegative() throws Exception {
+        final Map<String, String> files = new HashMap<>();
+        files.put("/index.html", "/home/index.html");
+        final AtomicInteger nLookups = new AtomicInteger(0);
+        LookupCache<String> cache = new LookupCache<>(uri -> {
+            nLookups.incrementAndGet();
+            return files.get(uri);
+        }, 16, 60000L, 60000L);
+
+        assertEquals("/home/index.html", cache.get("/index.html"));
+        assertEquals("/home/index.html", cache.get("/index.html"));
+        assertNull(cache.get("/none.html"));
+        assertNull(cache.get("/none.html"));
+        assertEquals(2, nLookups.get());
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(2L, cache.getMissCount());
+        assertEquals("Lookup(2/16 hit:2 miss:2)", cache.toString());
+
+        // A new file is found after invalidated, the negative entries are always removed
+        files.put("/none.html", "/home/none.html");
+        assertEquals(1, cache.invalidate(file -> file.startsWith("/other")));
+        assertEquals("/home/none.html", cache.get("/none.html"));
+        assertEquals("/home/index.html", cache.get("/index.html"));
+        assertEquals(3, nLookups.get());
+
+        assertEquals(1, cache.invalidate(file -> file.equals("/home/index.html")));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        final AtomicInteger nLookups = new AtomicInteger(0);
+        LookupCache<String> cache = new LookupCache<>(uri -> {
+            nLookups.incrementAndGet();
+            return uri.endsWith(".html") ? uri : null;
+        }, 16, 60000L, 50L);
+
+        assertEquals("/a.html", cache.get("/a.html"));
+        assertNull(cache.get("/b.css"));
+        Thread.sleep(100L);
+        // The negative entry is expired and looked up again
+        assertEquals("/a.html", cache.get("/a.html"));
+        assertNull(cache.get("/b.css"));
+        assertEquals(3, nLookups.get());
+        assertEquals(1L, cache.getHitCount());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        LookupCache<String> cache = new LookupCache<>(uri -> uri, 4, 60000L, 5000L);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("/" + i, cache.get("/" + i));
+        }
+        assertEquals(4, cache.size());
+        assertEquals(100L, cache.getMissCount());
+    }
+}
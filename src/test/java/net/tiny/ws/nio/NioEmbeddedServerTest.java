@@ -0,0 +1,232 @@
+package net.tiny.ws.nio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import net.tiny.ws.BaseWebService;
+import net.tiny.ws.EmbeddedServer;
+import net.tiny.ws.EmbeddedServerTest;
+import net.tiny.ws.VoidHttpHandler;
+
+/**
+ * Runs all tests of {@link EmbeddedServerTest} on the NIO engine.
+ */
+public class NioEmbeddedServerTest extends EmbeddedServerTest {
+
+    @Override
+    protected EmbeddedServer.Builder newBuilder() {
+        return new EmbeddedServer.Builder().engine(EmbeddedServer.ENGINE_NIO);
+    }
+
+    static class EchoHandler extends BaseWebService {
+        @Override
+        protected void execute(HTTP_METHOD method, HttpExchange he) throws IOException {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            final InputStream in = he.getRequestBody();
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+            }
+            final byte[] echo = (method.name() + ":" + he.getRequestURI().getQuery() + ":" + body.toString("UTF-8"))
+                    .getBytes(StandardCharsets.UTF_8);
+            he.sendResponseHeaders(HttpURLConnection.HTTP_OK, echo.length);
+            he.getResponseBody().write(echo);
+        }
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .handler("/echo", new EchoHandler())
+                .handler("/health", new VoidHttpHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        try (Socket socket = new Socket("localhost", server.port())) {
+            socket.setSoTimeout(3000);
+            OutputStream out = socket.getOutputStream();
+            // Four requests in one write
+            String requests = "GET /echo?a=1 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "POST /echo?b=2 HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhello"
+                    + "POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "3\r\nabc\r\n2;ext=1\r\nde\r\n0\r\n\r\n"
+                    + "GET /none HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            out.write(requests.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            String responses = readAll(socket.getInputStream());
+            int first = responses.indexOf("GET:a=1:");
+            int second = responses.indexOf("POST:b=2:hello");
+            int third = responses.indexOf("POST:null:abcde");
+            int fourth = responses.indexOf("HTTP/1.1 404 Not Found");
+            assertTrue(first > 0, responses);
+            assertTrue(second > first, responses);
+            assertTrue(third > second, responses);
+            assertTrue(fourth > third, responses);
+        }
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testHttp10() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .handler("/echo", new EchoHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        try (Socket socket = new Socket("localhost", server.port())) {
+            socket.setSoTimeout(3000);
+            OutputStream out = socket.getOutputStream();
+            // Not keep-alive, closed after the response
+            out.write("GET /echo HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            String response = readAll(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"), response);
+            assertTrue(response.contains("Connection: close\r\n"), response);
+            assertTrue(response.endsWith("GET:null:"), response);
+        }
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testHttpURLConnection() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .handler("/echo", new EchoHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            HttpURLConnection connection = (HttpURLConnection)new java.net.URL(
+                    "http://localhost:" + server.port() + "/echo?n=" + i).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write("body".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            assertEquals("POST:n=" + i + ":body", readAll(connection.getInputStream()));
+        }
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testLargeBody() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .handler("/echo", new EchoHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        // Over the memory of body, spooled to a file
+        final StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            data.append(i % 10);
+        }
+        final String body = data.toString() + data + data;
+        for (boolean chunked : new boolean[] {false, true}) {
+            HttpURLConnection connection = (HttpURLConnection)new java.net.URL(
+                    "http://localhost:" + server.port() + "/echo").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            if (chunked) {
+                connection.setChunkedStreamingMode(1000);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            assertEquals("POST:null:" + body, readAll(connection.getInputStream()));
+        }
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testMaxBodySize() throws Exception {
+        EmbeddedServer server = newBuilder()
+                .random()
+                .maxBodySize(1000L)
+                .handler("/echo", new EchoHandler())
+                .build();
+        server.listen(callback -> {
+            if(!callback.success()) {
+                callback.cause().printStackTrace();
+            }
+        });
+
+        final byte[] body = new byte[2000];
+        java.util.Arrays.fill(body, (byte) 'a');
+        for (boolean chunked : new boolean[] {false, true}) {
+            HttpURLConnection connection = (HttpURLConnection)new java.net.URL(
+                    "http://localhost:" + server.port() + "/echo").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            if (chunked) {
+                connection.setChunkedStreamingMode(500);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            } catch (IOException e) {
+                // Closed by the server
+            }
+            assertEquals(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, connection.getResponseCode());
+            connection.disconnect();
+        }
+
+        server.stop();
+        server.awaitTermination();
+    }
+
+    static String readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int n;
+        try {
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } catch (java.net.SocketTimeoutException e) {
+            // Keep-alive connection
+        }
+        return out.toString("ISO-8859-1");
+    }
+}